@@ -0,0 +1,143 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+
+/**
+ * <p>
+ * Statistics about a batch of files processed by the command-line tool: how many were
+ * parsed, the failures by exception type, throughput, and the classes with the most
+ * instances.  Files may be added from several threads.
+ * </p>
+ *
+ * <p>
+ * The time is measured from the creation of the summary to the call to print().
+ * </p>
+ */
+public class BatchSummary {
+
+    /**
+     * Number of classes listed by print().
+     */
+    public static final int TOP_CLASSES = 10;
+
+    private final long start = System.nanoTime();
+    private int parsed;
+    private long bytes;
+    private final Map<String, Integer> failures = new TreeMap<String, Integer>();
+    private final Map<String, Integer> classes = new HashMap<String, Integer>();
+
+    /**
+     * Records a file that was parsed, and counts the instances in its handle maps by
+     * class.
+     *
+     * @param size the size of the file in bytes
+     * @param jd the parser the file was read with
+     */
+    public void addParsed(long size, Jdeserialize2 jd) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for(Map<Integer, Content> m: jd.getHandleMaps()) {
+            for(Content c: m.values()) {
+                if(c instanceof Instance) {
+                    counts.merge(((Instance)c).classdesc.name, 1, Integer::sum);
+                }
+            }
+        }
+        synchronized(this) {
+            parsed++;
+            bytes += size;
+            for(Map.Entry<String, Integer> e: counts.entrySet()) {
+                classes.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Records a file that couldn't be parsed.
+     *
+     * @param t the exception that stopped it
+     */
+    public synchronized void addFailure(Throwable t) {
+        failures.merge(t.getClass().getName(), 1, Integer::sum);
+    }
+
+    /**
+     * @return the number of files parsed
+     */
+    public synchronized int getParsedCount() {
+        return parsed;
+    }
+
+    /**
+     * @return the number of bytes in the files parsed
+     */
+    public synchronized long getParsedBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of failed files by exception class name, sorted by name
+     */
+    public synchronized Map<String, Integer> getFailures() {
+        return new TreeMap<String, Integer>(failures);
+    }
+
+    /**
+     * @param n the number of classes to return
+     * @return the names of the n classes with the most instances, most first; ties are
+     * sorted by name
+     */
+    public synchronized List<String> getTopClasses(int n) {
+        List<String> names = new ArrayList<String>(classes.keySet());
+        Collections.sort(names, (a, b) -> {
+            int c = Integer.compare(classes.get(b), classes.get(a));
+            return c != 0 ? c : a.compareTo(b);
+        });
+        return names.subList(0, Math.min(n, names.size()));
+    }
+
+    /**
+     * @param classname a class name
+     * @return the number of instances of the class in the files parsed
+     */
+    public synchronized int getInstanceCount(String classname) {
+        Integer count = classes.get(classname);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Prints the summary.
+     *
+     * @param pw the writer to print to
+     */
+    public synchronized void print(PrintWriter pw) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = 0;
+        for(int count: failures.values()) {
+            failed += count;
+        }
+        pw.println("//// BEGIN summary");
+        pw.println("files parsed: " + parsed);
+        pw.println("files failed: " + failed);
+        for(Map.Entry<String, Integer> e: failures.entrySet()) {
+            pw.println(Jdeserialize2.INDENT + e.getKey() + ": " + e.getValue());
+        }
+        pw.println("bytes parsed: " + bytes + " in " + String.format("%.3f", seconds) + " s ("
+                + String.format("%.0f", seconds > 0 ? bytes / seconds : 0) + " bytes/sec)");
+        pw.println("top classes by instance count:");
+        for(String name: getTopClasses(TOP_CLASSES)) {
+            pw.println(Jdeserialize2.INDENT + classes.get(name) + " " + name);
+        }
+        pw.println("//// END summary");
+        pw.flush();
+    }
+
+}
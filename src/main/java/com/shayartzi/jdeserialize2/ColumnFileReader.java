@@ -0,0 +1,429 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.ValidityException;
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+
+/**
+ * <p>
+ * Reads a column file written by ColumnarExport: the instances of one class, stored a
+ * field at a time.  Opening a file only reads its directory; each column is memory-mapped
+ * when it's asked for, so a reader that needs two columns of a large file maps just
+ * those.  The typed getters return views of the mapping, not copies.
+ * </p>
+ *
+ * <p>
+ * The file format, in big-endian byte order:
+ * </p>
+ *
+ * <pre>
+ * header:      int MAGIC, short VERSION, padding to 8 bytes
+ * handles:     int per row, the handle of each instance
+ * generations: int per row, the generation of handles the instance belongs to
+ * columns:     one after the other, each starting at a multiple of 8 bytes
+ * footer:      string class name, long serialVersionUID, int row count, long offset of
+ *              the handles, long offset of the generations, int column count, and for
+ *              each column: string declaring class, string field name, byte type code,
+ *              string field class name (or none), byte encoding, long offset, long
+ *              length
+ * trailer:     long offset of the footer, int MAGIC
+ * </pre>
+ *
+ * <p>
+ * Strings are an int length followed by that many bytes of modified UTF-8; a length of
+ * -1 is no string.  A column is encoded in one of these ways:
+ * </p>
+ *
+ * <ul>
+ * <li>PLAIN: a primitive value per row, at its Java size; booleans are a byte, 0 or 1.</li>
+ * <li>HANDLES: an int per row, the handle of the object the field refers to, or -1 for
+ * null.  The handle belongs to the row's generation: after a reset, or in another stream
+ * of the same file, the same handle is another object.</li>
+ * <li>DICTIONARY: for fields whose values are all strings or enum constants: an int
+ * count and that many strings, padding to 4 bytes, then an int per row, the index of the
+ * row's value in the dictionary, or -1 for null.</li>
+ * <li>DICTIONARY_RLE: the same dictionary, then an int count of runs and, for each run,
+ * an int number of rows and an int index.</li>
+ * </ul>
+ */
+public class ColumnFileReader implements Closeable {
+
+    /**
+     * "JDCF".
+     */
+    public static final int MAGIC = 0x4a444346;
+    public static final short VERSION = 2;
+
+    public static final byte PLAIN = 0;
+    public static final byte HANDLES = 1;
+    public static final byte DICTIONARY = 2;
+    public static final byte DICTIONARY_RLE = 3;
+
+    /**
+     * The size of the trailer at the end of the file.
+     */
+    static final int TRAILER_SIZE = 12;
+
+    private final FileChannel channel;
+    private final String classname;
+    private final long suid;
+    private final int rows;
+    private final long handlesOffset;
+    private final long generationsOffset;
+    private final String[] declaring;
+    private final String[] names;
+    private final FieldTypeEnum[] types;
+    private final String[] classnames;
+    private final byte[] encodings;
+    private final long[] offsets;
+    private final long[] lengths;
+
+    /**
+     * Opens a column file and reads its directory.
+     *
+     * @param file the file
+     * @throws ValidityException if the file isn't a column file this version can read
+     * @throws IOException if the file can't be read
+     */
+    public ColumnFileReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size < 8 + TRAILER_SIZE) {
+                throw new ValidityException("not a column file: " + file);
+            }
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE);
+            if(head.getInt() != MAGIC || trailer.getInt(8) != MAGIC) {
+                throw new ValidityException("not a column file: " + file);
+            }
+            short version = head.getShort();
+            if(version != VERSION) {
+                throw new ValidityException("unsupported column file version " + version + ": " + file);
+            }
+            long footer = trailer.getLong(0);
+            if(footer < 8 || footer > size - TRAILER_SIZE) {
+                throw new ValidityException("invalid footer offset " + footer + ": " + file);
+            }
+            ByteBuffer bb = channel.map(FileChannel.MapMode.READ_ONLY, footer, size - TRAILER_SIZE - footer);
+            classname = readString(bb);
+            suid = bb.getLong();
+            rows = bb.getInt();
+            handlesOffset = bb.getLong();
+            generationsOffset = bb.getLong();
+            int count = bb.getInt();
+            if(rows < 0 || count < 0) {
+                throw new ValidityException("invalid row or column count: " + file);
+            }
+            declaring = new String[count];
+            names = new String[count];
+            types = new FieldTypeEnum[count];
+            classnames = new String[count];
+            encodings = new byte[count];
+            offsets = new long[count];
+            lengths = new long[count];
+            for(int i = 0; i < count; i++) {
+                declaring[i] = readString(bb);
+                names[i] = readString(bb);
+                types[i] = FieldTypeEnum.get(bb.get());
+                classnames[i] = readString(bb);
+                encodings[i] = bb.get();
+                offsets[i] = bb.getLong();
+                lengths[i] = bb.getLong();
+                if(offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > footer) {
+                    throw new ValidityException("column " + names[i] + " is outside the data: " + file);
+                }
+            }
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        } catch (RuntimeException re) {
+            // A truncated or garbled directory
+            channel.close();
+            throw new ValidityException("invalid column file directory: " + file + ": " + re);
+        }
+    }
+
+    private static String readString(ByteBuffer bb) throws IOException {
+        int len = bb.getInt();
+        if(len < 0) {
+            return null;
+        }
+        if(len > bb.remaining()) {
+            throw new ValidityException("string length " + len + " past the end of the data");
+        }
+        ByteBuffer s = bb.slice();
+        s.limit(len);
+        bb.position(bb.position() + len);
+        return ModifiedUtf8Util.decode(s);
+    }
+
+    /**
+     * @return the name of the class whose instances the file holds
+     */
+    public String getClassName() {
+        return classname;
+    }
+
+    public long getSerialVersionUID() {
+        return suid;
+    }
+
+    /**
+     * @return the number of instances
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns: the fields of the class and its superclasses,
+     * superclasses first
+     */
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the name of the column's field
+     */
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the name of the class that declares the column's field
+     */
+    public String getDeclaringClass(int column) {
+        return declaring[column];
+    }
+
+    public FieldTypeEnum getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the field's class name as the stream gives it (such as "Ljava/lang/String;"),
+     * or null for primitive fields
+     */
+    public String getColumnClassName(int column) {
+        return classnames[column];
+    }
+
+    /**
+     * @param column the index of the column
+     * @return PLAIN, HANDLES, DICTIONARY or DICTIONARY_RLE
+     */
+    public byte getEncoding(int column) {
+        return encodings[column];
+    }
+
+    /**
+     * Finds a column by field name.  If classes in the hierarchy have fields of the same
+     * name, the one of the class closest to the instances' class is found.
+     *
+     * @param name the field name
+     * @return the index of the column, or -1 if there is none
+     */
+    public int findColumn(String name) {
+        for(int i = names.length - 1; i >= 0; i--) {
+            if(names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the handle of each instance
+     * @throws IOException if the data can't be mapped
+     */
+    public IntBuffer getHandles() throws IOException {
+        return map(handlesOffset, 4L * rows).asIntBuffer();
+    }
+
+    /**
+     * Gets the generation of handles of each instance, numbered from 0 across the files
+     * of an export.  A handle, whether in getHandles() or a HANDLES column, only
+     * identifies an object together with its generation.
+     *
+     * @return the generation of each instance
+     * @throws IOException if the data can't be mapped
+     */
+    public IntBuffer getGenerations() throws IOException {
+        return map(generationsOffset, 4L * rows).asIntBuffer();
+    }
+
+    /**
+     * @param column the index of a byte or boolean column
+     * @return the values; booleans are 0 or 1
+     * @throws IOException if the column can't be mapped
+     */
+    public ByteBuffer getBytes(int column) throws IOException {
+        if(types[column] != FieldTypeEnum.BOOLEAN) {
+            check(column, FieldTypeEnum.BYTE);
+        }
+        return mapColumn(column);
+    }
+
+    public CharBuffer getChars(int column) throws IOException {
+        check(column, FieldTypeEnum.CHAR);
+        return mapColumn(column).asCharBuffer();
+    }
+
+    public ShortBuffer getShorts(int column) throws IOException {
+        check(column, FieldTypeEnum.SHORT);
+        return mapColumn(column).asShortBuffer();
+    }
+
+    public IntBuffer getInts(int column) throws IOException {
+        check(column, FieldTypeEnum.INTEGER);
+        return mapColumn(column).asIntBuffer();
+    }
+
+    public LongBuffer getLongs(int column) throws IOException {
+        check(column, FieldTypeEnum.LONG);
+        return mapColumn(column).asLongBuffer();
+    }
+
+    public FloatBuffer getFloats(int column) throws IOException {
+        check(column, FieldTypeEnum.FLOAT);
+        return mapColumn(column).asFloatBuffer();
+    }
+
+    public DoubleBuffer getDoubles(int column) throws IOException {
+        check(column, FieldTypeEnum.DOUBLE);
+        return mapColumn(column).asDoubleBuffer();
+    }
+
+    /**
+     * @param column the index of a HANDLES column
+     * @return the handle each row's field refers to, or -1 for null
+     * @throws IOException if the column can't be mapped
+     */
+    public IntBuffer getReferences(int column) throws IOException {
+        checkEncoding(column, HANDLES);
+        return mapColumn(column).asIntBuffer();
+    }
+
+    /**
+     * @param column the index of a DICTIONARY or DICTIONARY_RLE column
+     * @return the distinct values of the column, in order of first appearance
+     * @throws IOException if the column can't be read
+     */
+    public List<String> getDictionary(int column) throws IOException {
+        ByteBuffer bb = mapDictionaryColumn(column);
+        return readDictionary(bb);
+    }
+
+    /**
+     * Gets the dictionary index of each row; run-length encoded columns are expanded.
+     *
+     * @param column the index of a DICTIONARY or DICTIONARY_RLE column
+     * @return the index of each row's value in getDictionary(), or -1 for null
+     * @throws IOException if the column can't be read
+     */
+    public int[] getDictionaryIndexes(int column) throws IOException {
+        ByteBuffer bb = mapDictionaryColumn(column);
+        readDictionary(bb);
+        bb.position((bb.position() + 3) & ~3);
+        int[] indexes = new int[rows];
+        if(encodings[column] == DICTIONARY) {
+            bb.asIntBuffer().get(indexes);
+            return indexes;
+        }
+        int runs = bb.getInt();
+        int row = 0;
+        for(int i = 0; i < runs; i++) {
+            int length = bb.getInt();
+            int index = bb.getInt();
+            if(length < 0 || length > rows - row) {
+                throw new ValidityException("run of " + length + " rows past the end of column " + names[column]);
+            }
+            Arrays.fill(indexes, row, row + length, index);
+            row += length;
+        }
+        if(row != rows) {
+            throw new ValidityException("runs of column " + names[column] + " cover " + row + " of " + rows + " rows");
+        }
+        return indexes;
+    }
+
+    /**
+     * @param column the index of a DICTIONARY or DICTIONARY_RLE column
+     * @return the value of each row, or null
+     * @throws IOException if the column can't be read
+     */
+    public String[] getStrings(int column) throws IOException {
+        List<String> dictionary = getDictionary(column);
+        int[] indexes = getDictionaryIndexes(column);
+        String[] values = new String[rows];
+        for(int i = 0; i < rows; i++) {
+            values[i] = (indexes[i] < 0 ? null : dictionary.get(indexes[i]));
+        }
+        return values;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<String> readDictionary(ByteBuffer bb) throws IOException {
+        int count = bb.getInt();
+        List<String> dictionary = new ArrayList<String>(Math.min(count, rows));
+        for(int i = 0; i < count; i++) {
+            dictionary.add(readString(bb));
+        }
+        return dictionary;
+    }
+
+    private ByteBuffer mapDictionaryColumn(int column) throws IOException {
+        if(encodings[column] != DICTIONARY && encodings[column] != DICTIONARY_RLE) {
+            throw new IllegalArgumentException("column " + names[column] + " isn't dictionary-encoded");
+        }
+        return mapColumn(column);
+    }
+
+    private void check(int column, FieldTypeEnum type) {
+        if(types[column] != type) {
+            throw new IllegalArgumentException("column " + names[column] + " is " + types[column] + ", not " + type);
+        }
+    }
+
+    private void checkEncoding(int column, byte encoding) {
+        if(encodings[column] != encoding) {
+            throw new IllegalArgumentException("column " + names[column] + " has encoding " + encodings[column] + ", not " + encoding);
+        }
+    }
+
+    private ByteBuffer mapColumn(int column) throws IOException {
+        return map(offsets[column], lengths[column]);
+    }
+
+    private ByteBuffer map(long offset, long length) throws IOException {
+        if(length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+}
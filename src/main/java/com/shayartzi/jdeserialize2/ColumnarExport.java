@@ -0,0 +1,475 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.EnumObj;
+import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.FieldLayout;
+import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+import com.shayartzi.jdeserialize2.legacy.ValidityException;
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+
+/**
+ * <p>
+ * Writes instances as column files, one per class, for analysis tools that only need a
+ * few fields of many objects: the -columnar option of the command-line tool.  Each field
+ * of the flattened hierarchy (see FieldLayout) becomes a column, holding the primitive
+ * values, the handles of the objects referred to, or, for fields whose values are all
+ * strings or enum constants, a dictionary of the distinct values and an index per
+ * row, run-length encoded when that's smaller.  ColumnFileReader describes the format
+ * and reads the files back.
+ * </p>
+ *
+ * <p>
+ * Instances are added with add(), which only keeps a reference to them; write() writes
+ * the files a column at a time.  Instances are grouped by class name, serialVersionUID
+ * and field layout, so the instances of a class from different generations of handles
+ * (or different streams) go to the same file, while two incompatible versions of a class
+ * get a file each.
+ * </p>
+ *
+ * <p>
+ * Handles only identify objects within their generation, so each row also records the
+ * generation its instance was added in; see newGeneration().  Generations are numbered
+ * from 0 across all the files of an export, and a handle in a reference column refers to
+ * the object with that handle in the row's generation.
+ * </p>
+ */
+public class ColumnarExport {
+
+    /**
+     * The extension of column files.
+     */
+    public static final String SUFFIX = ".col";
+
+    private final Path dir;
+    private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+    private final Map<ClassDesc, String> keys = new IdentityHashMap<ClassDesc, String>();
+    private int generation;
+    private boolean generationUsed;
+
+    /**
+     * Constructor.
+     *
+     * @param dir the directory to write the files to; it's created if necessary
+     */
+    public ColumnarExport(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Adds the instances of a parser's handle maps, each map as a generation of its own.
+     *
+     * @param jd the parser
+     */
+    public void addAll(Jdeserialize2 jd) {
+        for(Map<Integer, Content> m: jd.getHandleMaps()) {
+            newGeneration();
+            for(Content c: m.values()) {
+                add(c);
+            }
+        }
+    }
+
+    /**
+     * Starts a new generation of handles, if any instance has been added to the current
+     * one: instances added from now on may reuse the handles of those added before.
+     */
+    public void newGeneration() {
+        if(generationUsed) {
+            generation++;
+            generationUsed = false;
+        }
+    }
+
+    /**
+     * Adds an object to the current generation of the export; anything but an instance
+     * is ignored.
+     *
+     * @param c the object
+     */
+    public void add(Content c) {
+        if(!(c instanceof Instance) || ((Instance)c).classdesc == null) {
+            return;
+        }
+        Instance inst = (Instance)c;
+        String key = keys.get(inst.classdesc);
+        if(key == null) {
+            key = layoutKey(inst.classdesc);
+            keys.put(inst.classdesc, key);
+        }
+        groups.computeIfAbsent(key, k -> new Group()).add(inst, generation);
+        generationUsed = true;
+    }
+
+    /**
+     * @return the number of instances added
+     */
+    public int size() {
+        int n = 0;
+        for(Group g: groups.values()) {
+            n += g.rows.size();
+        }
+        return n;
+    }
+
+    /**
+     * Writes a column file for each class with instances.  A file is named after the
+     * class, with characters that aren't letters, digits, '.', '$', '_' or '-' replaced
+     * by '_', and a number added if two files would have the same name.
+     *
+     * @return the files written
+     * @throws IOException if a file can't be written
+     */
+    public List<Path> write() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<Path>();
+        Set<String> used = new HashSet<String>();
+        for(Group g: groups.values()) {
+            String base = fileName(g.rows.get(0).classdesc.name);
+            String name = base;
+            for(int n = 2; !used.add(name.toLowerCase()); n++) {
+                name = base + "-" + n;
+            }
+            Path file = dir.resolve(name + SUFFIX);
+            writeFile(file, g);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Turns a class or file name into a file name without path separators or other
+     * characters that are a problem in some file systems.
+     *
+     * @param name the name
+     * @return the file name
+     */
+    public static String fileName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '$' || c == '_' || c == '-';
+            sb.append(ok ? c : '_');
+        }
+        if(sb.length() == 0 || sb.charAt(0) == '.') {
+            sb.insert(0, '_');
+        }
+        return sb.toString();
+    }
+
+    private static String layoutKey(ClassDesc cd) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(cd.name).append('\0').append(cd.serialVersionUID);
+        FieldLayout layout = cd.getFieldLayout();
+        for(int i = 0; i < layout.getFieldCount(); i++) {
+            Field f = layout.getField(i);
+            sb.append('\0').append(layout.getDeclaringClass(i).name)
+                .append('\0').append(f.name)
+                .append('\0').append(f.type.ch());
+        }
+        return sb.toString();
+    }
+
+    private void writeFile(Path file, Group g) throws IOException {
+        List<Instance> rows = g.rows;
+        ClassDesc cd = rows.get(0).classdesc;
+        FieldLayout layout = cd.getFieldLayout();
+        int count = layout.getFieldCount();
+        byte[] encodings = new byte[count];
+        long[] offsets = new long[count];
+        long[] lengths = new long[count];
+        try (ColumnOutput out = new ColumnOutput(file)) {
+            out.putInt(ColumnFileReader.MAGIC);
+            out.putShort(ColumnFileReader.VERSION);
+            out.align(8);
+            long handles = out.position();
+            for(Instance inst: rows) {
+                out.putInt(inst.handle);
+            }
+            long generations = out.position();
+            for(int r = 0; r < rows.size(); r++) {
+                out.putInt(g.generations[r]);
+            }
+            for(int i = 0; i < count; i++) {
+                out.align(8);
+                offsets[i] = out.position();
+                if(layout.getField(i).type.isPrimitive()) {
+                    writePrimitives(out, rows, i);
+                    encodings[i] = ColumnFileReader.PLAIN;
+                } else {
+                    encodings[i] = writeReferences(out, rows, i);
+                }
+                lengths[i] = out.position() - offsets[i];
+            }
+            out.align(8);
+            long footer = out.position();
+            out.putString(cd.name);
+            out.putLong(cd.serialVersionUID);
+            out.putInt(rows.size());
+            out.putLong(handles);
+            out.putLong(generations);
+            out.putInt(count);
+            for(int i = 0; i < count; i++) {
+                Field f = layout.getField(i);
+                out.putString(layout.getDeclaringClass(i).name);
+                out.putString(f.name);
+                out.putByte((byte)f.type.ch());
+                out.putString(f.classname == null ? null : f.classname.getValue());
+                out.putByte(encodings[i]);
+                out.putLong(offsets[i]);
+                out.putLong(lengths[i]);
+            }
+            out.putLong(footer);
+            out.putInt(ColumnFileReader.MAGIC);
+        }
+    }
+
+    private static void writePrimitives(ColumnOutput out, List<Instance> rows, int index) throws IOException {
+        FieldTypeEnum type = rows.get(0).classdesc.getFieldLayout().getField(index).type;
+        for(Instance inst: rows) {
+            long bits = primitiveBits(inst, index);
+            switch(type) {
+                case BYTE:
+                case BOOLEAN:
+                    out.putByte((byte)bits);
+                    break;
+                case CHAR:
+                case SHORT:
+                    out.putShort((short)bits);
+                    break;
+                case INTEGER:
+                case FLOAT:
+                    out.putInt((int)bits);
+                    break;
+                default:
+                    out.putLong(bits);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes a reference column, as a dictionary if the values are all strings or enum
+     * constants, and as handles otherwise.
+     *
+     * @return the encoding used
+     */
+    private static byte writeReferences(ColumnOutput out, List<Instance> rows, int index) throws IOException {
+        // Back-references to enum constants are resolved to their names, so the values of
+        // an enum field are a mix of both.
+        boolean strings = true;
+        for(int r = 0; r < rows.size() && strings; r++) {
+            Object o = value(rows.get(r), index);
+            strings = (o == null || o instanceof StringObj || o instanceof EnumObj);
+        }
+        if(!strings) {
+            for(Instance inst: rows) {
+                Object o = value(inst, index);
+                if(o != null && !(o instanceof Content)) {
+                    throw new ValidityException("unexpected value in reference field of " + inst + ": " + o);
+                }
+                out.putInt(o == null ? -1 : ((Content)o).getHandle());
+            }
+            return ColumnFileReader.HANDLES;
+        }
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> dictionary = new ArrayList<String>();
+        int[] indexes = new int[rows.size()];
+        int runs = 0;
+        for(int r = 0; r < indexes.length; r++) {
+            Object o = value(rows.get(r), index);
+            String s = (o == null ? null
+                    : o instanceof StringObj ? ((StringObj)o).getValue() : ((EnumObj)o).value.getValue());
+            if(s == null) {
+                indexes[r] = -1;
+            } else {
+                Integer id = ids.get(s);
+                if(id == null) {
+                    id = dictionary.size();
+                    ids.put(s, id);
+                    dictionary.add(s);
+                }
+                indexes[r] = id;
+            }
+            if(r == 0 || indexes[r] != indexes[r-1]) {
+                runs++;
+            }
+        }
+        out.putInt(dictionary.size());
+        for(String s: dictionary) {
+            out.putString(s);
+        }
+        out.align(4);
+        // A run takes two ints, a plain index one.
+        if(2L * runs < indexes.length) {
+            out.putInt(runs);
+            int start = 0;
+            for(int r = 1; r <= indexes.length; r++) {
+                if(r == indexes.length || indexes[r] != indexes[start]) {
+                    out.putInt(r - start);
+                    out.putInt(indexes[start]);
+                    start = r;
+                }
+            }
+            return ColumnFileReader.DICTIONARY_RLE;
+        }
+        for(int i: indexes) {
+            out.putInt(i);
+        }
+        return ColumnFileReader.DICTIONARY;
+    }
+
+    /**
+     * Gets the bits of a primitive field, from the slots if the instance has them, or
+     * else from fielddata.
+     */
+    private static long primitiveBits(Instance inst, int index) {
+        if(inst.getFieldLayout() != null) {
+            return inst.getPrimitiveBits(index);
+        }
+        Object o = value(inst, index);
+        if(o == null) {
+            return 0;
+        } else if(o instanceof Boolean) {
+            return ((Boolean)o).booleanValue() ? 1 : 0;
+        } else if(o instanceof Character) {
+            return ((Character)o).charValue();
+        } else if(o instanceof Float) {
+            return Float.floatToRawIntBits((Float)o);
+        } else if(o instanceof Double) {
+            return Double.doubleToRawLongBits((Double)o);
+        }
+        return ((Number)o).longValue();
+    }
+
+    private static Object value(Instance inst, int index) {
+        if(inst.getFieldLayout() != null) {
+            return inst.getValue(index);
+        }
+        if(inst.fielddata == null) {
+            return null;
+        }
+        FieldLayout layout = inst.classdesc.getFieldLayout();
+        Map<Field, Object> values = inst.fielddata.get(layout.getDeclaringClass(index));
+        return values == null ? null : values.get(layout.getField(index));
+    }
+
+    /**
+     * The instances of one file, and the generation of each.
+     */
+    private static final class Group {
+        final List<Instance> rows = new ArrayList<Instance>();
+        int[] generations = new int[16];
+
+        void add(Instance inst, int generation) {
+            if(rows.size() == generations.length) {
+                generations = Arrays.copyOf(generations, generations.length * 2);
+            }
+            generations[rows.size()] = generation;
+            rows.add(inst);
+        }
+    }
+
+    /**
+     * Buffered output to a file that knows its position.
+     */
+    private static final class ColumnOutput implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private long written;
+
+        ColumnOutput(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        long position() {
+            return written + buf.position();
+        }
+
+        private void ensure(int n) throws IOException {
+            if(buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while(buf.hasRemaining()) {
+                written += channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        void putByte(byte b) throws IOException {
+            ensure(1);
+            buf.put(b);
+        }
+
+        void putShort(short s) throws IOException {
+            ensure(2);
+            buf.putShort(s);
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buf.putInt(i);
+        }
+
+        void putLong(long l) throws IOException {
+            ensure(8);
+            buf.putLong(l);
+        }
+
+        void putString(String s) throws IOException {
+            if(s == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] b = ModifiedUtf8Util.encode(s);
+            putInt(b.length);
+            for(int off = 0; off < b.length; ) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), b.length - off);
+                buf.put(b, off, n);
+                off += n;
+            }
+        }
+
+        void align(int n) throws IOException {
+            while(position() % n != 0) {
+                putByte((byte)0);
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
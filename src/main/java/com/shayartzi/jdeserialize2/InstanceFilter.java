@@ -0,0 +1,297 @@
+package com.shayartzi.jdeserialize2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.EnumObj;
+import com.shayartzi.jdeserialize2.legacy.FieldLayout;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+
+/**
+ * <p>
+ * Selects instances by class name and field values, so that a parser keeps only the
+ * objects it's looking for; see Jdeserialize2.addFilter().  A filter matches an instance
+ * if its class name matches the filter's pattern, and every condition holds for the
+ * field it names:
+ * </p>
+ *
+ * <pre>
+ * new InstanceFilter("com.acme.Session*").whereEquals("userId", "X")
+ * </pre>
+ *
+ * <p>
+ * Conditions see field values as fielddata holds them: primitives as wrapper objects,
+ * and everything else as Content (StringObj, EnumObj, Instance and so on), or null.
+ * Fields are found by name in the flattened hierarchy, as FieldLayout.indexOf(String)
+ * finds them; an instance without one of the fields doesn't match.
+ * </p>
+ *
+ * <p>
+ * A filter is immutable once it's in use, and may be shared between parsers as long as
+ * its conditions are thread-safe.
+ * </p>
+ */
+public class InstanceFilter {
+
+    private final String classPattern;
+    private final Pattern classRegex;
+    private final List<String> fields = new ArrayList<String>();
+    private final List<Predicate<Object>> tests = new ArrayList<Predicate<Object>>();
+
+    /**
+     * Constructor.
+     *
+     * @param classPattern the name of the class, in which '*' matches any sequence of
+     * characters
+     */
+    public InstanceFilter(String classPattern) {
+        this.classPattern = classPattern;
+        StringBuilder sb = new StringBuilder();
+        String[] parts = classPattern.split("\\*", -1);
+        for(int i = 0; i < parts.length; i++) {
+            if(i > 0) {
+                sb.append(".*");
+            }
+            if(!parts[i].isEmpty()) {
+                sb.append(Pattern.quote(parts[i]));
+            }
+        }
+        this.classRegex = Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Adds a condition on a field.
+     *
+     * @param field the field name
+     * @param test the condition; it's given the field's value
+     * @return this filter
+     */
+    public InstanceFilter where(String field, Predicate<Object> test) {
+        fields.add(field);
+        tests.add(test);
+        return this;
+    }
+
+    /**
+     * Adds the condition that a field equals a value; see valueEquals().
+     *
+     * @param field the field name
+     * @param expected the value
+     * @return this filter
+     */
+    public InstanceFilter whereEquals(String field, Object expected) {
+        return where(field, actual -> valueEquals(actual, expected));
+    }
+
+    /**
+     * @return the class name pattern
+     */
+    public String getClassPattern() {
+        return classPattern;
+    }
+
+    /**
+     * @param classname a class name
+     * @return true if the class name matches the filter's pattern
+     */
+    public boolean matchesClass(String classname) {
+        return classname != null && classRegex.matcher(classname).matches();
+    }
+
+    /**
+     * Tells whether a complete instance matches the filter.
+     *
+     * @param inst the instance
+     * @return true if it matches
+     */
+    public boolean matches(Instance inst) {
+        if(inst.classdesc == null || !matchesClass(inst.classdesc.name)) {
+            return false;
+        }
+        FieldLayout layout = inst.classdesc.getFieldLayout();
+        for(int i = 0; i < fields.size(); i++) {
+            int index = layout.indexOf(fields.get(i));
+            if(index < 0) {
+                return false;
+            }
+            Object value;
+            if(inst.getFieldLayout() != null) {
+                value = inst.getValue(index);
+            } else {
+                value = (inst.fielddata == null || inst.fielddata.get(layout.getDeclaringClass(index)) == null ? null
+                        : inst.fielddata.get(layout.getDeclaringClass(index)).get(layout.getField(index)));
+            }
+            if(!tests.get(i).test(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Compares a field value to an expected value.  A String equals a StringObj with the
+     * same characters, or an EnumObj of the constant with that name; lazy strings aren't
+     * decoded to compare them.  Numbers are equal if they have the same value, whatever
+     * their types, so that an int field equals 5L.  Otherwise, the values are compared
+     * with equals().
+     * </p>
+     *
+     * @param actual the field value
+     * @param expected the value to compare it to
+     * @return true if they're equal
+     */
+    public static boolean valueEquals(Object actual, Object expected) {
+        if(actual == null || expected == null) {
+            return actual == expected;
+        }
+        if(expected instanceof String) {
+            if(actual instanceof StringObj) {
+                return ((StringObj)actual).contentEquals((String)expected);
+            }
+            if(actual instanceof EnumObj) {
+                return ((EnumObj)actual).value.contentEquals((String)expected);
+            }
+            return false;
+        }
+        if(expected instanceof Number && actual instanceof Number) {
+            if(isIntegral(expected) && isIntegral(actual)) {
+                return ((Number)expected).longValue() == ((Number)actual).longValue();
+            }
+            return ((Number)expected).doubleValue() == ((Number)actual).doubleValue();
+        }
+        return expected.equals(actual);
+    }
+
+    private static boolean isIntegral(Object n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    /**
+     * <p>
+     * The conditions of the filters that apply to one class, resolved to the fields of
+     * its layout, so that a parser can test each field as it's decoded.  The progress of
+     * an instance is kept in an int per filter: the number of conditions that held, or -1
+     * once one has failed.
+     * </p>
+     */
+    static final class Plan {
+        private final int[] needed;
+        private final int[] condFilter;
+        private final List<Predicate<Object>> condTest = new ArrayList<Predicate<Object>>();
+        // The conditions on each field of the layout, or null for untested fields.
+        private final int[][] fieldConds;
+
+        /**
+         * @return the plan for the class, or null if no filter can match its instances
+         */
+        static Plan create(List<InstanceFilter> filters, ClassDesc cd) {
+            List<InstanceFilter> applicable = new ArrayList<InstanceFilter>();
+            List<Integer> filterIndexes = new ArrayList<Integer>();
+            List<Integer> condIndexes = new ArrayList<Integer>();
+            FieldLayout layout = cd.getFieldLayout();
+            for(InstanceFilter filter: filters) {
+                if(!filter.matchesClass(cd.name)) {
+                    continue;
+                }
+                List<Integer> found = new ArrayList<Integer>();
+                for(String name: filter.fields) {
+                    int index = layout.indexOf(name);
+                    if(index < 0) {
+                        break;
+                    }
+                    found.add(index);
+                }
+                if(found.size() < filter.fields.size()) {
+                    continue;
+                }
+                for(int index: found) {
+                    filterIndexes.add(applicable.size());
+                    condIndexes.add(index);
+                }
+                applicable.add(filter);
+            }
+            if(applicable.isEmpty()) {
+                return null;
+            }
+            return new Plan(applicable, filterIndexes, condIndexes, layout.getFieldCount());
+        }
+
+        private Plan(List<InstanceFilter> filters, List<Integer> filterIndexes, List<Integer> condIndexes, int fieldCount) {
+            needed = new int[filters.size()];
+            condFilter = new int[filterIndexes.size()];
+            fieldConds = new int[fieldCount][];
+            for(int i = 0; i < filters.size(); i++) {
+                needed[i] = filters.get(i).tests.size();
+                condTest.addAll(filters.get(i).tests);
+            }
+            for(int k = 0; k < condFilter.length; k++) {
+                condFilter[k] = filterIndexes.get(k);
+                int index = condIndexes.get(k);
+                int[] conds = fieldConds[index];
+                if(conds == null) {
+                    conds = new int[] { k };
+                } else {
+                    conds = Arrays.copyOf(conds, conds.length + 1);
+                    conds[conds.length - 1] = k;
+                }
+                fieldConds[index] = conds;
+            }
+        }
+
+        /**
+         * @return the initial progress of an instance
+         */
+        int[] start() {
+            return new int[needed.length];
+        }
+
+        /**
+         * @param index the index of a field in the class's layout
+         * @return true if a condition tests the field
+         */
+        boolean tests(int index) {
+            return fieldConds[index] != null;
+        }
+
+        /**
+         * Tests the conditions on a field.
+         *
+         * @param index the index of the field in the class's layout; tests() must be true
+         * for it
+         * @return false if every filter has failed, so that the instance can't match
+         */
+        boolean test(int[] progress, int index, Object value) {
+            for(int k: fieldConds[index]) {
+                int filter = condFilter[k];
+                if(progress[filter] >= 0) {
+                    progress[filter] = (condTest.get(k).test(value) ? progress[filter] + 1 : -1);
+                }
+            }
+            for(int p: progress) {
+                if(p >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if every condition of one of the filters held
+         */
+        boolean accepts(int[] progress) {
+            for(int i = 0; i < needed.length; i++) {
+                if(progress[i] == needed[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -1,44 +1,76 @@
 package com.shayartzi.jdeserialize2;
 
-import java.io.DataInputStream;
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.ObjectStreamConstants;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.shayartzi.jdeserialize2.event.JavaSerialReader;
+import com.shayartzi.jdeserialize2.event.ResetScanner;
+import com.shayartzi.jdeserialize2.event.SerialEventType;
+import com.shayartzi.jdeserialize2.event.SerialListener;
+import com.shayartzi.jdeserialize2.io.ByteBufferSerialInput;
+import com.shayartzi.jdeserialize2.io.MappedFileSerialInput;
+import com.shayartzi.jdeserialize2.io.SerialInput;
+import com.shayartzi.jdeserialize2.io.StreamSerialInput;
 import com.shayartzi.jdeserialize2.legacy.ArrayColl;
 import com.shayartzi.jdeserialize2.legacy.ArrayObj;
 import com.shayartzi.jdeserialize2.legacy.BlockData;
 import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.ClassDescCache;
 import com.shayartzi.jdeserialize2.legacy.ClassDescTypeEnum;
 import com.shayartzi.jdeserialize2.legacy.ClassObj;
 import com.shayartzi.jdeserialize2.legacy.Content;
 import com.shayartzi.jdeserialize2.legacy.EnumObj;
-import com.shayartzi.jdeserialize2.legacy.ExceptionReadException;
 import com.shayartzi.jdeserialize2.legacy.ExceptionState;
 import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.FieldLayout;
 import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
 import com.shayartzi.jdeserialize2.legacy.GetOpt;
+import com.shayartzi.jdeserialize2.legacy.HandleTable;
 import com.shayartzi.jdeserialize2.legacy.Instance;
-import com.shayartzi.jdeserialize2.legacy.LoggerInputStream;
+import com.shayartzi.jdeserialize2.legacy.PrimitiveArrayColl;
+import com.shayartzi.jdeserialize2.legacy.SkippedArrayColl;
 import com.shayartzi.jdeserialize2.legacy.StringObj;
 import com.shayartzi.jdeserialize2.legacy.ValidityException;
+import com.shayartzi.jdeserialize2.util.ChannelWriter;
 import com.shayartzi.jdeserialize2.util.FormatUtil;
 import com.shayartzi.jdeserialize2.util.LogUtil;
+import com.shayartzi.jdeserialize2.util.PathUtil;
+import com.shayartzi.jdeserialize2.util.StringInterner;
 import com.shayartzi.jdeserialize2.util.TypeUtil;
 
 /**
@@ -56,6 +88,18 @@ import com.shayartzi.jdeserialize2.util.TypeUtil;
  * <br/>
  * To enable debugging on stdout, use the enableDebug() or disableDebug() options.   <br/> 
  * <br/>
+ * To process the stream as it is decoded, register a SerialListener with setListener().
+ * Combined with setRetainContent(false), this allows streams larger than the heap to be
+ * processed, since only the handle table needed to resolve back-references is kept.<br/>
+ * <br/>
+ * Streams whose data arrives in pieces, such as from a non-blocking socket, can be
+ * decoded as the data comes in with a PushParser.<br/>
+ * <br/>
+ * The stream is parsed by a JavaSerialReader, which keeps track of nesting on the heap
+ * rather than on the thread stack; deeply nested object graphs (such as long linked
+ * lists) need no special stack size.  Use setMaxDepth() to bound the nesting depth
+ * instead.<br/>
+ * <br/>
  * <br/>
  * Command-line tool:   <br/>
  * <br/>
@@ -82,6 +126,22 @@ import com.shayartzi.jdeserialize2.util.TypeUtil;
  * Additionally, a manifest describing the size of each individual block can be generated
  * with the -blockdatamanifest <file> option.
  * <br/>
+ * For triage of large streams, -skipabove <bytes> leaves the contents of larger arrays of
+ * primitives and block data unread; the dump shows their size and file offset instead.
+ * <br/>
+ * With -threads <n>, up to n files are parsed at once; the output of each file is
+ * buffered and written in argument order, so it's the same as without the option.
+ * <br/>
+ * Arguments may also be directories, which are searched recursively, or glob patterns
+ * such as captures/**.ser; after such a batch (or with -summary), statistics about the
+ * files processed are printed.
+ * <br/>
+ * Files that hold several streams written one after the other, such as logs that
+ * ObjectOutputStreams were appended to, can be read with -concatenated.
+ * <br/>
+ * Streams with many resets, such as long-running captures, can be decoded on all cores
+ * with -splitresets; see setSegmentPool().
+ * <br/>
  * References: <br/>
  *     - Java Object Serialization Specification ch. 6 (Object Serialization Stream
  *       Protocol): <br/>
@@ -101,14 +161,282 @@ public class Jdeserialize2 {
     public static final String INDENT = "    ";
     public static final int CODEWIDTH = 90;
 
+    /**
+     * indent() for the usual nesting levels.
+     */
+    private static final String[] INDENTS = new String[16];
+    static {
+        INDENTS[0] = "";
+        for(int i = 1; i < INDENTS.length; i++) {
+            INDENTS[i] = INDENTS[i-1] + INDENT;
+        }
+    }
+
     private String filename;
-    private HashMap<Integer,Content> handles = new LinkedHashMap<Integer,Content>();
+    private HandleTable handles = new HandleTable();
     private ArrayList<Map<Integer,Content>> handlemaps = new ArrayList<Map<Integer,Content>>();
     private ArrayList<Content> content;
-    private int curhandle;    
+    private SerialListener listener = NOLISTENER;
+    private boolean retainContent = true;
+    private boolean parseLog = true;
+    private int retainedHandleMaps = -1;
+    private int maxDepth = Integer.MAX_VALUE;
+    private boolean lazyStrings;
+    private boolean cacheStrings = true;
+    private long skipThreshold = -1;
+    private ForkJoinPool segmentPool;
+    private boolean concatenatedStreams;
+    private ClassDescCache classDescCache;
+    private StringInterner stringInterner;
+    private List<InstanceFilter> filters;
+    private Map<ClassDesc, InstanceFilter.Plan> filterPlans = new IdentityHashMap<ClassDesc, InstanceFilter.Plan>();
+    private Set<Content> matches = Collections.newSetFromMap(new IdentityHashMap<Content, Boolean>());
+    private boolean indexReferences;
+    private ReferenceIndex.Builder referenceBuilder;
+    private ReferenceIndex referenceIndex;
+    private WritableByteChannel blockdataout;
+    private PrintWriter blockdatamanifest;
+    private boolean blockdataExtracted;
     
     private final Writer writer;
 
+    private static final SerialListener NOLISTENER = new SerialListener() { };
+
+    /**
+     * Sets the listener that receives parse events while the stream is decoded.
+     *
+     * @param listener the listener, or null to remove the current one
+     */
+    public void setListener(SerialListener listener) {
+        this.listener = (listener == null ? NOLISTENER : listener);
+    }
+
+    /**
+     * <p>
+     * Determines whether the decoded content is kept once it has been reported to the
+     * listener.  Defaults to true.
+     * </p>
+     *
+     * <p>
+     * If false, getContent() and getHandleMaps() stay empty, and the objects in the
+     * handle table are kept as shells without field data, annotations or array values:
+     * just enough to resolve back-references, which may point at any object since the
+     * last reset.
+     * </p>
+     *
+     * @param retainContent false if content should only be passed to the listener
+     */
+    public void setRetainContent(boolean retainContent) {
+        this.retainContent = retainContent;
+    }
+
+    /**
+     * Determines whether each top-level item is written to the writer, as a "read:"
+     * line, when it has been parsed.  Defaults to true; the JSON output turns it off.
+     *
+     * @param parseLog false to leave the parse log out of the output
+     */
+    public void setParseLog(boolean parseLog) {
+        this.parseLog = parseLog;
+    }
+
+    /**
+     * <p>
+     * Sets how many handle maps getHandleMaps() keeps.  Each reset of the stream, and
+     * its end, completes a generation of handles; the table of each generation is kept
+     * as it is, without copying, and only the most recent ones are retained.
+     * </p>
+     *
+     * <p>
+     * A negative count, the default, keeps every generation.  0 keeps none, so that
+     * objects from before a reset can be garbage collected; the dump still shows the last
+     * generation.
+     * </p>
+     *
+     * @param retainedHandleMaps the number of handle maps to keep, or -1 for all
+     */
+    public void setRetainedHandleMaps(int retainedHandleMaps) {
+        this.retainedHandleMaps = retainedHandleMaps;
+    }
+
+    /**
+     * <p>
+     * Sets where the data of top-level block data is written while the stream is parsed,
+     * instead of by dump(); this is what the -blockdata and -blockdatamanifest options
+     * use.  Either may be null.  The manifest gets one line with the size of each block;
+     * the caller writes any header, and closes both when parsing is done.
+     * </p>
+     *
+     * <p>
+     * When the source is a file, blocks are copied from the file to the channel with
+     * FileChannel.transferTo(), and the BlockData objects only record the offset and
+     * length of their data (see BlockData.getOffset()).
+     * </p>
+     *
+     * @param out the channel to write block data to, or null
+     * @param manifest the writer for the manifest, or null
+     */
+    public void setBlockDataOutput(WritableByteChannel out, PrintWriter manifest) {
+        this.blockdataout = out;
+        this.blockdatamanifest = manifest;
+    }
+
+    /**
+     * Determines whether strings are decoded lazily, on first use; see
+     * JavaSerialReader.setLazyStrings().  Defaults to false.
+     *
+     * @param lazyStrings true to defer decoding strings
+     */
+    public void setLazyStrings(boolean lazyStrings) {
+        this.lazyStrings = lazyStrings;
+    }
+
+    /**
+     * Determines whether lazily decoded strings keep their value once decoded; see
+     * JavaSerialReader.setCacheStrings().  Defaults to true.
+     *
+     * @param cacheStrings false to decode lazy strings on every access
+     */
+    public void setCacheStrings(boolean cacheStrings) {
+        this.cacheStrings = cacheStrings;
+    }
+
+    /**
+     * Sets a cache of class descriptions shared with the parsers of other streams, so
+     * that the names and field layouts of classes seen before are neither decoded nor
+     * validated again; see ClassDescCache.  There is no cache by default.
+     *
+     * @param classDescCache the cache, or null for none
+     */
+    public void setClassDescCache(ClassDescCache classDescCache) {
+        this.classDescCache = classDescCache;
+    }
+
+    /**
+     * Sets a table of strings shared with the parsers of other streams, so that names
+     * and string values seen before are neither decoded again nor kept twice; see
+     * StringInterner.  There is no table by default.
+     *
+     * @param stringInterner the table, or null for none
+     */
+    public void setStringInterner(StringInterner stringInterner) {
+        this.stringInterner = stringInterner;
+    }
+
+    /**
+     * <p>
+     * Adds a filter that selects the instances to keep.  Once a filter is added, only
+     * instances that match at least one of the filters are kept in getContent() and
+     * getHandleMaps(), along with the class descriptions; other top-level content is left
+     * out.  The matches keep their field values, and the objects those refer to.
+     * </p>
+     *
+     * <p>
+     * The conditions are tested as each field is decoded, and an instance of a class the
+     * filters select is emptied as soon as a condition fails: its field values aren't
+     * stored, as with setRetainContent(false), though it stays in the handle table so
+     * that back-references to it can be resolved.  The listener still gets every event.
+     * </p>
+     *
+     * <p>
+     * Instances of other classes are decoded as usual, since a later match may refer to
+     * them, and they stay in the handle table until their generation ends, at a reset or
+     * the end of the stream; only then is the table narrowed down to the class
+     * descriptions and the matches, which keep the objects they refer to.  So filters
+     * shrink the heap retained after the parse, and what the rejected instances of the
+     * selected classes hold, but not the peak heap while a generation is decoded.
+     * </p>
+     *
+     * @param filter the filter
+     */
+    public void addFilter(InstanceFilter filter) {
+        if(filters == null) {
+            filters = new ArrayList<InstanceFilter>();
+        }
+        filters.add(filter);
+        filterPlans.clear();
+    }
+
+    /**
+     * Determines whether an index of the references between objects is built while the
+     * stream is parsed; see ReferenceIndex.  Defaults to false.  The index is kept whether
+     * or not the content is, and is available from getReferenceIndex() once the parse is
+     * done.
+     *
+     * @param indexReferences true to build the index
+     */
+    public void setIndexReferences(boolean indexReferences) {
+        this.indexReferences = indexReferences;
+    }
+
+    /**
+     * @return the reference index of the last parse, or null if none was built; see
+     * setIndexReferences()
+     */
+    public ReferenceIndex getReferenceIndex() {
+        return referenceIndex;
+    }
+
+    /**
+     * Sets the size in bytes above which the contents of arrays of primitives and block
+     * data aren't read; see JavaSerialReader.setSkipThreshold().  Skipped arrays hold a
+     * SkippedArrayColl, and skipped blocks only their offset and length.  Nothing is
+     * skipped by default.
+     *
+     * @param skipThreshold the largest size in bytes that is still read, or -1
+     */
+    public void setSkipThreshold(long skipThreshold) {
+        this.skipThreshold = skipThreshold;
+    }
+
+    /**
+     * Determines whether the input may consist of several streams appended to each other,
+     * each with its own header; see JavaSerialReader.setConcatenatedStreams().  Each
+     * further stream starts a new generation of handles, and its content is added to
+     * that of the previous ones.  Defaults to false.
+     *
+     * @param concatenatedStreams true to accept further stream headers
+     */
+    public void setConcatenatedStreams(boolean concatenatedStreams) {
+        this.concatenatedStreams = concatenatedStreams;
+    }
+
+    /**
+     * <p>
+     * Sets a pool on which run(ByteBuffer, boolean) and run(FileChannel, boolean) decode
+     * streams in parallel.  Since a TC_RESET at the top level of a stream discards all
+     * handles, the generations between such resets can be decoded independently: the
+     * stream is first scanned for resets (see ResetScanner), then each segment is decoded
+     * as a task on the pool, and the results are joined in stream order.  Content, handle
+     * maps and output are the same as those of a sequential run.
+     * </p>
+     *
+     * <p>
+     * Streams without top-level resets, and runs with a listener or block data outputs,
+     * which need events in stream order, are decoded sequentially.  If the stream is
+     * malformed, it's decoded again sequentially, so that errors are reported as usual.
+     * By default, there is no pool.
+     * </p>
+     *
+     * @param segmentPool the pool, or null to decode sequentially
+     */
+    public void setSegmentPool(ForkJoinPool segmentPool) {
+        this.segmentPool = segmentPool;
+    }
+
+    /**
+     * Sets the maximum nesting depth of the streams to parse; see
+     * JavaSerialReader.setMaxDepth().  There is no limit by default.
+     *
+     * @param maxDepth the maximum depth; must be positive
+     */
+    public void setMaxDepth(int maxDepth) {
+        if(maxDepth < 1) {
+            throw new IllegalArgumentException("invalid maximum depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
     /**
      * <p>
      * Retrieves the list of content objects that were written to the stream.  Each item
@@ -144,7 +472,8 @@ public class Jdeserialize2 {
      * <p>
      * Although there is only one map active at a given point, a stream may have multiple
      * logical maps: when a reset happens (indicated by TC_RESET), the current map is
-     * cleared.  
+     * set aside and a new one is started.  The maps are read-only views of the handle
+     * tables; see setRetainedHandleMaps() for how many are kept.
      * </p>
      *
      * <p>
@@ -181,87 +510,27 @@ public class Jdeserialize2 {
     }
 
     public static String indent(int level) {
-        StringBuffer sb = new StringBuffer("");
-        for(int i = 0; i < level; i++) {
+        if(level < INDENTS.length) {
+            return INDENTS[level];
+        }
+        StringBuilder sb = new StringBuilder(INDENTS[INDENTS.length - 1]);
+        for(int i = INDENTS.length - 1; i < level; i++) {
             sb.append(INDENT);
         }
         return sb.toString();
     }
 
-    public void read_Classdata(DataInputStream dis, Instance inst) throws IOException {
-        ArrayList<ClassDesc> classes = new ArrayList<ClassDesc>();
-        inst.classdesc.getHierarchy(classes);
-        Map<ClassDesc, Map<Field, Object>> alldata = new LinkedHashMap<ClassDesc, Map<Field, Object>>();
-        Map<ClassDesc, List<Content>> ann = new LinkedHashMap<ClassDesc, List<Content>>();
-        for(ClassDesc cd: classes) {
-            Map<Field, Object> values = new LinkedHashMap<Field, Object>();
-            if((cd.descflags & ObjectStreamConstants.SC_SERIALIZABLE) != 0) {
-                if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
-                    throw new IOException("SC_EXTERNALIZABLE & SC_SERIALIZABLE encountered");
-                }
-                for(Field f: cd.fields) {
-                    Object o = read_FieldValue(f.type, dis);
-                    values.put(f, o);
-                }
-                alldata.put(cd, values);
-                if((cd.descflags & ObjectStreamConstants.SC_WRITE_METHOD) != 0) {
-                    if((cd.descflags & ObjectStreamConstants.SC_ENUM) != 0) {
-                        throw new IOException("SC_ENUM & SC_WRITE_METHOD encountered!");
-                    }
-                    ann.put(cd, read_classAnnotation(dis));
-                }
-            } else if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
-                if((cd.descflags & ObjectStreamConstants.SC_SERIALIZABLE) != 0) {
-                    throw new IOException("SC_SERIALIZABLE & SC_EXTERNALIZABLE encountered");
-                }
-                if((cd.descflags & ObjectStreamConstants.SC_BLOCK_DATA) != 0) {
-                    throw new EOFException("hit externalizable with nonzero SC_BLOCK_DATA; can't interpret data");
-                } else {
-                    ann.put(cd, read_classAnnotation(dis));
-                }
-            }
-        }
-        inst.annotations = ann;
-        inst.fielddata = alldata;
-    }
-
-    public Object read_FieldValue(FieldTypeEnum f, DataInputStream dis) throws IOException {
-        switch(f) {
-            case BYTE:
-                return Byte.valueOf(dis.readByte());
-            case CHAR:
-                return Character.valueOf(dis.readChar());
-            case DOUBLE:
-                return Double.valueOf(dis.readDouble());
-            case FLOAT:
-                return Float.valueOf(dis.readFloat());
-            case INTEGER:
-                return Integer.valueOf(dis.readInt());
-            case LONG:
-                return Long.valueOf(dis.readLong());
-            case SHORT:
-                return Short.valueOf(dis.readShort());
-            case BOOLEAN:
-                return Boolean.valueOf(dis.readBoolean());
-            case OBJECT:
-            case ARRAY:
-                byte stc = dis.readByte();
-                if(f == FieldTypeEnum.ARRAY && stc != ObjectStreamConstants.TC_ARRAY) {
-                    throw new IOException("array type listed, but typecode is not TC_ARRAY: " + FormatUtil.hex(stc));
-                }
-                Content c = read_Content(stc, dis, false);
-                if(c != null && c.isExceptionObject()) {
-                    throw new ExceptionReadException(c);
-                }
-                return c;
-            default:
-                throw new IOException("can't process type: " + f.toString());
-        }
-    }
+    /**
+     * Constructor.
+     *
+     * @param filename the name of the file being parsed, or null
+     * @param writer where dump() and the parse log go; if null, a ChannelWriter on
+     * stdout, which is only written when its buffer fills up or flushBuffer() is called
+     */
     public Jdeserialize2(String filename, Writer writer) {
         this.filename = filename;
         if (writer == null) {
-        	writer = new PrintWriter(System.out, true);
+        	writer = ChannelWriter.stdout();
         }
         this.writer = writer;
     }
@@ -270,66 +539,67 @@ public class Jdeserialize2 {
     	this.writer.flush();
     }
     
-    private int newHandle() {
-        return curhandle++;
-    }
-
-    public List<Content> read_classAnnotation(DataInputStream dis) throws IOException {
-        List<Content> list = new ArrayList<Content>();
-        while(true) {
-            byte tc = dis.readByte();
-            if(tc == ObjectStreamConstants.TC_ENDBLOCKDATA) {
-                return list;
-            }
-            if(tc == ObjectStreamConstants.TC_RESET) {
-                reset();
-                continue;
-            }
-            Content c = read_Content(tc, dis, true);
-            if(c != null && c.isExceptionObject()) {
-                throw new ExceptionReadException(c);
-            }
-            list.add(c);
-        }
-    }
-    
     public void dump_Instance(int indentlevel, Instance inst, Writer writer) throws IOException {
-        StringBuffer sb = new StringBuffer();
-        sb.append("[instance " + FormatUtil.hex(inst.handle) + ": " + FormatUtil.hex(inst.classdesc.handle) + "/" + inst.classdesc.name);
+        String nl = FormatUtil.getLineSeperator();
+        writer.write("[instance ");
+        FormatUtil.writeHex(writer, inst.handle);
+        writer.write(": ");
+        FormatUtil.writeHex(writer, inst.classdesc.handle);
+        writer.write("/");
+        writer.write(inst.classdesc.name);
         if(inst.annotations != null && inst.annotations.size() > 0) {
-            sb.append(FormatUtil.getLineSeperator()).append("  object annotations:").append(FormatUtil.getLineSeperator());
+            writer.write(nl);
+            writer.write("  object annotations:");
+            writer.write(nl);
             for(ClassDesc cd: inst.annotations.keySet()) {
-                sb.append("    ").append(cd.name).append(FormatUtil.getLineSeperator());
+                writer.write("    ");
+                writer.write(cd.name);
+                writer.write(nl);
                 for(Content c: inst.annotations.get(cd)) {
-                    sb.append("        ").append(c.toString()).append(FormatUtil.getLineSeperator());
+                    writer.write("        ");
+                    writer.write(c.toString());
+                    writer.write(nl);
                 }
             }
         }
         if(inst.fielddata != null && inst.fielddata.size() > 0) {
-            sb.append(FormatUtil.getLineSeperator()).append("  field data:").append(FormatUtil.getLineSeperator());
-            for(ClassDesc cd: inst.fielddata.keySet()) {
-                sb.append("    ").append(FormatUtil.hex(cd.handle)).append("/").append(cd.name).append(":").append(FormatUtil.getLineSeperator());
-                for(Field f: inst.fielddata.get(cd).keySet()) {
-                    Object o = inst.fielddata.get(cd).get(f);
-                    sb.append("        ").append(f.name).append(": ");
+            writer.write(nl);
+            writer.write("  field data:");
+            writer.write(nl);
+            for(Map.Entry<ClassDesc, Map<Field, Object>> ce: inst.fielddata.entrySet()) {
+                ClassDesc cd = ce.getKey();
+                writer.write("    ");
+                FormatUtil.writeHex(writer, cd.handle);
+                writer.write("/");
+                writer.write(cd.name);
+                writer.write(":");
+                writer.write(nl);
+                for(Map.Entry<Field, Object> fe: ce.getValue().entrySet()) {
+                    Field f = fe.getKey();
+                    Object o = fe.getValue();
+                    writer.write("        ");
+                    writer.write(f.name);
+                    writer.write(": ");
                     if(o instanceof Content) {
                         Content c = (Content)o;
                         int h = c.getHandle();
                         if(h == inst.handle) {
-                            sb.append("this");
+                            writer.write("this");
                         } else {
-                            sb.append("r" + FormatUtil.hex(h));
+                            writer.write("r");
+                            FormatUtil.writeHex(writer, h);
                         }
-                        sb.append(": ").append(c.toString());
-                        sb.append(FormatUtil.getLineSeperator());
+                        writer.write(": ");
+                        writer.write(c.toString());
                     } else {
-                        sb.append("" + o).append(FormatUtil.getLineSeperator());
+                        writer.write(String.valueOf(o));
                     }
+                    writer.write(nl);
                 }
             }
         }
-        sb.append("]");
-        print(writer, sb.toString(), true);        
+        writer.write("]");
+        writer.write(nl);
     }
 
     public void dump_ClassDesc(int indentlevel, ClassDesc cd, Writer writer, boolean fixname) throws IOException {
@@ -338,16 +608,21 @@ public class Jdeserialize2 {
             classname = TypeUtil.fixClassName(classname);
         }
         if(cd.annotations != null && cd.annotations.size() > 0) {
-        	print(writer, indent(indentlevel) + "// annotations: ", true);
+        	print(writer, indent(indentlevel), false);
+        	print(writer, "// annotations: ", true);
             
             for(Content c: cd.annotations) {
-                print(writer, indent(indentlevel) + "// " + indent(1), false);
+                print(writer, indent(indentlevel), false);
+                print(writer, "// " + INDENT, false);
                 print(writer, c.toString(), true);
             }
         }
         if(cd.classtype == ClassDescTypeEnum.NORMALCLASS) {
             if((cd.descflags & ObjectStreamConstants.SC_ENUM) != 0) {
-                print(writer, indent(indentlevel) + "enum " + classname + " {", false);
+                print(writer, indent(indentlevel), false);
+                print(writer, "enum ", false);
+                print(writer, classname, false);
+                print(writer, " {", false);
                 boolean shouldindent = true;
                 int len = indent(indentlevel+1).length();
                 for(String econst: cd.enumconstants) {
@@ -357,23 +632,27 @@ public class Jdeserialize2 {
                         shouldindent = false;
                     }
                     len += econst.length();
-                    print(writer, econst + ", ", false);
+                    print(writer, econst, false);
+                    print(writer, ", ", false);
                     if(len >= CODEWIDTH) {
                         len = indent(indentlevel+1).length();
                         shouldindent = true;
                     }
                 }
                 print(writer, "", true);
-                print(writer, indent(indentlevel) + "}", true);
+                print(writer, indent(indentlevel), false);
+                print(writer, "}", true);
                 return;
             } 
             print(writer, indent(indentlevel), false);
             if(cd.isStaticMemberClass()) {
                 print(writer, "static ", false);
             }
-            print(writer, "class " + (classname.charAt(0) == '[' ? TypeUtil.resolveJavaType(FieldTypeEnum.ARRAY, cd.name, false, fixname) : classname), false);
+            print(writer, "class ", false);
+            print(writer, (classname.charAt(0) == '[' ? TypeUtil.resolveJavaType(FieldTypeEnum.ARRAY, cd.name, false, fixname) : classname), false);
             if(cd.superclass != null) {
-                print(writer, " extends " + cd.superclass.name, false);
+                print(writer, " extends ", false);
+                print(writer, cd.superclass.name, false);
             }
             print(writer, " implements ", false);
             if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
@@ -381,457 +660,820 @@ public class Jdeserialize2 {
             } else {
                 print(writer, "java.io.Serializable", false);
             }
-            if(cd.interfaces != null) {
-                for(String intf: cd.interfaces) {
-                    print(writer, ", " + intf, false);
+            if(cd.interfaces != null) {
+                for(String intf: cd.interfaces) {
+                    print(writer, ", ", false);
+                    print(writer, intf, false);
+                }
+            }
+            print(writer, " {", true);
+            for(Field f: cd.fields) {
+                if(f.isInnerClassReference()) {
+                    continue;
+                }
+                print(writer, indent(indentlevel+1), false);
+                print(writer, f.getJavaType(), false);
+                print(writer, " ", false);
+                print(writer, f.name, false);
+                print(writer, ";", true);
+            }
+            for(ClassDesc icd: cd.innerclasses) {
+                dump_ClassDesc(indentlevel+1, icd, writer, fixname);
+            }
+            print(writer, indent(indentlevel), false);
+            print(writer, "}", true);
+        } else if(cd.classtype == ClassDescTypeEnum.PROXYCLASS) {
+            print(writer, indent(indentlevel), false);
+            print(writer, "// proxy class ", false);
+            FormatUtil.writeHex(writer, cd.handle);
+            if(cd.superclass != null) {
+                print(writer, " extends ", false);
+                print(writer, cd.superclass.name, false);
+            }
+            print(writer, " implements ", true);
+            for(String intf: cd.interfaces) {
+                print(writer, indent(indentlevel), false);
+                print(writer, "//    ", false);
+                print(writer, intf, false);
+                print(writer, ", ", true);
+            }
+            print(writer, indent(indentlevel), false);
+            if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
+                print(writer, "//    java.io.Externalizable", true);
+            } else {
+                print(writer, "//    java.io.Serializable", true);
+            }
+        } else {
+            throw new ValidityException("encountered invalid classdesc type!");
+        }
+    }
+
+    public void setHandle(int handle, Content c) throws IOException {
+        handles.put(handle, c);
+        if(referenceBuilder != null) {
+            referenceBuilder.addNode(handle);
+        }
+    }
+    public void reset() {
+    	LogUtil.debug("reset ordered!");
+        retainHandleMap();
+        matches.clear();
+        if(referenceBuilder != null) {
+            referenceBuilder.newGeneration();
+        }
+        if(handles.isFrozen()) {
+            handles = new HandleTable();
+        } else {
+            handles.clear();
+        }
+    }
+
+    /**
+     * Freezes the current handle table and adds it to the handle maps, if it's to be
+     * kept, dropping the oldest map if there are more than retainedHandleMaps.  With
+     * filters, only the part of the table that keptHandles() selects is added.
+     */
+    private void retainHandleMap() {
+        if(!retainContent || handles.size() == 0 || retainedHandleMaps == 0) {
+            return;
+        }
+        HandleTable table = (filters == null ? handles : keptHandles());
+        table.freeze();
+        handlemaps.add(table.asMap());
+        if(retainedHandleMaps > 0 && handlemaps.size() > retainedHandleMaps) {
+            handlemaps.remove(0);
+        }
+    }
+    /**
+     * <p>
+     * Reads in an entire ObjectOutputStream output on the given stream, filing 
+     * this object's content and handle maps with data about the objects in the stream.  
+     * </p>
+     *
+     * <p>
+     * If shouldConnect is true, then jdeserialize will attempt to identify member classes
+     * by their names according to the details laid out in the Inner Classes
+     * Specification.  If it finds one, it will set the classdesc's flag indicating that
+     * it is an member class, and it will create a reference in its enclosing class.
+     * </p>
+     *
+     * @param is an open InputStream on a serialized stream of data
+     * @param shouldConnect true if jdeserialize should attempt to identify and connect
+     * member classes with their enclosing classes
+     * 
+     * Also see the <pre>connectMemberClasses</pre> method for more information on the 
+     * member-class-detection algorithm.
+     */
+    public void run(InputStream is, boolean shouldConnect) throws IOException {
+        run(new StreamSerialInput(is), shouldConnect);
+    }
+
+    /**
+     * Reads in an entire ObjectOutputStream output from the given buffer, starting at its
+     * current position.  The buffer itself isn't modified.  See run(InputStream, boolean)
+     * for details.
+     *
+     * @param buf a buffer containing a serialized stream of data
+     * @param shouldConnect true if jdeserialize should attempt to identify and connect
+     * member classes with their enclosing classes
+     */
+    public void run(ByteBuffer buf, boolean shouldConnect) throws IOException {
+        if(segmentPool != null && canSplit()) {
+            int start = buf.position();
+            long[] resets = findResets(new ByteBufferSerialInput(buf));
+            if(resets != null && runSegments(0, resets, buf.limit() - start, (s, e) -> {
+                        ByteBuffer segment = buf.duplicate();
+                        segment.position(start + (int)s).limit(start + (int)e);
+                        return new ByteBufferSerialInput(segment, s);
+                    }, shouldConnect)) {
+                return;
+            }
+        }
+        run(new ByteBufferSerialInput(buf), shouldConnect);
+    }
+
+    /**
+     * Reads in an entire ObjectOutputStream output from the given file channel, starting
+     * at its current position.  The file is memory-mapped in chunks, so files larger than
+     * 2 GB are supported.  The channel is left open.  See run(InputStream, boolean) for
+     * details.
+     *
+     * @param fc an open channel on a file containing a serialized stream of data
+     * @param shouldConnect true if jdeserialize should attempt to identify and connect
+     * member classes with their enclosing classes
+     */
+    public void run(FileChannel fc, boolean shouldConnect) throws IOException {
+        if(segmentPool != null && canSplit()) {
+            long[] resets = findResets(new MappedFileSerialInput(fc));
+            if(resets != null && runSegments(fc.position(), resets, fc.size(),
+                    (s, e) -> new MappedFileSerialInput(fc, s, e, MappedFileSerialInput.DEFAULT_CHUNK_SIZE),
+                    shouldConnect)) {
+                return;
+            }
+        }
+        run(new MappedFileSerialInput(fc), shouldConnect);
+    }
+
+    /**
+     * Reads in an entire ObjectOutputStream output from the given input source.  The
+     * source is closed when parsing ends.  See run(InputStream, boolean) for details.
+     *
+     * @param dis the source to read the serialized stream from
+     * @param shouldConnect true if jdeserialize should attempt to identify and connect
+     * member classes with their enclosing classes
+     */
+    public void run(SerialInput dis, boolean shouldConnect) throws IOException {
+        parse(dis, false);
+        end(shouldConnect);
+    }
+
+    /**
+     * Decodes a stream, or a segment of one that starts after a top-level reset, into
+     * content and handle maps.  The source is closed when parsing ends.
+     */
+    private void parse(SerialInput dis, boolean afterReset) throws IOException {
+        try {
+            JavaSerialReader reader = begin(dis, afterReset);
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            while(reader.next() != SerialEventType.END_STREAM) {
+                handleEvent(reader, nodes, dis);
+            }
+        } finally {
+            try {
+                dis.close();
+            } catch (Exception ignore) { }
+        }
+    }
+
+    /**
+     * Creates a reader over a source with the options of this object, and clears the
+     * results of any earlier parse.  The events the reader returns are then passed to
+     * handleEvent(), and end() is called at the end of the stream.
+     */
+    JavaSerialReader begin(SerialInput dis, boolean afterReset) {
+        JavaSerialReader reader = new JavaSerialReader(dis);
+        if(afterReset) {
+            reader.startAfterReset();
+        }
+        reader.setConcatenatedStreams(concatenatedStreams);
+        reader.setMaxDepth(maxDepth);
+        reader.setRecordItems(retainContent);
+        reader.setLazyStrings(lazyStrings);
+        reader.setCacheStrings(cacheStrings);
+        reader.setClassDescCache(classDescCache);
+        reader.setStringInterner(stringInterner);
+        reader.setSkipThreshold(skipThreshold);
+        blockdataExtracted = (blockdataout != null || blockdatamanifest != null);
+        reader.setBlockDataByOffset(blockdataExtracted && dis instanceof MappedFileSerialInput);
+        referenceBuilder = (indexReferences ? new ReferenceIndex.Builder() : null);
+        referenceIndex = null;
+        reset();
+        content = new ArrayList<Content>();
+        return reader;
+    }
+
+    /**
+     * Finishes a parse started with begin(): validates the content, and keeps the last
+     * handle table.
+     */
+    void end(boolean shouldConnect) throws IOException {
+        validate(shouldConnect);
+        if(filters != null) {
+            handles = keptHandles();
+        }
+        retainHandleMap();
+        buildReferenceIndex();
+    }
+
+    private void buildReferenceIndex() {
+        if(referenceBuilder != null) {
+            referenceIndex = referenceBuilder.build();
+            referenceBuilder = null;
+        }
+    }
+
+    /**
+     * @return a table of the class descriptions and filter matches of the current handle
+     * table
+     */
+    private HandleTable keptHandles() {
+        HandleTable kept = new HandleTable();
+        try {
+            for(Content c: handles.values()) {
+                if(c instanceof ClassDesc || matches.contains(c)) {
+                    kept.put(c.getHandle(), c);
+                }
+            }
+        } catch (IOException ioe) {
+            // The handles were all accepted by the current table.
+            throw new IllegalStateException(ioe);
+        }
+        return kept;
+    }
+
+    private void validate(boolean shouldConnect) throws IOException {
+        for(Content c: handles.values()) {
+            c.validate();
+        }
+        if(shouldConnect) {
+            connectMemberClasses();
+            for(Content c: handles.values()) {
+                c.validate();
+            }
+        }
+    }
+
+    /**
+     * Opens the part of a source between two offsets.
+     */
+    private interface SegmentSource {
+        SerialInput open(long start, long end) throws IOException;
+    }
+
+    /**
+     * Whether streams can be decoded in segments: events have to be reported in order to
+     * a listener, and block data has to be written in order.
+     */
+    private boolean canSplit() {
+        return listener == NOLISTENER && blockdataout == null && blockdatamanifest == null;
+    }
+
+    /**
+     * @return the top-level resets of the stream, or null if there are none or the stream
+     * can't be scanned
+     */
+    private long[] findResets(SerialInput in) {
+        try {
+            long[] resets = ResetScanner.findResets(in, concatenatedStreams);
+            return resets.length == 0 ? null : resets;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (Exception ignore) { }
+        }
+    }
+
+    /**
+     * Decodes the segments of a stream on the segment pool, and joins the results as
+     * run() would have built them.
+     *
+     * @return false if a segment failed, in which case nothing has been changed
+     */
+    private boolean runSegments(long start, long[] resets, long end, SegmentSource source, boolean shouldConnect) throws IOException {
+        List<ForkJoinTask<Jdeserialize2>> tasks = new ArrayList<ForkJoinTask<Jdeserialize2>>();
+        for(int i = 0; i <= resets.length; i++) {
+            long s = (i == 0 ? start : resets[i-1]);
+            long e = (i == resets.length ? end : resets[i]);
+            boolean afterReset = (i > 0);
+            tasks.add(segmentPool.submit(() -> {
+                Jdeserialize2 part = new Jdeserialize2(filename, new StringWriter());
+                part.retainContent = retainContent;
+                part.parseLog = parseLog;
+                part.maxDepth = maxDepth;
+                part.lazyStrings = lazyStrings;
+                part.cacheStrings = cacheStrings;
+                part.skipThreshold = skipThreshold;
+                part.concatenatedStreams = concatenatedStreams;
+                part.classDescCache = classDescCache;
+                part.stringInterner = stringInterner;
+                part.filters = filters;
+                part.indexReferences = indexReferences;
+                part.parse(source.open(s, e), afterReset);
+                part.retainHandleMap();
+                return part;
+            }));
+        }
+        List<Jdeserialize2> parts = new ArrayList<Jdeserialize2>();
+        try {
+            for(ForkJoinTask<Jdeserialize2> task: tasks) {
+                parts.add(task.get());
+            }
+        } catch (ExecutionException ee) {
+            for(ForkJoinTask<Jdeserialize2> task: tasks) {
+                task.cancel(false);
+            }
+            return false;
+        } catch (InterruptedException ie) {
+            for(ForkJoinTask<Jdeserialize2> task: tasks) {
+                task.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding segments");
+        }
+        reset();
+        content = new ArrayList<Content>();
+        referenceBuilder = (indexReferences ? new ReferenceIndex.Builder() : null);
+        for(Jdeserialize2 part: parts) {
+            print(part.writer.toString(), false);
+            content.addAll(part.content);
+            if(retainedHandleMaps != 0) {
+                handlemaps.addAll(part.handlemaps);
+            }
+            handles = part.handles;
+            matches = part.matches;
+            if(referenceBuilder != null) {
+                referenceBuilder.append(part.referenceBuilder);
+            }
+        }
+        if(retainedHandleMaps > 0 && handlemaps.size() > retainedHandleMaps) {
+            handlemaps.subList(0, handlemaps.size() - retainedHandleMaps).clear();
+        }
+        validate(shouldConnect);
+        if(filters != null) {
+            handles = keptHandles();
+        }
+        buildReferenceIndex();
+        return true;
+    }
+    
+    /**
+     * A structure that is being built from the reader's events: an object, array, class
+     * description, annotation list or exception.
+     */
+    static final class Node {
+        /**
+         * The event that started the structure.
+         */
+        final SerialEventType kind;
+        /**
+         * The reader's depth at the start event; the contents are one level deeper.
+         */
+        final int depth;
+        Instance inst;
+        // The layout of the object's fields, if they're stored or tested, and the index
+        // in it of the next field.
+        FieldLayout layout;
+        int nextfield;
+        Map<ClassDesc, List<Content>> annotations;
+        ArrayObj array;
+        ClassDesc classdesc;
+        List<Content> list;
+        Content exception;
+        // The field or element whose value is being read, once reported to the listener.
+        Field started;
+        int startedindex = -1;
+        // The filters' conditions on an object, if its class is one they select.
+        InstanceFilter.Plan plan;
+        int[] progress;
+        boolean rejected;
+
+        Node(SerialEventType kind, int depth) {
+            this.kind = kind;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Applies the reader's current event to the content being built, and passes it on to
+     * the listener.
+     */
+    void handleEvent(JavaSerialReader r, ArrayList<Node> nodes, SerialInput dis) throws IOException {
+        SerialEventType ev = r.getEventType();
+        Node top = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+        if(top != null && ev != SerialEventType.PRIMITIVE && r.getDepth() == top.depth + 1) {
+            if(top.kind == SerialEventType.START_OBJECT && r.getField() != null && r.getField() != top.started) {
+                top.started = r.getField();
+                listener.startField(r.getDeclaringClassDesc(), top.started);
+            } else if(top.kind == SerialEventType.START_ARRAY && r.getIndex() >= 0 && r.getIndex() != top.startedindex) {
+                top.startedindex = r.getIndex();
+                listener.startArrayElement(top.startedindex);
+            }
+        }
+        switch(ev) {
+            case RESET:
+                reset();
+                listener.reset();
+                break;
+            case NEW_STREAM:
+                LogUtil.debug("new stream header");
+                reset();
+                listener.newStream();
+                break;
+            case START_CLASSDESC: {
+                ClassDesc cd = r.getClassDesc();
+                if(cd.fields != null) {
+                    // Field type names were read with the description, so new ones
+                    // precede it in the handle table.
+                    for(Field f: cd.fields) {
+                        if(f.classname != null && f.classname.handle > cd.handle && !handles.contains(f.classname.handle)) {
+                            setHandle(f.classname.handle, f.classname);
+                        }
+                    }
+                }
+                listener.startClassDesc(cd.handle, cd);
+                Node n = new Node(ev, r.getDepth());
+                n.classdesc = cd;
+                nodes.add(n);
+                break;
+            }
+            case END_CLASSDESC: {
+                ClassDesc cd = nodes.remove(nodes.size() - 1).classdesc;
+                setHandle(cd.handle, cd);
+                LogUtil.debug("read new classdesc: handle " + FormatUtil.hex(cd.handle) + " name " + cd.name);
+                listener.endClassDesc(cd.handle, cd);
+                if(r.isClassDescValue()) {
+                    addValue(r, nodes, cd, dis);
+                }
+                break;
+            }
+            case START_ANNOTATION: {
+                listener.startAnnotation(r.getClassDesc());
+                Node n = new Node(ev, r.getDepth());
+                n.classdesc = r.getClassDesc();
+                n.list = new ArrayList<Content>();
+                nodes.add(n);
+                break;
+            }
+            case END_ANNOTATION: {
+                Node n = nodes.remove(nodes.size() - 1);
+                listener.endAnnotation(n.classdesc);
+                Node owner = nodes.get(nodes.size() - 1);
+                if(owner.kind == SerialEventType.START_CLASSDESC) {
+                    owner.classdesc.annotations = n.list;
+                } else if(retainContent && !owner.rejected) {
+                    if(owner.annotations == null) {
+                        owner.annotations = new LinkedHashMap<ClassDesc, List<Content>>();
+                    }
+                    owner.annotations.put(n.classdesc, n.list);
+                }
+                break;
+            }
+            case START_OBJECT: {
+                ClassDesc cd = r.getClassDesc();
+                int handle = r.getHandle();
+                LogUtil.debug("reading new object: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
+                Instance i = new Instance(handle, cd, retainContent);
+                setHandle(handle, i);
+                listener.startObject(handle, cd);
+                Node n = new Node(ev, r.getDepth());
+                n.inst = i;
+                if(filters != null) {
+                    n.plan = planFor(cd);
+                    n.progress = (n.plan == null ? null : n.plan.start());
+                }
+                if(retainContent || n.plan != null) {
+                    n.layout = cd.getFieldLayout();
+                }
+                nodes.add(n);
+                break;
+            }
+            case END_OBJECT: {
+                Node n = nodes.remove(nodes.size() - 1);
+                n.inst.annotations = (n.annotations == null ? Collections.<ClassDesc, List<Content>>emptyMap() : n.annotations);
+                if(n.plan != null && !n.rejected) {
+                    if(n.plan.accepts(n.progress)) {
+                        matches.add(n.inst);
+                    } else {
+                        n.inst.clearFieldValues();
+                    }
+                }
+                LogUtil.debug("done reading object for handle " + FormatUtil.hex(n.inst.handle));
+                listener.endObject(n.inst.handle, n.inst.classdesc);
+                addValue(r, nodes, n.inst, dis);
+                break;
+            }
+            case START_ARRAY: {
+                ClassDesc cd = r.getClassDesc();
+                int handle = r.getHandle();
+                LogUtil.debug("reading new array: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
+                FieldTypeEnum ft = FieldTypeEnum.get((byte)cd.name.charAt(1));
+                int length = r.getArrayLength();
+                long dataoffset = r.getArrayDataOffset();
+                if(ft.isPrimitive() && dataoffset < 0) {
+                    // Read in one go; elements are only boxed if a listener wants them.
+                    ArrayObj ao = new ArrayObj(handle, cd, new PrimitiveArrayColl(ft, r.readPrimitiveArray()));
+                    setHandle(handle, ao);
+                    listener.startArray(handle, cd, length);
+                    if(listener != NOLISTENER) {
+                        for(int i = 0; i < length; i++) {
+                            listener.arrayElement(i, ao.data.get(i));
+                        }
+                    }
+                    listener.endArray(handle, cd);
+                    addValue(r, nodes, ao, dis);
+                    break;
+                }
+                ArrayObj ao = new ArrayObj(handle, cd,
+                        dataoffset < 0 ? new ArrayColl(ft) : new SkippedArrayColl(ft, length, dataoffset));
+                setHandle(handle, ao);
+                listener.startArray(handle, cd, length);
+                Node n = new Node(ev, r.getDepth());
+                n.array = ao;
+                nodes.add(n);
+                break;
+            }
+            case END_ARRAY: {
+                ArrayObj ao = nodes.remove(nodes.size() - 1).array;
+                listener.endArray(ao.handle, ao.classdesc);
+                addValue(r, nodes, ao, dis);
+                break;
+            }
+            case PRIMITIVE: {
+                if(top.kind == SerialEventType.START_OBJECT) {
+                    // Stored unboxed; only boxed if a listener wants the value.
+                    if(listener != NOLISTENER) {
+                        listener.fieldValue(r.getDeclaringClassDesc(), r.getField(), r.getPrimitiveValue());
+                    }
+                    if(top.layout != null) {
+                        int index = fieldIndex(top, r);
+                        if(top.plan != null && !top.rejected && top.plan.tests(index)) {
+                            testField(top, index, r.getPrimitiveValue());
+                        }
+                        if(retainContent && !top.rejected) {
+                            top.inst.setPrimitiveBits(index, primitiveBits(r));
+                        }
+                    }
+                    break;
                 }
+                Object o = r.getPrimitiveValue();
+                listener.arrayElement(r.getIndex(), o);
+                addValue(r, nodes, o, dis);
+                break;
             }
-            print(writer, " {", true);
-            for(Field f: cd.fields) {
-                if(f.isInnerClassReference()) {
-                    continue;
+            case STRING: {
+                StringObj so = r.getString();
+                LogUtil.debug("reading new string: handle " + FormatUtil.hex(so.handle));
+                setHandle(so.handle, so);
+                listener.string(so);
+                addValue(r, nodes, so, dis);
+                break;
+            }
+            case ENUM: {
+                ClassDesc cd = r.getClassDesc();
+                int handle = r.getHandle();
+                StringObj so = r.getString();
+                LogUtil.debug("reading new enum: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
+                if(so.handle > handle) {
+                    // A new constant name, read after the enum's handle was assigned.
+                    setHandle(so.handle, so);
                 }
-                print(writer, indent(indentlevel+1) + f.getJavaType(), false);
-                print(writer, " " + f.name + ";", true);
+                setHandle(handle, so);
+                listener.enumValue(handle, cd, so);
+                addValue(r, nodes, new EnumObj(handle, cd, so), dis);
+                break;
             }
-            for(ClassDesc icd: cd.innerclasses) {
-                dump_ClassDesc(indentlevel+1, icd, writer, fixname);
+            case CLASS: {
+                ClassDesc cd = r.getClassDesc();
+                int handle = r.getHandle();
+                LogUtil.debug("reading new class: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
+                ClassObj c = new ClassObj(handle, cd);
+                setHandle(handle, c);
+                listener.classObject(handle, cd);
+                addValue(r, nodes, c, dis);
+                break;
             }
-            print(writer, indent(indentlevel)+"}", true);
-        } else if(cd.classtype == ClassDescTypeEnum.PROXYCLASS) {
-            print(writer, indent(indentlevel) + "// proxy class " + FormatUtil.hex(cd.handle), false);
-            if(cd.superclass != null) {
-                print(writer, " extends " + cd.superclass.name, false);
+            case REFERENCE: {
+                Content c = handles.get(r.getHandle());
+                if(c == null) {
+                    throw new ValidityException("can't find an entry for handle " + FormatUtil.hex(r.getHandle()));
+                }
+                LogUtil.debug("prevObject: handle " + FormatUtil.hex(c.getHandle()) + " classdesc " + c.toString());
+                listener.reference(r.getHandle());
+                addValue(r, nodes, c, dis);
+                break;
             }
-            print(writer, " implements ", true);
-            for(String intf: cd.interfaces) {
-                print(writer, indent(indentlevel) + "//    " + intf + ", ", true);
+            case NULL:
+                listener.nullValue();
+                addValue(r, nodes, null, dis);
+                break;
+            case BLOCKDATA: {
+                BlockData bd = r.getBlockData();
+                LogUtil.debug("read blockdata of size " + bd.getLength());
+                listener.blockData(bd);
+                if(blockdataExtracted && nodes.isEmpty()) {
+                    extractBlockData(bd, dis);
+                }
+                addValue(r, nodes, bd, dis);
+                break;
             }
-            if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
-                print(writer, indent(indentlevel) + "//    java.io.Externalizable", true);
-            } else {
-                print(writer, indent(indentlevel) + "//    java.io.Serializable", true);
+            case START_EXCEPTION:
+                listener.startException();
+                nodes.add(new Node(ev, r.getDepth()));
+                break;
+            case END_EXCEPTION: {
+                Content c = nodes.remove(nodes.size() - 1).exception;
+                c.setIsExceptionObject(true);
+                listener.endException();
+                // The exception takes the place of whatever it interrupted.
+                nodes.clear();
+                addValue(r, nodes, c, dis);
+                break;
             }
-        } else {
-            throw new ValidityException("encountered invalid classdesc type!");
+            default:
+                throw new IllegalStateException("unexpected event: " + ev);
         }
     }
 
-    public void setHandle(int handle, Content c) throws IOException {
-        if(handles.containsKey(handle)) {
-            throw new IOException("trying to reset handle " + FormatUtil.hex(handle));
+    /**
+     * @return the filters' plan for instances of a class, or null if the filters don't
+     * select it
+     */
+    private InstanceFilter.Plan planFor(ClassDesc cd) {
+        if(filterPlans.containsKey(cd)) {
+            return filterPlans.get(cd);
         }
-        handles.put(handle, c);
+        InstanceFilter.Plan plan = InstanceFilter.Plan.create(filters, cd);
+        filterPlans.put(cd, plan);
+        return plan;
     }
-    public void reset() {
-    	LogUtil.debug("reset ordered!");
-        if(handles != null && handles.size() > 0) {
-            HashMap<Integer,Content> hm = new LinkedHashMap<Integer,Content>();
-            hm.putAll(handles);
-            handlemaps.add(hm);
+
+    /**
+     * Tests the filters' conditions on a field of the object being built, and empties the
+     * object once it can no longer match.  The object mustn't have been rejected yet, and
+     * a condition must test the field.
+     */
+    private void testField(Node n, int index, Object value) {
+        if(!n.plan.test(n.progress, index, value)) {
+            n.rejected = true;
+            n.inst.clearFieldValues();
         }
-        handles.clear();
-        curhandle = ObjectStreamConstants.baseWireHandle;  // 0x7e0000
     }
+
     /**
-     * Read the content of a thrown exception object.  According to the spec, this must be
-     * an object of type Throwable.  Although the Sun JDK always appears to provide enough
-     * information about the hierarchy to reach all the way back to java.lang.Throwable,
-     * it's unclear whether this is actually a requirement.  From my reading, it's
-     * possible that some other ObjectOutputStream implementations may leave some gaps in
-     * the hierarchy, forcing this app to hit the classloader.  To avoid this, we merely
-     * ensure that the written object is indeed an instance; ensuring that the object is
-     * indeed a Throwable is an exercise left to the user.
+     * Gets the index in the object's field layout of the field whose value is the current
+     * event.  The reader reports fields in layout order, so this is the one after the
+     * last; the layout is only searched if it isn't.
      */
-    public Content read_Exception(DataInputStream dis) throws IOException {
-        reset();
-        byte tc = dis.readByte();
-        if(tc == ObjectStreamConstants.TC_RESET) {
-            throw new ValidityException("TC_RESET for object while reading exception: what should we do?");
+    private static int fieldIndex(Node n, JavaSerialReader r) {
+        int i = n.nextfield;
+        if(i >= n.layout.getFieldCount() || n.layout.getField(i) != r.getField()
+                || n.layout.getDeclaringClass(i) != r.getDeclaringClassDesc()) {
+            i = n.layout.indexOf(r.getDeclaringClassDesc(), r.getField());
         }
-        Content c = read_Content(tc, dis, false);
-        if(c == null) {
-            throw new ValidityException("stream signaled for an exception, but exception object was null!");
-        }
-        if(!(c instanceof Instance)) { 
-            throw new ValidityException("stream signaled for an exception, but content is not an object!");
-        }
-        if(c.isExceptionObject()) {
-            throw new ExceptionReadException(c);
-        }
-        c.setIsExceptionObject(true);
-        reset();
-        return c;
+        n.nextfield = i + 1;
+        return i;
     }
 
-    public ClassDesc read_classDesc(DataInputStream dis) throws IOException {
-        byte tc = dis.readByte();
-        ClassDesc cd = handle_classDesc(tc, dis, false);
-        return cd;
-    }
-    
-    public ClassDesc read_newClassDesc(DataInputStream dis) throws IOException {
-        byte tc = dis.readByte();
-        ClassDesc cd = handle_newClassDesc(tc, dis);
-        return cd;
-    }
-    
-    public Content read_prevObject(DataInputStream dis) throws IOException {
-            int handle = dis.readInt();
-            if(!handles.containsKey(Integer.valueOf(handle))) {
-                throw new ValidityException("can't find an entry for handle " + FormatUtil.hex(handle));
-            }
-            Content c = handles.get(handle);
-            LogUtil.debug("prevObject: handle " + FormatUtil.hex(c.getHandle()) + " classdesc " + c.toString());
-            return c;
+    /**
+     * Gets the current PRIMITIVE value in the form used by Instance.setPrimitiveBits().
+     */
+    private static long primitiveBits(JavaSerialReader r) {
+        switch(r.getPrimitiveType()) {
+            case FLOAT:
+                return Float.floatToRawIntBits(r.getFloatValue());
+            case DOUBLE:
+                return Double.doubleToRawLongBits(r.getDoubleValue());
+            case BOOLEAN:
+                return r.getBooleanValue() ? 1 : 0;
+            default:
+                return r.getLongValue();
+        }
     }
 
-    public ClassDesc handle_newClassDesc(byte tc, DataInputStream dis) throws IOException {
-        return handle_classDesc(tc, dis, true);
-    }
-    
-    public ClassDesc handle_classDesc(byte tc, DataInputStream dis, boolean mustBeNew) throws IOException {
-        if(tc == ObjectStreamConstants.TC_CLASSDESC) {
-            String name = dis.readUTF();
-            long serialVersionUID = dis.readLong();
-            int handle = newHandle();
-            byte descflags = dis.readByte();
-            short nfields = dis.readShort();
-            if(nfields < 0) {
-                throw new IOException("invalid field count: " + nfields);
-            }
-            Field[] fields = new Field[nfields];
-            for(short s = 0; s < nfields; s++) {
-                byte ftype = dis.readByte();
-                if(ftype == 'B' || ftype == 'C' || ftype == 'D' 
-                        || ftype == 'F' || ftype == 'I' || ftype == 'J'
-                        || ftype == 'S' || ftype == 'Z') {
-                    String fieldname = dis.readUTF();
-                    fields[s] = new Field(FieldTypeEnum.get(ftype), fieldname);
-                } else if(ftype == '[' || ftype == 'L') {
-                    String fieldname = dis.readUTF();
-                    byte stc = dis.readByte();
-                    StringObj classname = read_newString(stc, dis);
-                    //String classname = dis.readUTF();
-                    fields[s] = new Field(FieldTypeEnum.get(ftype), fieldname, classname);
-                } else {
-                    throw new IOException("invalid field type char: " + FormatUtil.hex(ftype));
-                }
+    /**
+     * Stores a completed value in the enclosing structure, or in the content list if it
+     * was written at the top level of the stream.
+     */
+    private void addValue(JavaSerialReader r, ArrayList<Node> nodes, Object value, SerialInput dis) throws IOException {
+        if(referenceBuilder != null && value instanceof Content) {
+            indexReference(nodes, (Content)value);
+        }
+        if(nodes.isEmpty()) {
+            Content c = (Content)value;
+            if(parseLog) {
+                print("read: " + c.toString(), true);
             }
-            ClassDesc cd = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
-            cd.name = name;
-            cd.serialVersionUID = serialVersionUID;
-            cd.handle = handle;
-            cd.descflags = descflags;
-            cd.fields = fields;
-            cd.annotations = read_classAnnotation(dis);
-            cd.superclass = read_classDesc(dis);
-            setHandle(handle, cd);
-            LogUtil.debug("read new classdesc: handle " + FormatUtil.hex(handle) + " name " + name);
-            return cd;
-        } else if(tc == ObjectStreamConstants.TC_NULL) {
-            if(mustBeNew) {
-                throw new ValidityException("expected new class description -- got null!");
-            }
-            LogUtil.debug("read null classdesc");
-            return null;
-        } else if(tc == ObjectStreamConstants.TC_REFERENCE) {
-            if(mustBeNew) {
-                throw new ValidityException("expected new class description -- got a reference!");
+            if(!retainContent || (filters != null && !matches.contains(c))) {
+                return;
             }
-            Content c = read_prevObject(dis);
-            if(!(c instanceof ClassDesc)) {
-                throw new IOException("referenced object not a class description!");
+            if(c != null && c.isExceptionObject()) {
+                c = new ExceptionState(c, dis.getRecordedData());
             }
-            ClassDesc cd = (ClassDesc)c;
-            return cd;
-        } else if(tc == ObjectStreamConstants.TC_PROXYCLASSDESC) {
-            int handle = newHandle();
-            int icount = dis.readInt();
-            if(icount < 0) {
-                throw new IOException("invalid proxy interface count: " + FormatUtil.hex(icount));
-            }
-            String interfaces[] = new String[icount];
-            for(int i = 0; i < icount; i++) {
-                interfaces[i] = dis.readUTF();
-            }
-            ClassDesc cd = new ClassDesc(ClassDescTypeEnum.PROXYCLASS);
-            cd.handle = handle;
-            cd.interfaces = interfaces;
-            cd.annotations = read_classAnnotation(dis);
-            cd.superclass = read_classDesc(dis);
-            setHandle(handle, cd);
-            cd.name = "(proxy class; no name)";
-            LogUtil.debug("read new proxy classdesc: handle " + FormatUtil.hex(handle) + " names [" + Arrays.toString(interfaces) + "]");
-            return cd;
-        } else {
-            throw new ValidityException("expected a valid class description starter got " + FormatUtil.hex(tc));
-        }
-    }
-    
-    public ArrayObj read_newArray(DataInputStream dis) throws IOException {
-        ClassDesc cd = read_classDesc(dis);
-        int handle = newHandle();
-        LogUtil.debug("reading new array: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
-        if(cd.name.length() < 2) {
-            throw new IOException("invalid name in array classdesc: " + cd.name);
-        }
-        ArrayColl ac = read_arrayValues(cd.name.substring(1), dis);
-        return new ArrayObj(handle, cd, ac);
-    }
-    
-    public ArrayColl read_arrayValues(String str, DataInputStream dis) throws IOException {
-        byte b = str.getBytes("UTF-8")[0];
-        FieldTypeEnum ft = FieldTypeEnum.get(b);
-        int size = dis.readInt();
-        if(size < 0) {
-            throw new IOException("invalid array size: " + size);
-        }
-
-        ArrayColl ac = new ArrayColl(ft);
-        for(int i = 0; i < size; i++) {
-            ac.add(read_FieldValue(ft, dis));
-            continue;
+            content.add(c);
+            return;
         }
-        return ac;
-    }
-    
-    public ClassObj read_newClass(DataInputStream dis) throws IOException {
-        ClassDesc cd = read_classDesc(dis);
-        int handle = newHandle();
-        LogUtil.debug("reading new class: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
-        ClassObj c = new ClassObj(handle, cd);
-        setHandle(handle, c);
-        return c;
-    }
-    
-    public EnumObj read_newEnum(DataInputStream dis) throws IOException {
-        ClassDesc cd = read_classDesc(dis);
-        if(cd == null) {
-            throw new IOException("enum classdesc can't be null!");
-        }
-        int handle = newHandle();
-        LogUtil.debug("reading new enum: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
-        byte tc = dis.readByte();
-        StringObj so = read_newString(tc, dis);
-        cd.addEnum(so.value);
-        setHandle(handle, so);
-        return new EnumObj(handle, cd, so);
-    }
-    
-    public StringObj read_newString(byte tc, DataInputStream dis) throws IOException {
-        byte[] data;
-        if(tc == ObjectStreamConstants.TC_REFERENCE) {
-                Content c = read_prevObject(dis);
-                if(!(c instanceof StringObj)) {
-                    throw new IOException("got reference for a string, but referenced value was something else!");
+        Node n = nodes.get(nodes.size() - 1);
+        if(n.kind == SerialEventType.START_OBJECT) {
+            if(n.layout != null) {
+                int index = fieldIndex(n, r);
+                if(n.plan != null && !n.rejected && n.plan.tests(index)) {
+                    testField(n, index, value);
                 }
-                return (StringObj)c;
-        }
-        int handle = newHandle();
-        if(tc == ObjectStreamConstants.TC_STRING) {
-            int len = dis.readUnsignedShort();
-            data = new byte[len];
-        } else if(tc == ObjectStreamConstants.TC_LONGSTRING) {
-            long len = dis.readLong();
-            if(len < 0) {
-                throw new IOException("invalid long string length: " + len);
-            }
-            if(len > 2147483647) {
-                throw new IOException("long string is too long: " + len);
-            }
-            if(len < 65536) {
-            	LogUtil.debugerr("warning: small string length encoded as TC_LONGSTRING: " + len);
-            }
-            data = new byte[(int)len];
-        } else if(tc == ObjectStreamConstants.TC_NULL) {
-            throw new ValidityException("stream signaled TC_NULL when string type expected!");
+                if(retainContent && !n.rejected) {
+                    n.inst.setFieldValue(index, value);
+                }
+            }
+        } else if(n.kind == SerialEventType.START_ARRAY) {
+            if(retainContent) {
+                n.array.data.add(value);
+            }
+        } else if(n.kind == SerialEventType.START_ANNOTATION) {
+            n.list.add((Content)value);
+        } else if(n.kind == SerialEventType.START_EXCEPTION) {
+            if(!(value instanceof Instance)) {
+                throw new ValidityException("stream signaled for an exception, but content is not an object!");
+            }
+            n.exception = (Content)value;
         } else {
-            throw new IOException("invalid tc byte in string: " + FormatUtil.hex(tc));
+            throw new IllegalStateException("unexpected value inside " + n.kind);
         }
-        dis.readFully(data);
-        LogUtil.debug("reading new string: handle " + FormatUtil.hex(handle) + " bufsz " + data.length);
-        StringObj sobj = new StringObj(handle, data);
-        setHandle(handle, sobj);
-        return sobj;
     }
     
-    public BlockData read_blockdata(byte tc, DataInputStream dis) throws IOException {
-        int size;
-        if(tc == ObjectStreamConstants.TC_BLOCKDATA) {
-            size = dis.readUnsignedByte();
-        } else if(tc == ObjectStreamConstants.TC_BLOCKDATALONG) {
-            size = dis.readInt();
-        } else {
-            throw new IOException("invalid tc value for blockdata: " + FormatUtil.hex(tc));
+    /**
+     * Records a value in the reference index: as an edge from the structure that holds
+     * it, or as a root if it was written at the top level.
+     */
+    private void indexReference(ArrayList<Node> nodes, Content c) {
+        if(nodes.isEmpty()) {
+            referenceBuilder.addRoot(c.getHandle());
+            return;
         }
-        if(size < 0) {
-            throw new IOException("invalid value for blockdata size: " + size);
+        Node n = nodes.get(nodes.size() - 1);
+        if(n.kind == SerialEventType.START_ANNOTATION) {
+            n = nodes.get(nodes.size() - 2);
+        }
+        if(n.kind == SerialEventType.START_OBJECT) {
+            referenceBuilder.addEdge(n.inst.handle, c.getHandle());
+        } else if(n.kind == SerialEventType.START_ARRAY) {
+            referenceBuilder.addEdge(n.array.handle, c.getHandle());
         }
-        byte[] b = new byte[size];
-        dis.readFully(b);
-        LogUtil.debug("read blockdata of size " + size);
-        return new BlockData(b);
-    }
-    
-    public Instance read_newObject(DataInputStream dis) throws IOException {
-        ClassDesc cd = read_classDesc(dis);
-        int handle = newHandle();
-        LogUtil.debug("reading new object: handle " + FormatUtil.hex(handle) + " classdesc " + cd.toString());
-        Instance i = new Instance();
-        i.classdesc = cd;
-        i.handle = handle;
-        setHandle(handle, i);
-        read_Classdata(dis, i);
-        LogUtil.debug("done reading object for handle " + FormatUtil.hex(handle));
-        return i;
     }
 
     /**
-     * <p>
-     * Read the next object corresponding to the spec grammar rule "content", and return
-     * an object of type content.
-     * </p>
-     *
-     * <p>
-     * Usually, there is a 1:1 mapping of content items and returned instances.  The
-     * one case where this isn't true is when an exception is embedded inside another
-     * object.  When this is encountered, only the serialized exception object is
-     * returned; it's up to the caller to backtrack in order to gather any data from the
-     * object that was being serialized when the exception was thrown.
-     * </p>
-     *
-     * @param tc the last byte read from the stream; it must be one of the TC_* values
-     * within ObjectStreamConstants.*
-     * @param dis the DataInputStream to read from
-     * @param blockdata whether or not to read TC_BLOCKDATA (this is the difference
-     * between spec rules "object" and "content").
-     * @return an object representing the last read item from the stream 
-     * @throws IOException when a validity or I/O error occurs while reading
+     * Writes a top-level block to the block data outputs set by setBlockDataOutput().
      */
-    public Content read_Content(byte tc, DataInputStream dis, boolean blockdata) throws IOException {
-        try {
-            switch(tc) {
-                case ObjectStreamConstants.TC_OBJECT:
-                    return read_newObject(dis);
-                case ObjectStreamConstants.TC_CLASS:
-                    return read_newClass(dis);
-                case ObjectStreamConstants.TC_ARRAY:
-                    return read_newArray(dis);
-                case ObjectStreamConstants.TC_STRING:
-                case ObjectStreamConstants.TC_LONGSTRING:
-                    return read_newString(tc, dis);
-                case ObjectStreamConstants.TC_ENUM:
-                    return read_newEnum(dis);
-                case ObjectStreamConstants.TC_CLASSDESC:
-                case ObjectStreamConstants.TC_PROXYCLASSDESC:
-                    return handle_newClassDesc(tc, dis);
-                case ObjectStreamConstants.TC_REFERENCE:
-                    return read_prevObject(dis);
-                case ObjectStreamConstants.TC_NULL:
-                    return null;
-                case ObjectStreamConstants.TC_EXCEPTION:
-                    return read_Exception(dis);
-                case ObjectStreamConstants.TC_BLOCKDATA:
-                case ObjectStreamConstants.TC_BLOCKDATALONG:
-                    if(blockdata == false) {
-                        throw new IOException("got a blockdata TC_*, but not allowed here: " + FormatUtil.hex(tc));
-                    }
-                    return read_blockdata(tc, dis);
-                default:
-                    throw new IOException("unknown content tc byte in stream: " + FormatUtil.hex(tc));
+    private void extractBlockData(BlockData bd, SerialInput dis) throws IOException {
+        if(blockdatamanifest != null) {
+            blockdatamanifest.println(bd.getLength());
+        }
+        if(blockdataout == null) {
+            return;
+        }
+        if(bd.buf == null) {
+            if(!(dis instanceof MappedFileSerialInput)) {
+                throw new IOException("can't extract skipped block data from this source");
             }
-        } catch (ExceptionReadException ere) {
-            return ere.getExceptionObject();
+            ((MappedFileSerialInput)dis).transferTo(bd.getOffset(), bd.getLength(), blockdataout);
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(bd.buf);
+        while(bb.hasRemaining()) {
+            blockdataout.write(bb);
         }
     }
 
     /**
-     * <p>
-     * Reads in an entire ObjectOutputStream output on the given stream, filing 
-     * this object's content and handle maps with data about the objects in the stream.  
-     * </p>
+     * Writes the comment lines that start a block data manifest.
      *
-     * <p>
-     * If shouldConnect is true, then jdeserialize will attempt to identify member classes
-     * by their names according to the details laid out in the Inner Classes
-     * Specification.  If it finds one, it will set the classdesc's flag indicating that
-     * it is an member class, and it will create a reference in its enclosing class.
-     * </p>
-     *
-     * @param is an open InputStream on a serialized stream of data
-     * @param shouldConnect true if jdeserialize should attempt to identify and connect
-     * member classes with their enclosing classes
-     * 
-     * Also see the <pre>connectMemberClasses</pre> method for more information on the 
-     * member-class-detection algorithm.
+     * @param pw the manifest
      */
-    public void run(InputStream is, boolean shouldConnect) throws IOException {
-        LoggerInputStream lis = null;
-        DataInputStream dis = null;
-        try {
-            lis = new LoggerInputStream(is);
-            dis = new DataInputStream(lis);
-
-            short magic = dis.readShort();
-            if(magic != ObjectStreamConstants.STREAM_MAGIC) {
-                throw new ValidityException("file magic mismatch!  expected " + ObjectStreamConstants.STREAM_MAGIC + ", got " + magic);
-            }
-            short streamversion = dis.readShort();
-            if(streamversion != ObjectStreamConstants.STREAM_VERSION) {
-                throw new ValidityException("file version mismatch!  expected " + ObjectStreamConstants.STREAM_VERSION + ", got " + streamversion);
-            }
-            reset();
-            content = new ArrayList<Content>();
-            while(true) {
-                byte tc;
-                try { 
-                    lis.record();
-                    tc = dis.readByte();
-                    if(tc == ObjectStreamConstants.TC_RESET) {
-                        reset();
-                        continue;
-                    }
-                } catch (EOFException eoe) {
-                    break;
-                }
-                Content c = read_Content(tc, dis, true);
-                print("read: " + c.toString(), true);
-                if(c != null && c.isExceptionObject()) {
-                    c = new ExceptionState(c, lis.getRecordedData());
-                }
-                content.add(c);
-            }
-        } finally {
-            if(dis != null) {
-                try {
-                    dis.close();
-                } catch (Exception ignore) { }
-            }
-            if(lis != null) {
-                try {
-                    lis.close();
-                } catch (Exception ignore) {}
-            }
-        }
-        for(Content c: handles.values()) {
-            c.validate();
-        }
-        if(shouldConnect) {
-            connectMemberClasses();
-            for(Content c: handles.values()) {
-                c.validate();
-            }
-        }
-        if(handles != null && handles.size() > 0) {
-            HashMap<Integer,Content> hm = new LinkedHashMap<Integer,Content>();
-            hm.putAll(handles);
-            handlemaps.add(hm);
-        }
+    public static void printBlockDataManifestHeader(PrintWriter pw) {
+        pw.println("# Each line in this file that doesn't begin with a '#' contains the size of");
+        pw.println("# an individual blockdata block written to the stream.");
     }
-    
+
     public void dump(GetOpt go) throws IOException {
-        if(go.hasOption("-blockdata") || go.hasOption("-blockdatamanifest")) {
+        boolean json = go.hasOption("-json") || go.hasOption("-ndjson");
+        if((go.hasOption("-blockdata") || go.hasOption("-blockdatamanifest")) && blockdataExtracted) {
+            // The blocks were written out during the parse.
+            for(Content c: content) {
+                if(!json) {
+                    print(c.toString(), true);
+                }
+            }
+        } else if(go.hasOption("-blockdata") || go.hasOption("-blockdatamanifest")) {
             List<String> bout = go.getArguments("-blockdata");
             List<String> mout = go.getArguments("-blockdatamanifest");
             FileOutputStream bos = null, mos = null;
@@ -840,18 +1482,19 @@ public class Jdeserialize2 {
                 if(bout != null && bout.size() > 0) {
                     bos = new FileOutputStream(bout.get(0));
                 }
-                if(mout != null && bout.size() > 0) {
+                if(mout != null && mout.size() > 0) {
                     mos = new FileOutputStream(mout.get(0));
                     pw = new PrintWriter(mos);
-                    pw.println("# Each line in this file that doesn't begin with a '#' contains the size of");
-                    pw.println("# an individual blockdata block written to the stream.");
+                    printBlockDataManifestHeader(pw);
                 }
                 for(Content c: content) {
-                    print(c.toString(), true);
+                    if(!json) {
+                        print(c.toString(), true);
+                    }
                     if(c instanceof BlockData) {
                         BlockData bd = (BlockData)c;
                         if(mos != null) {
-                            pw.println(bd.buf.length);
+                            pw.println(bd.getLength());
                         }
                         if(bos != null) {
                             bos.write(bd.buf);
@@ -872,6 +1515,12 @@ public class Jdeserialize2 {
                 }
             }
         }
+        if(json) {
+            JsonDump jdump = new JsonDump(writer, go.hasOption("-ndjson"));
+            jdump.setFixNames(go.hasOption("-fixnames"));
+            jdump.dump(filename, content, handles.values(), go);
+            return;
+        }
         if(!go.hasOption("-nocontent")) {
             print("//// BEGIN stream content output", true);
             for(Content c: content) {
@@ -921,6 +1570,58 @@ public class Jdeserialize2 {
             print("//// END instance dump", true);
             print("", true);
         }
+        List<String> rargs = go.getArguments("-referrers");
+        if(rargs != null && referenceIndex != null) {
+            for(String h: rargs) {
+                dumpReferrers(Integer.decode(h));
+            }
+        }
+    }
+
+    /**
+     * Prints what refers to the content of a handle in the last generation, and a
+     * shortest path to it from the top level of the stream.
+     */
+    private void dumpReferrers(int handle) throws IOException {
+        print("//// BEGIN referrers of " + FormatUtil.hex(handle), true);
+        int node = referenceIndex.findNode(handle);
+        if(node < 0) {
+            print("// no content has this handle", true);
+        } else {
+            for(int r: referenceIndex.getReferrers(node)) {
+                print(describeNode(r), true);
+            }
+            int[] path = referenceIndex.getPathToRoot(node);
+            if(path == null) {
+                print("// not reachable from the top level", true);
+            } else {
+                StringBuilder sb = new StringBuilder("// path from the top level: ");
+                for(int i = 0; i < path.length; i++) {
+                    sb.append(i == 0 ? "" : " -> ").append(describeNode(path[i]));
+                }
+                print(sb.toString(), true);
+            }
+        }
+        print("//// END referrers of " + FormatUtil.hex(handle), true);
+        print("", true);
+    }
+
+    private String describeNode(int node) {
+        int handle = referenceIndex.getHandle(node);
+        Content c = handles.get(handle);
+        if(handles.size() == 0 && !handlemaps.isEmpty()) {
+            // The stream ended with a reset; the index's last generation is the one
+            // before it.
+            c = handlemaps.get(handlemaps.size() - 1).get(handle);
+        }
+        if(c instanceof Instance) {
+            return FormatUtil.hex(handle) + "/" + ((Instance)c).classdesc.name;
+        } else if(c instanceof ArrayObj) {
+            return FormatUtil.hex(handle) + "/" + ((ArrayObj)c).classdesc.name;
+        } else if(c != null) {
+            return c.toString();
+        }
+        return FormatUtil.hex(handle);
     }
 
 
@@ -1000,7 +1701,7 @@ public class Jdeserialize2 {
                     throw new ValidityException("couldn't connect inner classes: outer class not found for field name " + f.name);
                 }
                 if(!outercd.name.equals(f.getJavaType())) {
-                    throw new ValidityException("outer class field type doesn't match field type name: " + f.classname.value + " outer class name " + outercd.name);
+                    throw new ValidityException("outer class field type doesn't match field type name: " + f.classname.getValue() + " outer class name " + outercd.name);
                 }
                 outercd.addInnerClass(cd);
                 cd.setIsLocalInnerClass(islocal);
@@ -1072,6 +1773,196 @@ public class Jdeserialize2 {
     	System.err.println(s);
     }
 
+    /**
+     * Parses one file and dumps it as the options say.  Errors, including runtime
+     * exceptions, are reported on err.
+     *
+     * @param out the writer for the dump, or null for stdout
+     * @param summary the statistics to add the file to, or null
+     * @param classes the class description cache shared by the files, or null
+     * @return true if the file was parsed and dumped without errors
+     */
+    private static boolean processFile(String filename, GetOpt go, int maxdepth, long skipabove, Writer out, PrintWriter err, BatchSummary summary, ClassDescCache classes) {
+        FileChannel fc = null;
+        FileChannel bdout = null;
+        PrintWriter manifest = null;
+        Jdeserialize2 jd = null;
+        try {
+            fc = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            jd = new Jdeserialize2(filename, out);
+            jd.setMaxDepth(maxdepth);
+            jd.setSkipThreshold(skipabove);
+            jd.setConcatenatedStreams(go.hasOption("-concatenated"));
+            jd.setClassDescCache(classes);
+            jd.setParseLog(!go.hasOption("-json") && !go.hasOption("-ndjson"));
+            jd.setIndexReferences(go.hasOption("-referrers"));
+            if(go.hasOption("-keep")) {
+                for(String pattern: go.getArguments("-keep")) {
+                    jd.addFilter(new InstanceFilter(pattern));
+                }
+            }
+            if(go.hasOption("-splitresets")) {
+                jd.setSegmentPool(ForkJoinPool.commonPool());
+            }
+            
+            if(go.hasOption("-blockdata")) {
+                bdout = FileChannel.open(Paths.get(go.getArguments("-blockdata").get(0)),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            if(go.hasOption("-blockdatamanifest")) {
+                manifest = new PrintWriter(new FileOutputStream(go.getArguments("-blockdatamanifest").get(0)));
+                printBlockDataManifestHeader(manifest);
+            }
+            jd.setBlockDataOutput(bdout, manifest);
+            jd.run(fc, !go.hasOption("-noconnect"));
+            jd.dump(go);
+            if(go.hasOption("-columnar")) {
+                // Each file gets a directory of its own, named after it.
+                ColumnarExport export = new ColumnarExport(Paths.get(go.getArguments("-columnar").get(0), ColumnarExport.fileName(filename)));
+                export.addAll(jd);
+                export.write();
+            }
+            if(summary != null) {
+                summary.addParsed(fc.size(), jd);
+            }
+            return true;
+        } catch(EOFException eoe) {
+            err.println("EOF error while attempting to decode file " + filename + ": " + eoe.getMessage());
+            eoe.printStackTrace(err);
+            if(summary != null) {
+                summary.addFailure(eoe);
+            }
+        } catch(IOException ioe) {
+            err.println("error while attempting to decode file " + filename + ": " + ioe.getMessage());
+            ioe.printStackTrace(err);
+            if(summary != null) {
+                summary.addFailure(ioe);
+            }
+        } catch(RuntimeException re) {
+            // Don't let one malformed file stop the others.
+            err.println("error while attempting to decode file " + filename + ": " + re);
+            re.printStackTrace(err);
+            if(summary != null) {
+                summary.addFailure(re);
+            }
+        } finally {
+            // Whatever was written before a failure is kept.
+            if(jd != null) {
+                try {
+                    jd.flushBuffer();
+                } catch (IOException ignore) { }
+            }
+            if(fc != null) {
+                try {
+                    fc.close();
+                } catch (Exception ignore) { }
+            }
+            if(bdout != null) {
+                try {
+                    bdout.close();
+                } catch (Exception ignore) { }
+            }
+            if(manifest != null) {
+                manifest.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The buffered output of a file processed by runParallel().
+     */
+    private static final class FileOutput {
+        final String out;
+        final String err;
+        final boolean ok;
+
+        FileOutput(String out, String err, boolean ok) {
+            this.out = out;
+            this.err = err;
+            this.ok = ok;
+        }
+    }
+
+    /**
+     * <p>
+     * Processes files concurrently, at most threads at a time.  Each file is dumped into
+     * its own buffer, and the buffers are written to stdout and stderr in argument order,
+     * so the output is the same as that of a sequential run.  A file that fails only
+     * produces its error output.
+     * </p>
+     *
+     * <p>
+     * Only a few files beyond the one being written are processed ahead, which bounds the
+     * memory held by buffers.  Debug output (-debug) isn't buffered.
+     * </p>
+     *
+     * @return true if every file was parsed and dumped without errors
+     */
+    static boolean runParallel(List<String> fargs, GetOpt go, int maxdepth, long skipabove, int threads, BatchSummary summary, ClassDescCache classes, Writer stdout, PrintStream stderr) {
+        boolean ok = true;
+        ExecutorService executor = newExecutor(threads);
+        Semaphore running = new Semaphore(threads);
+        ArrayDeque<Future<FileOutput>> pending = new ArrayDeque<Future<FileOutput>>();
+        Iterator<String> files = fargs.iterator();
+        try {
+            while(files.hasNext() || !pending.isEmpty()) {
+                while(files.hasNext() && pending.size() < 2 * threads) {
+                    String filename = files.next();
+                    pending.add(executor.submit(() -> {
+                        running.acquire();
+                        try {
+                            StringWriter out = new StringWriter();
+                            StringWriter err = new StringWriter();
+                            PrintWriter errpw = new PrintWriter(err);
+                            boolean done = processFile(filename, go, maxdepth, skipabove, out, errpw, summary, classes);
+                            errpw.flush();
+                            return new FileOutput(out.toString(), err.toString(), done);
+                        } finally {
+                            running.release();
+                        }
+                    }));
+                }
+                FileOutput fo;
+                try {
+                    fo = pending.remove().get();
+                } catch (ExecutionException ee) {
+                    StringWriter err = new StringWriter();
+                    ee.getCause().printStackTrace(new PrintWriter(err, true));
+                    fo = new FileOutput("", err.toString(), false);
+                }
+                ok &= fo.ok;
+                try {
+                    stdout.write(fo.out);
+                    stdout.flush();
+                } catch (IOException ioe) {
+                    stderr.println("error while writing output: " + ioe.getMessage());
+                }
+                stderr.print(fo.err);
+                stderr.flush();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        } finally {
+            executor.shutdownNow();
+        }
+        return ok;
+    }
+
+    /**
+     * Creates an executor that runs each task on a virtual thread if the runtime has them
+     * (Java 21 and later), or else a pool of the given number of threads.
+     */
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            // Looked up reflectively, since the build targets Java 11.
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
     public static void main(String[] args) {
         GetOpt go = new GetOpt();
         go.addOption("-help", 0, "Show this list.");
@@ -1085,6 +1976,17 @@ public class Jdeserialize2 {
         go.addOption("-noclasses", 0, "Don't output class declarations.");
         go.addOption("-blockdata", 1, "Write raw blockdata out to the specified file.");
         go.addOption("-blockdatamanifest", 1, "Write blockdata manifest out to the specified file.");
+        go.addOption("-maxdepth", 1, "Reject streams that nest objects, arrays and annotations deeper than the given depth.");
+        go.addOption("-skipabove", 1, "Don't read primitive arrays and blockdata larger than the given number of bytes.");
+        go.addOption("-threads", 1, "Process up to the given number of files at once; output stays in argument order.");
+        go.addOption("-concatenated", 0, "Accept files holding several streams one after the other, each with its own header.");
+        go.addOption("-splitresets", 0, "Decode the parts of each stream between resets in parallel.");
+        go.addOption("-json", 0, "Write the content, classes and objects as a JSON document per file instead of the text dump.");
+        go.addOption("-ndjson", 0, "Like -json, but one JSON object per line for each content item, class and object.");
+        go.addOption("-keep", 1, "Keep only the instances of classes matching the given pattern, in which '*' matches anything; may be repeated.");
+        go.addOption("-referrers", 1, "After the instance dump, show what refers to the given handle (such as 0x7e0123), and a path to it from the top level; may be repeated.");
+        go.addOption("-columnar", 1, "Also write the instances of each file as column files, one per class, below the given directory.");
+        go.addOption("-summary", 0, "Print statistics about the files processed at the end; implied by directory and glob arguments.");
         try {
             go.parse(args);            
         } catch (GetOpt.OptionParseException ope) {
@@ -1096,39 +1998,98 @@ public class Jdeserialize2 {
         	staticPrint(go.getDescriptionString());
             System.exit(1);
         }
-        List<String> fargs = go.getOtherArguments();
-        if(fargs.size() < 1) {
+        int maxdepth = Integer.MAX_VALUE;
+        if(go.hasOption("-maxdepth")) {
+            try {
+                maxdepth = Integer.parseInt(go.getArguments("-maxdepth").get(0));
+            } catch (NumberFormatException nfe) {
+                maxdepth = 0;
+            }
+            if(maxdepth < 1) {
+                staticPrintErr("argument error: invalid -maxdepth value: " + go.getArguments("-maxdepth").get(0));
+                staticPrint(go.getDescriptionString());
+                System.exit(1);
+            }
+        }
+        long skipabove = -1;
+        if(go.hasOption("-skipabove")) {
+            try {
+                skipabove = Long.parseLong(go.getArguments("-skipabove").get(0));
+            } catch (NumberFormatException nfe) {
+                skipabove = -1;
+            }
+            if(skipabove < 0) {
+                staticPrintErr("argument error: invalid -skipabove value: " + go.getArguments("-skipabove").get(0));
+                staticPrint(go.getDescriptionString());
+                System.exit(1);
+            }
+        }
+        if(go.hasOption("-referrers")) {
+            for(String h: go.getArguments("-referrers")) {
+                try {
+                    Integer.decode(h);
+                } catch (NumberFormatException nfe) {
+                    staticPrintErr("argument error: invalid -referrers handle: " + h);
+                    staticPrint(go.getDescriptionString());
+                    System.exit(1);
+                }
+            }
+        }
+        int threads = 1;
+        if(go.hasOption("-threads")) {
+            try {
+                threads = Integer.parseInt(go.getArguments("-threads").get(0));
+            } catch (NumberFormatException nfe) {
+                threads = 0;
+            }
+            if(threads < 1) {
+                staticPrintErr("argument error: invalid -threads value: " + go.getArguments("-threads").get(0));
+                staticPrint(go.getDescriptionString());
+                System.exit(1);
+            }
+        }
+        List<String> pargs = go.getOtherArguments();
+        if(pargs.size() < 1) {
         	LogUtil.debugerr("args: [options] file1 [file2 .. fileN]");
         	staticPrintErr("");
         	staticPrintErr(go.getDescriptionString());
             System.exit(1);
         }
-        for(String filename: fargs) {
-            FileInputStream fis = null;
-            try {
-                fis = new FileInputStream(filename);
-                Jdeserialize2 jd = new Jdeserialize2(filename, null);
-                
-                boolean debugEnabled = go.hasOption("-debug");
-                LogUtil.setDebugEnabled(debugEnabled);                    
-                
-                jd.run(fis, !go.hasOption("-noconnect"));
-                jd.dump(go);
-                jd.flushBuffer();
-            } catch(EOFException eoe) {
-            	LogUtil.debugerr("EOF error while attempting to decode file " + filename + ": " + eoe.getMessage());
-                eoe.printStackTrace();
-            } catch(IOException ioe) {
-            	LogUtil.debugerr("error while attempting to decode file " + filename + ": " + ioe.getMessage());
-                ioe.printStackTrace();
-            } finally {
-                if(fis != null) {
-                    try {
-                        fis.close();
-                    } catch (Exception ignore) { }
-                }
+        boolean batch = go.hasOption("-summary");
+        for(String arg: pargs) {
+            batch |= PathUtil.isGlob(arg) || Files.isDirectory(Paths.get(arg));
+        }
+        List<String> fargs = null;
+        try {
+            fargs = PathUtil.expandArguments(pargs);
+        } catch (IOException ioe) {
+            staticPrintErr("error while listing files: " + ioe.getMessage());
+            System.exit(1);
+        }
+        BatchSummary summary = (batch ? new BatchSummary() : null);
+        // Files in a batch usually describe the same classes.
+        ClassDescCache classes = (fargs.size() > 1 ? new ClassDescCache() : null);
+        boolean debugEnabled = go.hasOption("-debug");
+        LogUtil.setDebugEnabled(debugEnabled);
+        // One output buffer for all files; it's flushed at the end of each.
+        ChannelWriter stdout = ChannelWriter.stdout();
+        boolean ok = true;
+        // Every file reopens the same blockdata outputs, and concurrent writers would race
+        // on them, so with those the files are processed one at a time.
+        if(threads > 1 && !go.hasOption("-blockdata") && !go.hasOption("-blockdatamanifest")) {
+            ok = runParallel(fargs, go, maxdepth, skipabove, threads, summary, classes, stdout, System.err);
+        } else {
+            PrintWriter err = new PrintWriter(System.err, true);
+            for(String filename: fargs) {
+                ok &= processFile(filename, go, maxdepth, skipabove, stdout, err, summary, classes);
             }
         }
+        if(summary != null) {
+            summary.print(new PrintWriter(System.out));
+        }
+        if(!ok) {
+            System.exit(1);
+        }
     }
     
 }
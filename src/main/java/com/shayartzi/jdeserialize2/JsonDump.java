@@ -0,0 +1,448 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.shayartzi.jdeserialize2.legacy.ArrayColl;
+import com.shayartzi.jdeserialize2.legacy.ArrayObj;
+import com.shayartzi.jdeserialize2.legacy.BlockData;
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.ClassDescTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.ClassObj;
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.EnumObj;
+import com.shayartzi.jdeserialize2.legacy.ExceptionState;
+import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.GetOpt;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+import com.shayartzi.jdeserialize2.legacy.PrimitiveArrayColl;
+import com.shayartzi.jdeserialize2.legacy.SkippedArrayColl;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+import com.shayartzi.jdeserialize2.legacy.ValidityException;
+import com.shayartzi.jdeserialize2.util.JsonWriter;
+import com.shayartzi.jdeserialize2.util.TypeUtil;
+
+/**
+ * <p>
+ * Writes the content of a parsed stream as JSON, the -json and -ndjson options of the
+ * command-line tool.  Like dump(), it has three sections: the top-level content, the
+ * class descriptions, and the objects (instances and arrays) in the last handle table.
+ * Everything is written through a JsonWriter while the model is walked, so nothing is
+ * built up in memory.
+ * </p>
+ *
+ * <p>
+ * Each item is a JSON object with a "type" member: "instance", "array", "class",
+ * "string", "enum", "classobj", "blockdata" or "exception", and a "handle" if it has one.
+ * Instances, arrays and classes refer to each other with {"ref": handle} objects, which
+ * also keeps cyclic graphs finite; strings, enums, class objects, block data and
+ * exceptions are small and are written in place.  Primitive field and array values are
+ * JSON numbers and booleans (chars are one-character strings), and byte data is
+ * base64-encoded.  A top-level item is written in full even if it's a reference type,
+ * since it may come from before a reset, and so not be in the last handle table.
+ * </p>
+ *
+ * <p>
+ * By default the output is a single document, {"file": ..., "content": [...],
+ * "classes": [...], "objects": [...]}.  In lines mode (NDJSON), each item is a line of
+ * its own, with "file" (if known) and "section" members in front of the item's; the
+ * lines can be split between readers without parsing anything.  A null top-level item
+ * is the line {"section": "content", "type": "null"}.
+ * </p>
+ */
+public class JsonDump {
+
+    private final JsonWriter json;
+    private final boolean lines;
+    private boolean fixNames;
+
+    /**
+     * Constructor.
+     *
+     * @param writer the writer to write to
+     * @param lines true for one item per line (NDJSON), false for a single document
+     */
+    public JsonDump(Writer writer, boolean lines) {
+        this.json = new JsonWriter(writer);
+        this.lines = lines;
+    }
+
+    /**
+     * Determines whether illegal Java identifier characters in class names are replaced,
+     * as the -fixnames option does.  Defaults to false.
+     *
+     * @param fixNames true to fix class names
+     */
+    public void setFixNames(boolean fixNames) {
+        this.fixNames = fixNames;
+    }
+
+    /**
+     * Writes the sections selected by the options: -nocontent, -noclasses and
+     * -noinstances leave out a section, and -showarrays and -filter choose the classes
+     * as they do for dump().  Member classes aren't nested in their enclosing classes;
+     * they're listed with the others, and the enclosing class names them.
+     *
+     * @param filename the name of the file, or null
+     * @param content the top-level content of the stream
+     * @param handles the content of the last handle table
+     * @param go the options
+     * @throws IOException if an I/O error occurs
+     */
+    public void dump(String filename, List<Content> content, Collection<Content> handles, GetOpt go) throws IOException {
+        boolean showarray = go.hasOption("-showarrays");
+        List<String> fpat = go.getArguments("-filter");
+        String filter = (fpat != null && fpat.size() > 0 ? fpat.get(0) : null);
+        if(!lines) {
+            json.beginObject();
+            if(filename != null) {
+                json.name("file").value(filename);
+            }
+        }
+        if(!go.hasOption("-nocontent")) {
+            beginSection("content");
+            for(Content c: content) {
+                if(c == null && !lines) {
+                    json.nullValue();
+                    continue;
+                }
+                beginItem(filename, "content");
+                if(c == null) {
+                    json.name("type").value("null");
+                } else {
+                    writeItemMembers(c);
+                }
+                endItem();
+            }
+            endSection();
+        }
+        if(!go.hasOption("-noclasses")) {
+            beginSection("classes");
+            for(Content c: handles) {
+                if(c instanceof ClassDesc) {
+                    ClassDesc cd = (ClassDesc)c;
+                    if(showarray == false && cd.isArrayClass()) {
+                        continue;
+                    }
+                    if(filter != null && cd.name.matches(filter)) {
+                        continue;
+                    }
+                    beginItem(filename, "classes");
+                    writeItemMembers(cd);
+                    endItem();
+                }
+            }
+            endSection();
+        }
+        if(!go.hasOption("-noinstances")) {
+            beginSection("objects");
+            for(Content c: handles) {
+                if(c instanceof Instance || c instanceof ArrayObj) {
+                    beginItem(filename, "objects");
+                    writeItemMembers(c);
+                    endItem();
+                }
+            }
+            endSection();
+        }
+        if(!lines) {
+            json.endObject();
+            json.newLine();
+        }
+    }
+
+    private void writeItem(Content c) throws IOException {
+        json.beginObject();
+        writeItemMembers(c);
+        json.endObject();
+    }
+
+    private void beginSection(String name) throws IOException {
+        if(!lines) {
+            json.name(name).beginArray();
+        }
+    }
+
+    private void endSection() throws IOException {
+        if(!lines) {
+            json.endArray();
+        }
+    }
+
+    private void beginItem(String filename, String section) throws IOException {
+        json.beginObject();
+        if(lines) {
+            if(filename != null) {
+                json.name("file").value(filename);
+            }
+            json.name("section").value(section);
+        }
+    }
+
+    private void endItem() throws IOException {
+        json.endObject();
+        if(lines) {
+            json.newLine();
+        }
+    }
+
+    private void writeItemMembers(Content c) throws IOException {
+        if(c instanceof Instance) {
+            writeInstance((Instance)c);
+        } else if(c instanceof ArrayObj) {
+            writeArray((ArrayObj)c);
+        } else if(c instanceof ClassDesc) {
+            writeClassDesc((ClassDesc)c);
+        } else if(c instanceof StringObj) {
+            json.name("type").value("string");
+            json.name("handle").value(c.getHandle());
+            json.name("value").value(((StringObj)c).getValue());
+        } else if(c instanceof EnumObj) {
+            EnumObj eo = (EnumObj)c;
+            json.name("type").value("enum");
+            json.name("handle").value(eo.handle);
+            writeClassMembers(eo.classdesc);
+            json.name("value").value(eo.value.getValue());
+        } else if(c instanceof ClassObj) {
+            ClassObj co = (ClassObj)c;
+            json.name("type").value("classobj");
+            json.name("handle").value(co.handle);
+            writeClassMembers(co.classdesc);
+        } else if(c instanceof BlockData) {
+            BlockData bd = (BlockData)c;
+            json.name("type").value("blockdata");
+            json.name("length").value(bd.getLength());
+            if(bd.getOffset() >= 0) {
+                json.name("offset").value(bd.getOffset());
+            }
+            if(bd.buf != null) {
+                json.name("data").base64Value(bd.buf, 0, bd.buf.length);
+            }
+        } else if(c instanceof ExceptionState) {
+            ExceptionState es = (ExceptionState)c;
+            json.name("type").value("exception");
+            json.name("handle").value(es.handle);
+            json.name("exception");
+            writeValue(es.exceptionobj);
+            json.name("streamdata").base64Value(es.streamdata, 0, es.streamdata.length);
+        } else {
+            throw new ValidityException("can't write content of type " + c.getType());
+        }
+    }
+
+    private void writeInstance(Instance inst) throws IOException {
+        json.name("type").value("instance");
+        json.name("handle").value(inst.handle);
+        writeClassMembers(inst.classdesc);
+        json.name("fields").beginArray();
+        if(inst.fielddata != null) {
+            for(Map.Entry<ClassDesc, Map<Field, Object>> ce: inst.fielddata.entrySet()) {
+                json.beginObject();
+                writeClassMembers(ce.getKey());
+                json.name("values").beginObject();
+                for(Map.Entry<Field, Object> fe: ce.getValue().entrySet()) {
+                    json.name(fe.getKey().name);
+                    writeValue(fe.getValue());
+                }
+                json.endObject();
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.name("annotations").beginArray();
+        if(inst.annotations != null) {
+            for(Map.Entry<ClassDesc, List<Content>> ae: inst.annotations.entrySet()) {
+                json.beginObject();
+                writeClassMembers(ae.getKey());
+                json.name("values").beginArray();
+                for(Content c: ae.getValue()) {
+                    writeValue(c);
+                }
+                json.endArray();
+                json.endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    private void writeArray(ArrayObj ao) throws IOException {
+        json.name("type").value("array");
+        json.name("handle").value(ao.handle);
+        writeClassMembers(ao.classdesc);
+        ArrayColl data = ao.data;
+        if(data instanceof SkippedArrayColl) {
+            SkippedArrayColl sac = (SkippedArrayColl)data;
+            json.name("length").value(sac.getLength());
+            json.name("skipped").value(true);
+            json.name("offset").value(sac.getOffset());
+            return;
+        }
+        json.name("length").value(data.size());
+        json.name("values").beginArray();
+        if(data instanceof PrimitiveArrayColl) {
+            writePrimitiveValues((PrimitiveArrayColl)data);
+        } else {
+            for(Object o: data) {
+                writeValue(o);
+            }
+        }
+        json.endArray();
+    }
+
+    /**
+     * Writes the values of a primitive array from the backing array, without boxing.
+     */
+    private void writePrimitiveValues(PrimitiveArrayColl pac) throws IOException {
+        switch(pac.getFieldType()) {
+            case BYTE:
+                for(byte b: pac.getByteArray()) {
+                    json.value(b);
+                }
+                break;
+            case CHAR:
+                for(char ch: pac.getCharArray()) {
+                    json.value(String.valueOf(ch));
+                }
+                break;
+            case DOUBLE:
+                for(double d: pac.getDoubleArray()) {
+                    json.value(d);
+                }
+                break;
+            case FLOAT:
+                for(float f: pac.getFloatArray()) {
+                    json.value(f);
+                }
+                break;
+            case INTEGER:
+                for(int i: pac.getIntArray()) {
+                    json.value(i);
+                }
+                break;
+            case LONG:
+                for(long l: pac.getLongArray()) {
+                    json.value(l);
+                }
+                break;
+            case SHORT:
+                for(short s: pac.getShortArray()) {
+                    json.value(s);
+                }
+                break;
+            case BOOLEAN:
+                for(boolean z: pac.getBooleanArray()) {
+                    json.value(z);
+                }
+                break;
+            default:
+                throw new ValidityException("not a primitive array type: " + pac.getFieldType());
+        }
+    }
+
+    private void writeClassDesc(ClassDesc cd) throws IOException {
+        json.name("type").value("class");
+        json.name("handle").value(cd.handle);
+        json.name("name").value(fixNames ? TypeUtil.fixClassName(cd.name) : cd.name);
+        json.name("classType").value(cd.classtype == ClassDescTypeEnum.PROXYCLASS ? "proxy" : "normal");
+        json.name("serialVersionUID").value(cd.serialVersionUID);
+        json.name("flags").value(cd.descflags & 0xff);
+        json.name("superclass");
+        writeRef(cd.superclass);
+        if(cd.isInnerClass() || cd.isStaticMemberClass()) {
+            json.name("memberClass").value(cd.isInnerClass() ? "inner" : "static");
+        }
+        json.name("fields").beginArray();
+        if(cd.fields != null) {
+            for(Field f: cd.fields) {
+                json.beginObject();
+                json.name("name").value(f.name);
+                json.name("type").value(String.valueOf(f.type.ch()));
+                if(f.classname != null) {
+                    json.name("className").value(f.classname.getValue());
+                }
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.name("interfaces").beginArray();
+        if(cd.interfaces != null) {
+            for(String intf: cd.interfaces) {
+                json.value(intf);
+            }
+        }
+        json.endArray();
+        json.name("enumConstants").beginArray();
+        if(cd.enumconstants != null) {
+            for(String econst: cd.enumconstants) {
+                json.value(econst);
+            }
+        }
+        json.endArray();
+        json.name("memberClasses").beginArray();
+        if(cd.innerclasses != null) {
+            for(ClassDesc icd: cd.innerclasses) {
+                writeRef(icd);
+            }
+        }
+        json.endArray();
+        json.name("annotations").beginArray();
+        if(cd.annotations != null) {
+            for(Content c: cd.annotations) {
+                writeValue(c);
+            }
+        }
+        json.endArray();
+    }
+
+    /**
+     * Writes the "class" and "classHandle" members for an item's class.
+     */
+    private void writeClassMembers(ClassDesc cd) throws IOException {
+        json.name("class").value(cd == null ? null : cd.name);
+        json.name("classHandle");
+        if(cd == null) {
+            json.nullValue();
+        } else {
+            json.value(cd.handle);
+        }
+    }
+
+    private void writeRef(Content c) throws IOException {
+        if(c == null) {
+            json.nullValue();
+            return;
+        }
+        json.beginObject();
+        json.name("ref").value(c.getHandle());
+        json.endObject();
+    }
+
+    /**
+     * Writes a field, array element or annotation value.
+     */
+    private void writeValue(Object o) throws IOException {
+        if(o == null) {
+            json.nullValue();
+        } else if(o instanceof Instance || o instanceof ArrayObj || o instanceof ClassDesc) {
+            writeRef((Content)o);
+        } else if(o instanceof Content) {
+            writeItem((Content)o);
+        } else if(o instanceof Boolean) {
+            json.value(((Boolean)o).booleanValue());
+        } else if(o instanceof Character) {
+            json.value(o.toString());
+        } else if(o instanceof Float) {
+            json.value(((Float)o).floatValue());
+        } else if(o instanceof Double) {
+            json.value(((Double)o).doubleValue());
+        } else if(o instanceof Number) {
+            json.value(((Number)o).longValue());
+        } else {
+            json.value(o.toString());
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.shayartzi.jdeserialize2.event.JavaSerialReader;
+import com.shayartzi.jdeserialize2.event.SerialEventType;
+import com.shayartzi.jdeserialize2.io.InputUnderflowException;
+import com.shayartzi.jdeserialize2.io.PushSerialInput;
+import com.shayartzi.jdeserialize2.legacy.Content;
+
+/**
+ * <p>
+ * Non-blocking front end of Jdeserialize2, for streams whose data arrives in pieces, such
+ * as from a socket on an event loop or a file that is still being written.  Each chunk is
+ * passed to feed(), which decodes as far as the data allows and returns the top-level
+ * items completed by it; an item that is only partly there is resumed by the next call.
+ * No thread ever blocks waiting for data.
+ * </p>
+ *
+ * <p>
+ * The items are built by the Jdeserialize2 given to the constructor, with its options
+ * and listener, and are also found in its getContent() and getHandleMaps() once
+ * finish() has been called.  If content isn't retained (see setRetainContent()), no
+ * items are returned, and the listener is the way to see the stream.  After an
+ * exception other than one thrown by finish() for a truncated stream, the parser can't
+ * be used any more.
+ * </p>
+ *
+ * <pre>
+ *     PushParser pp = new PushParser();
+ *     // on each read from the channel:
+ *     for(Content c: pp.feed(buffer)) {
+ *         ...
+ *     }
+ *     // at the end of the connection:
+ *     pp.finish(false);
+ * </pre>
+ */
+public class PushParser {
+
+    private final Jdeserialize2 jd;
+    private final PushSerialInput in = new PushSerialInput();
+    private final JavaSerialReader reader;
+    private final ArrayList<Jdeserialize2.Node> nodes = new ArrayList<Jdeserialize2.Node>();
+
+    /**
+     * Whether the reader's current event has been read but not yet handled, because the
+     * input ran out while handling it.
+     */
+    private boolean pending;
+    private boolean ended;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param jd the parser that builds the content; its options must be set before this
+     * constructor is called
+     */
+    public PushParser(Jdeserialize2 jd) {
+        this.jd = jd;
+        this.reader = jd.begin(in, false);
+    }
+
+    /**
+     * Constructor for a parser with default options, whose output is discarded.
+     */
+    public PushParser() {
+        this(new Jdeserialize2(null, Writer.nullWriter()));
+    }
+
+    /**
+     * @return the parser that builds the content
+     */
+    public Jdeserialize2 getParser() {
+        return jd;
+    }
+
+    /**
+     * Decodes as much of the stream as the data fed so far allows.
+     *
+     * @param chunk the next data of the stream, from its position to its limit; the
+     * buffer isn't modified, and may be reused as soon as the call returns
+     * @return the top-level items completed, in stream order; possibly empty
+     * @throws IOException if the stream is invalid
+     * @throws IllegalStateException if finish() has been called
+     */
+    public List<Content> feed(ByteBuffer chunk) throws IOException {
+        if(ended || in.isFinished()) {
+            throw new IllegalStateException("parser already finished");
+        }
+        in.feed(chunk);
+        decode();
+        return newContent();
+    }
+
+    /**
+     * Ends the stream: decodes what is left, then validates the content as run() does.
+     *
+     * @param shouldConnect true if member classes should be connected with their
+     * enclosing classes
+     * @return the top-level items completed since the last call to feed()
+     * @throws java.io.EOFException if the stream ends in the middle of an item
+     * @throws IOException if the stream is invalid
+     */
+    public List<Content> finish(boolean shouldConnect) throws IOException {
+        if(!ended) {
+            in.finish();
+            decode();
+            jd.end(shouldConnect);
+        }
+        return newContent();
+    }
+
+    private void decode() throws IOException {
+        try {
+            while(!ended) {
+                if(!pending) {
+                    if(reader.next() == SerialEventType.END_STREAM) {
+                        ended = true;
+                        break;
+                    }
+                    pending = true;
+                }
+                jd.handleEvent(reader, nodes, in);
+                pending = false;
+            }
+        } catch (InputUnderflowException iue) {
+            // The reader has rewound the step that ran out; it's taken again on the
+            // next call.
+        }
+    }
+
+    private List<Content> newContent() {
+        List<Content> content = jd.getContent();
+        List<Content> items = new ArrayList<Content>(content.subList(returned, content.size()));
+        returned = content.size();
+        return items;
+    }
+
+}
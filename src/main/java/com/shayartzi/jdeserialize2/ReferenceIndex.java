@@ -0,0 +1,406 @@
+package com.shayartzi.jdeserialize2;
+
+import java.io.ObjectStreamConstants;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * An index of the references between the objects of a stream, built while it's parsed;
+ * see Jdeserialize2.setIndexReferences().  It answers "what refers to this object?"
+ * without scanning the field data of every instance and the elements of every array,
+ * and it's kept even when the content isn't (see Jdeserialize2.setRetainContent()).
+ * </p>
+ *
+ * <p>
+ * Every piece of content registered under a handle is a node, numbered in the order it
+ * was registered.  Handles are reused after a reset, so a node is identified by its
+ * generation and handle together: the generations are numbered from 0, counting only
+ * those with any handles, as getHandleMaps() does when it keeps them all.  An edge is
+ * recorded for each object field value, array element and annotation item that refers
+ * to a node, from the node that holds it; a node that refers to another twice has two
+ * edges to it.  The references of instances to their class descriptions aren't edges.
+ * Top-level content is a root.
+ * </p>
+ *
+ * <p>
+ * The edges are kept in compressed sparse row form, once by source and once by target:
+ * for each direction, an int[] of offsets per node and an int[] of the nodes at the other
+ * end.  Nothing is boxed, so the index of a graph of millions of objects takes a few
+ * ints per object and per reference.
+ * </p>
+ */
+public class ReferenceIndex {
+
+    private final int[] handles;
+    private final int[] generations;
+    private final boolean[] roots;
+    private final int[] referentOffsets;
+    private final int[] referents;
+    private final int[] referrerOffsets;
+    private final int[] referrers;
+    /**
+     * For each generation, the offset in handleNodes of its handles, which are
+     * handle - baseWireHandle.
+     */
+    private final int[] generationOffsets;
+    private final int[] handleNodes;
+
+    private ReferenceIndex(Builder b) {
+        int nodes = b.nodeCount;
+        handles = Arrays.copyOf(b.handles, nodes);
+        generations = Arrays.copyOf(b.generations, nodes);
+        roots = new boolean[nodes];
+        for(int i = 0; i < b.rootCount; i++) {
+            roots[b.roots[i]] = true;
+        }
+        referentOffsets = new int[nodes + 1];
+        referents = new int[b.edgeCount];
+        referrerOffsets = new int[nodes + 1];
+        referrers = new int[b.edgeCount];
+        sort(b.edgeFrom, b.edgeTo, b.edgeCount, referentOffsets, referents);
+        sort(b.edgeTo, b.edgeFrom, b.edgeCount, referrerOffsets, referrers);
+
+        int generationCount = (nodes == 0 ? 0 : generations[nodes - 1] + 1);
+        int[] sizes = new int[generationCount];
+        for(int i = 0; i < nodes; i++) {
+            sizes[generations[i]] = Math.max(sizes[generations[i]], offset(handles[i]) + 1);
+        }
+        generationOffsets = new int[generationCount + 1];
+        for(int g = 0; g < generationCount; g++) {
+            generationOffsets[g + 1] = generationOffsets[g] + sizes[g];
+        }
+        handleNodes = new int[generationOffsets[generationCount]];
+        Arrays.fill(handleNodes, -1);
+        for(int i = 0; i < nodes; i++) {
+            handleNodes[generationOffsets[generations[i]] + offset(handles[i])] = i;
+        }
+    }
+
+    private static int offset(int handle) {
+        return handle - ObjectStreamConstants.baseWireHandle;
+    }
+
+    /**
+     * Sorts edges by one end with a counting sort, filling in the offsets of each node's
+     * edges and the nodes at their other ends.
+     */
+    private static void sort(int[] keys, int[] values, int count, int[] offsets, int[] sorted) {
+        for(int i = 0; i < count; i++) {
+            offsets[keys[i] + 1]++;
+        }
+        for(int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for(int i = 0; i < count; i++) {
+            sorted[next[keys[i]]++] = values[i];
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return handles.length;
+    }
+
+    /**
+     * @return the number of references
+     */
+    public int getEdgeCount() {
+        return referents.length;
+    }
+
+    /**
+     * @return the number of generations of handles
+     */
+    public int getGenerationCount() {
+        return generationOffsets.length - 1;
+    }
+
+    /**
+     * @param node a node
+     * @return the handle of the node's content
+     */
+    public int getHandle(int node) {
+        return handles[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the generation the node's handle belongs to
+     */
+    public int getGeneration(int node) {
+        return generations[node];
+    }
+
+    /**
+     * @param node a node
+     * @return true if the node's content was written at the top level of the stream
+     */
+    public boolean isRoot(int node) {
+        return roots[node];
+    }
+
+    /**
+     * Finds the node of a handle in the last generation, the one whose content
+     * Jdeserialize2.dump() shows.
+     *
+     * @param handle the handle
+     * @return the node, or -1 if the handle isn't in use
+     */
+    public int findNode(int handle) {
+        return findNode(getGenerationCount() - 1, handle);
+    }
+
+    /**
+     * @param generation the generation
+     * @param handle the handle
+     * @return the node, or -1 if the handle isn't in use in the generation
+     */
+    public int findNode(int generation, int handle) {
+        if(generation < 0 || generation >= getGenerationCount()) {
+            return -1;
+        }
+        int i = offset(handle);
+        if(i < 0 || i >= generationOffsets[generation + 1] - generationOffsets[generation]) {
+            return -1;
+        }
+        return handleNodes[generationOffsets[generation] + i];
+    }
+
+    /**
+     * @param node a node
+     * @return the number of references to the node
+     */
+    public int getReferrerCount(int node) {
+        return referrerOffsets[node + 1] - referrerOffsets[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the nodes that refer to the node, once per reference, in the order the
+     * references were read
+     */
+    public int[] getReferrers(int node) {
+        return Arrays.copyOfRange(referrers, referrerOffsets[node], referrerOffsets[node + 1]);
+    }
+
+    /**
+     * @param node a node
+     * @return the number of references the node holds
+     */
+    public int getReferentCount(int node) {
+        return referentOffsets[node + 1] - referentOffsets[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the nodes the node refers to, once per reference, in the order the
+     * references were read
+     */
+    public int[] getReferents(int node) {
+        return Arrays.copyOfRange(referents, referentOffsets[node], referentOffsets[node + 1]);
+    }
+
+    /**
+     * Finds a shortest chain of references from a root to a node.
+     *
+     * @param node a node
+     * @return the nodes of the path, from the root to the node, or null if no root
+     * refers to the node, directly or indirectly
+     */
+    public int[] getPathToRoot(int node) {
+        List<int[]> paths = getPathsToRoots(node, 1);
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    /**
+     * <p>
+     * Finds how a node is reachable from the roots: for each root that refers to it,
+     * directly or indirectly, a shortest path from the root to the node.  The paths are
+     * ordered by length, shortest first.
+     * </p>
+     *
+     * <p>
+     * The search follows referrers back from the node, breadth first, so it visits each
+     * node at most once and stops when enough roots have been found.
+     * </p>
+     *
+     * @param node a node
+     * @param max the largest number of paths to return
+     * @return the paths, each from a root to the node
+     */
+    public List<int[]> getPathsToRoots(int node, int max) {
+        List<int[]> paths = new ArrayList<int[]>();
+        if(max <= 0) {
+            return paths;
+        }
+        // next[n] is the node after n on the way to the start, or -1 if n is unvisited.
+        int[] next = new int[handles.length];
+        Arrays.fill(next, -1);
+        int[] queue = new int[handles.length];
+        int head = 0;
+        int tail = 0;
+        next[node] = node;
+        queue[tail++] = node;
+        while(head < tail) {
+            int n = queue[head++];
+            if(roots[n]) {
+                paths.add(path(next, n, node));
+                if(paths.size() == max) {
+                    break;
+                }
+            }
+            for(int i = referrerOffsets[n]; i < referrerOffsets[n + 1]; i++) {
+                int r = referrers[i];
+                if(next[r] < 0) {
+                    next[r] = n;
+                    queue[tail++] = r;
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static int[] path(int[] next, int root, int node) {
+        int length = 1;
+        for(int n = root; n != node; n = next[n]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int n = root;
+        for(int i = 0; i < length; i++) {
+            path[i] = n;
+            n = next[n];
+        }
+        return path;
+    }
+
+    /**
+     * <p>
+     * Collects the nodes and edges of an index as a stream is parsed.  Handles are
+     * resolved to nodes in the current generation, with a table indexed by handle -
+     * baseWireHandle as in HandleTable.
+     * </p>
+     */
+    static final class Builder {
+        private int[] handles = new int[64];
+        private int[] generations = new int[64];
+        private int nodeCount;
+        private int[] edgeFrom = new int[64];
+        private int[] edgeTo = new int[64];
+        private int edgeCount;
+        private int[] roots = new int[16];
+        private int rootCount;
+        private int generation;
+        private int generationStart;
+        // The node of each handle of the current generation, plus one; 0 for none.
+        private int[] current = new int[64];
+
+        private static int[] ensure(int[] a, int size) {
+            return size < a.length ? a : Arrays.copyOf(a, Math.max(a.length * 2, size + 1));
+        }
+
+        /**
+         * Adds a node for content registered under a handle.
+         */
+        void addNode(int handle) {
+            int i = offset(handle);
+            if(i < 0) {
+                return;
+            }
+            handles = ensure(handles, nodeCount);
+            generations = ensure(generations, nodeCount);
+            current = ensure(current, i);
+            handles[nodeCount] = handle;
+            generations[nodeCount] = generation;
+            current[i] = ++nodeCount;
+        }
+
+        /**
+         * @return the node of a handle in the current generation, or -1
+         */
+        int nodeOf(int handle) {
+            int i = offset(handle);
+            return (i < 0 || i >= current.length) ? -1 : current[i] - 1;
+        }
+
+        /**
+         * Adds an edge between the nodes of two handles, if both are in use.
+         */
+        void addEdge(int from, int to) {
+            int f = nodeOf(from);
+            int t = nodeOf(to);
+            if(f < 0 || t < 0) {
+                return;
+            }
+            edgeFrom = ensure(edgeFrom, edgeCount);
+            edgeTo = ensure(edgeTo, edgeCount);
+            edgeFrom[edgeCount] = f;
+            edgeTo[edgeCount++] = t;
+        }
+
+        /**
+         * Marks the node of a handle as a root, if the handle is in use.
+         */
+        void addRoot(int handle) {
+            int n = nodeOf(handle);
+            if(n < 0) {
+                return;
+            }
+            roots = ensure(roots, rootCount);
+            roots[rootCount++] = n;
+        }
+
+        /**
+         * Starts a new generation of handles, unless the current one has none.
+         */
+        void newGeneration() {
+            if(nodeCount == generationStart) {
+                return;
+            }
+            generation++;
+            generationStart = nodeCount;
+            Arrays.fill(current, 0);
+        }
+
+        /**
+         * Adds the nodes and edges of the segment that follows those already collected.
+         * The segment's first generation starts a new generation of this builder.
+         */
+        void append(Builder part) {
+            newGeneration();
+            int base = nodeCount;
+            for(int i = 0; i < part.nodeCount; i++) {
+                handles = ensure(handles, nodeCount);
+                generations = ensure(generations, nodeCount);
+                handles[nodeCount] = part.handles[i];
+                generations[nodeCount++] = generation + part.generations[i];
+            }
+            for(int i = 0; i < part.edgeCount; i++) {
+                edgeFrom = ensure(edgeFrom, edgeCount);
+                edgeTo = ensure(edgeTo, edgeCount);
+                edgeFrom[edgeCount] = base + part.edgeFrom[i];
+                edgeTo[edgeCount++] = base + part.edgeTo[i];
+            }
+            for(int i = 0; i < part.rootCount; i++) {
+                roots = ensure(roots, rootCount);
+                roots[rootCount++] = base + part.roots[i];
+            }
+            if(nodeCount > base) {
+                generation = generations[nodeCount - 1];
+                generationStart = nodeCount;
+                generation++;
+            }
+            Arrays.fill(current, 0);
+        }
+
+        ReferenceIndex build() {
+            return new ReferenceIndex(this);
+        }
+    }
+
+}
@@ -0,0 +1,1567 @@
+package com.shayartzi.jdeserialize2.event;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.shayartzi.jdeserialize2.io.ByteBufferSerialInput;
+import com.shayartzi.jdeserialize2.io.InputUnderflowException;
+import com.shayartzi.jdeserialize2.io.PushSerialInput;
+import com.shayartzi.jdeserialize2.io.SerialInput;
+import com.shayartzi.jdeserialize2.io.StreamSerialInput;
+import com.shayartzi.jdeserialize2.legacy.BlockData;
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.ClassDescCache;
+import com.shayartzi.jdeserialize2.legacy.ClassDescTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.ClassObj;
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.ContentTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.EnumObj;
+import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.PrimitiveArrayColl;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+import com.shayartzi.jdeserialize2.legacy.ValidityException;
+import com.shayartzi.jdeserialize2.util.FormatUtil;
+import com.shayartzi.jdeserialize2.util.LogUtil;
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+import com.shayartzi.jdeserialize2.util.StringInterner;
+
+/**
+ * <p>
+ * Pull parser over a serialized stream, in the style of StAX.  Each call to next()
+ * advances the cursor to the next event (see SerialEventType) and the accessors describe
+ * the event the cursor is positioned on.  Event order is the same as for SerialListener.
+ * </p>
+ *
+ * <p>
+ * The reader doesn't build Instance or ArrayColl objects; object and array contents are
+ * only available as events.  The handle table keeps class descriptions, strings, enum
+ * constants and Class objects, which the grammar needs (or which references commonly
+ * resolve to); objects and arrays are represented there by their ContentTypeEnum.  Use
+ * skipChildren() to pass over subtrees that aren't of interest.
+ * </p>
+ *
+ * <p>
+ * The nesting of the stream is tracked on an explicit, heap-allocated stack, so deeply
+ * nested object graphs don't exhaust the thread stack.
+ * </p>
+ *
+ * <p>
+ * Over a PushSerialInput, a call to next() (or readPrimitiveArray()) that runs out of
+ * data throws InputUnderflowException, and the input is rewound to where the step that
+ * ran out started; once more data has been fed, the same call can be made again.
+ * </p>
+ *
+ * <pre>
+ *     JavaSerialReader r = new JavaSerialReader(in);
+ *     while(r.next() != SerialEventType.END_STREAM) {
+ *         if(r.getEventType() == SerialEventType.PRIMITIVE
+ *                 &amp;&amp; "userId".equals(r.getFieldName())) {
+ *             long id = r.getLongValue();
+ *         }
+ *     }
+ * </pre>
+ */
+public class JavaSerialReader implements Closeable {
+
+    // Frame kinds.
+    private static final int TOP = 0;
+    private static final int OBJECT = 1;
+    private static final int ARRAY = 2;
+    private static final int CLASSDESC = 3;
+    private static final int ANNOTATION = 4;
+    private static final int ENUM = 5;
+    private static final int CLASS = 6;
+    private static final int EXCEPTION = 7;
+
+    // Frame states.
+    private static final int S_NEEDDESC = 0;    // the class description hasn't been read
+    private static final int S_WAITDESC = 1;    // a new class description is being read above
+    private static final int S_START = 2;       // the start event hasn't been reported
+    private static final int S_BODY = 3;        // reporting contents
+    private static final int S_END = 4;         // the end event hasn't been reported
+    private static final int S_FIELDS = 5;      // CLASSDESC: reading field descriptors
+    private static final int S_ANNOTATION = 6;  // CLASSDESC: class annotations next
+    private static final int S_SUPER = 7;       // CLASSDESC: superclass description next
+    private static final int S_RESET = 8;       // EXCEPTION: reset next
+
+    /**
+     * Returned by readClassDesc() when a new class description frame was pushed.
+     */
+    private static final ClassDesc PENDING = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
+
+    /**
+     * Largest slice of the input requested at once by readPrimitiveArray().
+     */
+    private static final int BULK_BYTES = 1 << 16;
+
+    private static final class Frame {
+        int kind;
+        int state;
+        int handle;
+        ClassDesc cd;
+        // OBJECT: position in the class hierarchy; CLASSDESC: field descriptors read
+        ClassDesc[] hierarchy;
+        int classidx;
+        int fieldidx;
+        // ARRAY
+        FieldTypeEnum elemtype;
+        int length;
+        int index;
+        long dataoffset;
+        // Where this frame's value sits in the enclosing object or array.
+        Field field;
+        ClassDesc fieldclass;
+        int elemindex;
+        // CLASSDESC: the description is itself a value, not that of an object etc.
+        boolean value;
+        // CLASSDESC: the cached candidate layout that the fields read so far match, if any
+        ClassDescCache.Layout layout;
+    }
+
+    private final SerialInput in;
+    private final PushSerialInput push;
+    private boolean headerRead;
+    private boolean recordItems;
+    private boolean lazyStrings;
+    private boolean cacheStrings = true;
+    private boolean blockDataByOffset;
+    private long skipThreshold = -1;
+    private boolean concatenatedStreams;
+    private ClassDescCache classDescCache;
+    private StringInterner stringInterner;
+    private int maxDepth = Integer.MAX_VALUE;
+
+    private Frame[] stack = new Frame[16];
+    private int depth;
+    private int open;
+    private boolean skipping;
+
+    private Object[] handles = new Object[64];
+    private int handlecount;
+    private final Map<ClassDesc, ClassDesc[]> hierarchies = new IdentityHashMap<ClassDesc, ClassDesc[]>();
+
+    // Current event.
+    private SerialEventType event;
+    private int evdepth;
+    private int evhandle;
+    private ClassDesc evclassdesc;
+    private Field evfield;
+    private ClassDesc evfieldclass;
+    private int evindex;
+    private boolean evvalue;
+    private int evlength;
+    private long evdataoffset;
+    private FieldTypeEnum primtype;
+    private long primbits;
+    private StringObj evstring;
+    private Object evreferenced;
+    private BlockData evblockdata;
+
+    /**
+     * Constructor.
+     *
+     * @param in the source to read the serialized stream from
+     */
+    public JavaSerialReader(SerialInput in) {
+        this.in = in;
+        this.push = (in instanceof PushSerialInput ? (PushSerialInput)in : null);
+        Frame top = new Frame();
+        top.kind = TOP;
+        top.state = S_BODY;
+        stack[depth++] = top;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param is the stream to read from
+     */
+    public JavaSerialReader(InputStream is) {
+        this(new StreamSerialInput(is));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param buf the buffer to read from, starting at its current position
+     */
+    public JavaSerialReader(ByteBuffer buf) {
+        this(new ByteBufferSerialInput(buf));
+    }
+
+    /**
+     * Sets the maximum nesting depth: the number of objects, arrays, class descriptions,
+     * annotations and exceptions that may be open at once.  Streams that nest deeper are
+     * rejected with an IOException.  There is no limit by default.
+     *
+     * @param maxDepth the maximum depth; must be positive
+     */
+    public void setMaxDepth(int maxDepth) {
+        if(maxDepth < 1) {
+            throw new IllegalArgumentException("invalid maximum depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * If set, SerialInput.record() is called on the input before each top-level content
+     * item is read, so that getRecordedData() returns the raw bytes of the current item.
+     * This is off by default.
+     *
+     * @param recordItems true to restart the input's recording at each top-level item
+     */
+    public void setRecordItems(boolean recordItems) {
+        this.recordItems = recordItems;
+    }
+
+    /**
+     * If set, strings are decoded lazily: each StringObj keeps a slice of the input (a
+     * view of the source buffer, for buffer-backed inputs) and decodes it on first use.
+     * Encoding errors are then reported by StringObj.getValue() instead of next(), except
+     * in field type descriptors, which are checked as they're read.  This is off by
+     * default.
+     *
+     * @param lazyStrings true to defer decoding strings
+     */
+    public void setLazyStrings(boolean lazyStrings) {
+        this.lazyStrings = lazyStrings;
+    }
+
+    /**
+     * Determines whether lazily decoded strings keep their value once decoded.  Defaults
+     * to true; without caching, every StringObj.getValue() call decodes again.
+     *
+     * @param cacheStrings false to decode lazy strings on every access
+     */
+    public void setCacheStrings(boolean cacheStrings) {
+        this.cacheStrings = cacheStrings;
+    }
+
+    /**
+     * Sets a cache of class descriptions to share with the readers of other streams; see
+     * ClassDescCache.  Class and field names found in the cache are neither decoded nor
+     * validated again, and are shared with the other streams.  There is no cache by
+     * default.
+     *
+     * @param classDescCache the cache, or null for none
+     */
+    public void setClassDescCache(ClassDescCache classDescCache) {
+        this.classDescCache = classDescCache;
+    }
+
+    /**
+     * Sets a table of strings to share with the readers of other streams; see
+     * StringInterner.  Names, and string values that aren't decoded lazily, are looked
+     * up by their encoded bytes, and only decoded if they aren't in the table.  Class
+     * names are looked up in the class description cache instead, if there is one.
+     * There is no table by default.
+     *
+     * @param stringInterner the table, or null for none
+     */
+    public void setStringInterner(StringInterner stringInterner) {
+        this.stringInterner = stringInterner;
+    }
+
+    /**
+     * If set, the data of block data isn't read: BLOCKDATA events report a BlockData that
+     * only has the offset (SerialInput.position()) and length of the data, and the data is
+     * skipped.  This is meant for inputs the data can be read back from, such as files and
+     * buffers.  This is off by default.
+     *
+     * @param blockDataByOffset true to skip block data and only record its location
+     */
+    public void setBlockDataByOffset(boolean blockDataByOffset) {
+        this.blockDataByOffset = blockDataByOffset;
+    }
+
+    /**
+     * <p>
+     * Sets the size, in bytes, above which the contents of arrays of primitives and of
+     * block data are skipped rather than read.  Negative values, the default, disable
+     * skipping.
+     * </p>
+     *
+     * <p>
+     * A skipped array is still reported with START_ARRAY and END_ARRAY, but without
+     * PRIMITIVE events in between; getArrayDataOffset() tells where its elements are.  A
+     * skipped block is reported as a BlockData that only has the offset and length of its
+     * data, as with setBlockDataByOffset().  If the source is seekable, the data can be
+     * read later from there (see SkippedArrayColl.read() and BlockData.read()).
+     * </p>
+     *
+     * @param skipThreshold the largest size in bytes that is still read, or -1
+     */
+    public void setSkipThreshold(long skipThreshold) {
+        this.skipThreshold = skipThreshold;
+    }
+
+    /**
+     * <p>
+     * Determines whether the input may hold several streams, each with its own header, one
+     * after the other, as when the output of several ObjectOutputStreams is appended to
+     * one file.  This is off by default, and a second header is invalid content.
+     * </p>
+     *
+     * <p>
+     * If set, a header at the top level of the stream is reported as NEW_STREAM, and the
+     * handle table starts over.  The streams are read one after the other, like a
+     * single stream.
+     * </p>
+     *
+     * @param concatenatedStreams true to accept further stream headers
+     */
+    public void setConcatenatedStreams(boolean concatenatedStreams) {
+        this.concatenatedStreams = concatenatedStreams;
+    }
+
+    /**
+     * Tells the reader that its input starts right after a TC_RESET at the top level of a
+     * stream (see ResetScanner) instead of at the stream header.  No header is expected,
+     * and the handle table starts out empty, as after the reset.  Must be called before
+     * the first call to next().
+     *
+     * @throws IllegalStateException if reading has already started
+     */
+    public void startAfterReset() {
+        if(event != null) {
+            throw new IllegalStateException("reading has already started");
+        }
+        headerRead = true;
+        resetHandles();
+    }
+
+    /**
+     * Tells whether there are more events; false once END_STREAM has been reported.
+     *
+     * @return true iff next() may be called
+     */
+    public boolean hasNext() {
+        return event != SerialEventType.END_STREAM;
+    }
+
+    /**
+     * Advances to the next event.
+     *
+     * @return the type of the new current event
+     * @throws IOException if an I/O or validity error occurs
+     * @throws NoSuchElementException if END_STREAM has already been reported
+     */
+    public SerialEventType next() throws IOException {
+        if(event == SerialEventType.END_STREAM) {
+            throw new NoSuchElementException("end of stream already reached");
+        }
+        while(true) {
+            evhandle = -1;
+            evclassdesc = null;
+            evfield = null;
+            evfieldclass = null;
+            evindex = -1;
+            SerialEventType ev;
+            if(push == null) {
+                ev = step();
+            } else {
+                push.markStep();
+                try {
+                    ev = step();
+                } catch (InputUnderflowException iue) {
+                    push.rewindStep();
+                    throw iue;
+                }
+            }
+            if(ev != null) {
+                switch(ev) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                    case START_CLASSDESC:
+                    case START_ANNOTATION:
+                    case START_EXCEPTION:
+                        evdepth = open++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                    case END_CLASSDESC:
+                    case END_ANNOTATION:
+                        evdepth = --open;
+                        break;
+                    case END_EXCEPTION:
+                        // The exception closed everything it interrupted.
+                        evdepth = --open;
+                        open = 0;
+                        break;
+                    default:
+                        evdepth = open;
+                        break;
+                }
+                event = ev;
+                return ev;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * If the current event starts a structure (START_OBJECT, START_ARRAY,
+     * START_CLASSDESC, START_ANNOTATION or START_EXCEPTION), advances to its matching end
+     * event, without reporting what's inside.  Otherwise, does nothing.
+     * </p>
+     *
+     * <p>
+     * The contents still have to be parsed, since they may define handles that are
+     * referenced later, but primitive values and block data are skipped over without
+     * being decoded.  If a serialized exception interrupts the structure, the reader
+     * stops on its END_EXCEPTION instead.
+     * </p>
+     *
+     * @throws IOException if an I/O or validity error occurs
+     */
+    public void skipChildren() throws IOException {
+        if(event != SerialEventType.START_OBJECT && event != SerialEventType.START_ARRAY
+                && event != SerialEventType.START_CLASSDESC && event != SerialEventType.START_ANNOTATION
+                && event != SerialEventType.START_EXCEPTION) {
+            return;
+        }
+        int d = evdepth;
+        boolean wasskipping = skipping;
+        skipping = true;
+        try {
+            do {
+                next();
+            } while(open > d);
+        } finally {
+            skipping = wasskipping;
+        }
+    }
+
+    /**
+     * <p>
+     * Reads all the elements of the array of primitives started by the current
+     * START_ARRAY event in bulk, and advances to its END_ARRAY.  No PRIMITIVE events are
+     * reported for the elements.
+     * </p>
+     *
+     * <p>
+     * The values are returned in a primitive array of the matching Java type; see
+     * PrimitiveArrayColl.arrayClass().
+     * </p>
+     *
+     * @return the elements of the array
+     * @throws IllegalStateException if the current event isn't the START_ARRAY of an
+     * array of primitives
+     * @throws IOException if an I/O or validity error occurs
+     */
+    public Object readPrimitiveArray() throws IOException {
+        checkEvent(SerialEventType.START_ARRAY);
+        Frame f = stack[depth-1];
+        if(!f.elemtype.isPrimitive()) {
+            throw new IllegalStateException("not an array of primitives: " + f.cd.name);
+        }
+        if(f.dataoffset >= 0) {
+            throw new IllegalStateException("the contents of the array are skipped");
+        }
+        Object values;
+        if(push == null) {
+            values = readPrimitiveValues(f.elemtype, f.length);
+        } else {
+            push.markStep();
+            try {
+                values = readPrimitiveValues(f.elemtype, f.length);
+            } catch (InputUnderflowException iue) {
+                push.rewindStep();
+                throw iue;
+            }
+        }
+        f.index = f.length;
+        next();
+        return values;
+    }
+
+    /**
+     * @return the type of the current event, or null before the first call to next()
+     */
+    public SerialEventType getEventType() {
+        return event;
+    }
+
+    /**
+     * Gets the number of structures enclosing the current event; 0 at the top level of
+     * the stream.  The start and end events of a structure report the same depth.
+     *
+     * @return the nesting depth
+     */
+    public int getDepth() {
+        return evdepth;
+    }
+
+    /**
+     * Gets the handle of the current object, array, class description, string, enum or
+     * Class; for REFERENCE, the referenced handle.
+     *
+     * @return the handle, or -1 if the current event has none
+     */
+    public int getHandle() {
+        return evhandle;
+    }
+
+    /**
+     * Gets the class description of the current object, array, enum or Class, the
+     * current class description itself, or the annotated class for annotation events.
+     *
+     * @return the class description, or null if the current event has none
+     */
+    public ClassDesc getClassDesc() {
+        return evclassdesc;
+    }
+
+    /**
+     * Gets the field whose value is the current event.  The class descriptions read as
+     * part of a field value (those of an object, array, enum or Class, and their
+     * superclasses) report the field as well.
+     *
+     * @return the field, or null if the current value isn't a field value
+     */
+    public Field getField() {
+        return evfield;
+    }
+
+    /**
+     * Gets the name of the field whose value is the current event.
+     *
+     * @return the field name, or null if the current value isn't a field value
+     */
+    public String getFieldName() {
+        return evfield == null ? null : evfield.name;
+    }
+
+    /**
+     * Gets the class in the current object's hierarchy that declares the field returned
+     * by getField().
+     *
+     * @return the declaring class description, or null if the current value isn't a
+     * field value
+     */
+    public ClassDesc getDeclaringClassDesc() {
+        return evfieldclass;
+    }
+
+    /**
+     * Gets the index of the array element that is the current event.  As for getField(),
+     * the class descriptions read as part of an element report its index as well.
+     *
+     * @return the element index, or -1 if the current value isn't an array element
+     */
+    public int getIndex() {
+        return evindex;
+    }
+
+    /**
+     * Tells whether the class description of a START_CLASSDESC or END_CLASSDESC event is
+     * a value of its own, as written by ObjectOutputStream.writeObject(ObjectStreamClass),
+     * rather than the description of an object, array, enum, Class or subclass.
+     *
+     * @return true if the class description is a value
+     */
+    public boolean isClassDescValue() {
+        if(event != SerialEventType.START_CLASSDESC && event != SerialEventType.END_CLASSDESC) {
+            throw new IllegalStateException("current event is " + event + ", not a class description");
+        }
+        return evvalue;
+    }
+
+    /**
+     * @return the number of elements of the array started by START_ARRAY
+     */
+    public int getArrayLength() {
+        checkEvent(SerialEventType.START_ARRAY);
+        return evlength;
+    }
+
+    /**
+     * @return the offset (see SerialInput.position()) of the elements of the array started
+     * by START_ARRAY if they are skipped because of the skip threshold, or -1 if they are
+     * reported
+     */
+    public long getArrayDataOffset() {
+        checkEvent(SerialEventType.START_ARRAY);
+        return evdataoffset;
+    }
+
+    /**
+     * @return the type of the current PRIMITIVE value
+     */
+    public FieldTypeEnum getPrimitiveType() {
+        checkEvent(SerialEventType.PRIMITIVE);
+        return primtype;
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a long.  Other primitive types are converted
+     * as by a cast; booleans are 1 or 0.
+     *
+     * @return the value
+     */
+    public long getLongValue() {
+        checkEvent(SerialEventType.PRIMITIVE);
+        switch(primtype) {
+            case FLOAT:
+                return (long)Float.intBitsToFloat((int)primbits);
+            case DOUBLE:
+                return (long)Double.longBitsToDouble(primbits);
+            default:
+                return primbits;
+        }
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as an int, converted as by a cast.
+     *
+     * @return the value
+     */
+    public int getIntValue() {
+        return (int)getLongValue();
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a short, converted as by a cast.
+     *
+     * @return the value
+     */
+    public short getShortValue() {
+        return (short)getLongValue();
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a byte, converted as by a cast.
+     *
+     * @return the value
+     */
+    public byte getByteValue() {
+        return (byte)getLongValue();
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a char, converted as by a cast.
+     *
+     * @return the value
+     */
+    public char getCharValue() {
+        return (char)getLongValue();
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a boolean; numeric values are true iff
+     * nonzero.
+     *
+     * @return the value
+     */
+    public boolean getBooleanValue() {
+        return getDoubleValue() != 0;
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a double, converted as by a cast.
+     *
+     * @return the value
+     */
+    public double getDoubleValue() {
+        checkEvent(SerialEventType.PRIMITIVE);
+        switch(primtype) {
+            case FLOAT:
+                return Float.intBitsToFloat((int)primbits);
+            case DOUBLE:
+                return Double.longBitsToDouble(primbits);
+            default:
+                return primbits;
+        }
+    }
+
+    /**
+     * Gets the current PRIMITIVE value as a float, converted as by a cast.
+     *
+     * @return the value
+     */
+    public float getFloatValue() {
+        return (float)getDoubleValue();
+    }
+
+    /**
+     * Gets the current PRIMITIVE value, boxed in its wrapper type.
+     *
+     * @return the boxed value
+     */
+    public Object getPrimitiveValue() {
+        checkEvent(SerialEventType.PRIMITIVE);
+        switch(primtype) {
+            case BYTE:
+                return Byte.valueOf((byte)primbits);
+            case CHAR:
+                return Character.valueOf((char)primbits);
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(primbits));
+            case FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int)primbits));
+            case INTEGER:
+                return Integer.valueOf((int)primbits);
+            case LONG:
+                return Long.valueOf(primbits);
+            case SHORT:
+                return Short.valueOf((short)primbits);
+            case BOOLEAN:
+                return Boolean.valueOf(primbits != 0);
+            default:
+                throw new IllegalStateException("not a primitive type: " + primtype);
+        }
+    }
+
+    /**
+     * Gets the string of a STRING event, or the constant name of an ENUM event.
+     *
+     * @return the string object
+     */
+    public StringObj getString() {
+        if(event != SerialEventType.STRING && event != SerialEventType.ENUM) {
+            throw new IllegalStateException("current event has no string: " + event);
+        }
+        return evstring;
+    }
+
+    /**
+     * Gets the value of a STRING event, or the constant name of an ENUM event.
+     *
+     * @return the string value
+     */
+    public String getStringValue() {
+        return getString().getValue();
+    }
+
+    /**
+     * Gets the handle table entry a REFERENCE points to.  This is a ClassDesc, StringObj,
+     * EnumObj or ClassObj, or the ContentTypeEnum for objects and arrays.
+     *
+     * @return the referenced entry
+     */
+    public Object getReferencedObject() {
+        checkEvent(SerialEventType.REFERENCE);
+        return evreferenced;
+    }
+
+    /**
+     * Gets the type of the object a REFERENCE points to.
+     *
+     * @return the referenced object's type
+     */
+    public ContentTypeEnum getReferencedType() {
+        checkEvent(SerialEventType.REFERENCE);
+        if(evreferenced instanceof ContentTypeEnum) {
+            return (ContentTypeEnum)evreferenced;
+        }
+        return ((Content)evreferenced).getType();
+    }
+
+    /**
+     * @return the data of the current BLOCKDATA event
+     */
+    public BlockData getBlockData() {
+        checkEvent(SerialEventType.BLOCKDATA);
+        return evblockdata;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void checkEvent(SerialEventType type) {
+        if(event != type) {
+            throw new IllegalStateException("current event is " + event + ", not " + type);
+        }
+    }
+
+    /*
+     * Each step reads everything it needs from the input before it changes any state,
+     * so a step either completes or fails without side effects.  A step returns the
+     * event it produced, or null if it only moved the state machine along.
+     */
+    private SerialEventType step() throws IOException {
+        Frame f = stack[depth-1];
+        switch(f.kind) {
+            case TOP:
+                return stepTop(f);
+            case OBJECT:
+                return stepObject(f);
+            case ARRAY:
+                return stepArray(f);
+            case CLASSDESC:
+                return stepClassDesc(f);
+            case ANNOTATION:
+                return stepAnnotation(f);
+            case ENUM:
+                return stepEnum(f);
+            case CLASS:
+                return stepClass(f);
+            case EXCEPTION:
+                return stepException(f);
+            default:
+                throw new IllegalStateException("invalid frame kind " + f.kind);
+        }
+    }
+
+    private SerialEventType stepTop(Frame f) throws IOException {
+        if(!headerRead) {
+            readHeader(in.readShort());
+            headerRead = true;
+            resetHandles();
+            // The header is a step of its own, so that it isn't read again if the
+            // input runs out before the first type code.
+            return null;
+        }
+        if(recordItems) {
+            in.record();
+        }
+        byte tc;
+        try {
+            tc = in.readByte();
+        } catch (EOFException eoe) {
+            return SerialEventType.END_STREAM;
+        }
+        if(tc == ObjectStreamConstants.TC_RESET) {
+            resetHandles();
+            return SerialEventType.RESET;
+        }
+        if(concatenatedStreams && tc == (byte)(ObjectStreamConstants.STREAM_MAGIC >> 8)) {
+            // No type code starts with the first byte of the magic number.
+            readHeader((short)((tc << 8) | in.readUnsignedByte()));
+            resetHandles();
+            return SerialEventType.NEW_STREAM;
+        }
+        return startValue(tc, true, null, null, -1);
+    }
+
+    /**
+     * Checks the magic number of a stream header, and reads and checks the version that
+     * follows it.
+     */
+    private void readHeader(short magic) throws IOException {
+        if(magic != ObjectStreamConstants.STREAM_MAGIC) {
+            throw new ValidityException("file magic mismatch!  expected " + ObjectStreamConstants.STREAM_MAGIC + ", got " + magic);
+        }
+        short streamversion = in.readShort();
+        if(streamversion != ObjectStreamConstants.STREAM_VERSION) {
+            throw new ValidityException("file version mismatch!  expected " + ObjectStreamConstants.STREAM_VERSION + ", got " + streamversion);
+        }
+    }
+
+    private SerialEventType stepAnnotation(Frame f) throws IOException {
+        byte tc = in.readByte();
+        if(tc == ObjectStreamConstants.TC_ENDBLOCKDATA) {
+            pop();
+            evclassdesc = f.cd;
+            return SerialEventType.END_ANNOTATION;
+        }
+        if(tc == ObjectStreamConstants.TC_RESET) {
+            resetHandles();
+            return SerialEventType.RESET;
+        }
+        return startValue(tc, true, null, null, -1);
+    }
+
+    private SerialEventType stepObject(Frame f) throws IOException {
+        switch(f.state) {
+            case S_NEEDDESC:
+                return needClassDesc(f, "object");
+            case S_START:
+                f.handle = newHandle();
+                setHandle(f.handle, ContentTypeEnum.INSTANCE);
+                f.hierarchy = getHierarchy(f.cd);
+                f.classidx = 0;
+                f.fieldidx = 0;
+                f.state = S_BODY;
+                return frameEvent(SerialEventType.START_OBJECT, f);
+            case S_BODY:
+                while(f.classidx < f.hierarchy.length) {
+                    ClassDesc cd = f.hierarchy[f.classidx];
+                    if((cd.descflags & ObjectStreamConstants.SC_SERIALIZABLE) != 0) {
+                        if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0) {
+                            throw new IOException("SC_EXTERNALIZABLE & SC_SERIALIZABLE encountered");
+                        }
+                        if(f.fieldidx < cd.fields.length) {
+                            Field fld = cd.fields[f.fieldidx];
+                            if(fld.type.isPrimitive()) {
+                                if(skipping) {
+                                    in.skipFully(fld.type.getSize());
+                                    f.fieldidx++;
+                                    return null;
+                                }
+                                readPrimitive(fld.type);
+                                f.fieldidx++;
+                                evfield = fld;
+                                evfieldclass = cd;
+                                return SerialEventType.PRIMITIVE;
+                            }
+                            byte tc = in.readByte();
+                            if(fld.type == FieldTypeEnum.ARRAY && tc != ObjectStreamConstants.TC_ARRAY
+                                    && tc != ObjectStreamConstants.TC_NULL && tc != ObjectStreamConstants.TC_REFERENCE
+                                    && tc != ObjectStreamConstants.TC_EXCEPTION) {
+                                throw new IOException("array type listed, but typecode is not TC_ARRAY: " + FormatUtil.hex(tc));
+                            }
+                            SerialEventType ev = startValue(tc, false, fld, cd, -1);
+                            f.fieldidx++;
+                            return ev;
+                        }
+                        if(f.fieldidx == cd.fields.length && (cd.descflags & ObjectStreamConstants.SC_WRITE_METHOD) != 0) {
+                            if((cd.descflags & ObjectStreamConstants.SC_ENUM) != 0) {
+                                throw new IOException("SC_ENUM & SC_WRITE_METHOD encountered!");
+                            }
+                            f.fieldidx++;
+                            return startAnnotation(cd);
+                        }
+                    } else if((cd.descflags & ObjectStreamConstants.SC_EXTERNALIZABLE) != 0 && f.fieldidx == 0) {
+                        if((cd.descflags & ObjectStreamConstants.SC_BLOCK_DATA) == 0) {
+                            throw new EOFException("hit externalizable without SC_BLOCK_DATA; can't interpret data");
+                        }
+                        f.fieldidx++;
+                        return startAnnotation(cd);
+                    }
+                    f.classidx++;
+                    f.fieldidx = 0;
+                }
+                f.state = S_END;
+                return null;
+            default:
+                pop();
+                return frameEvent(SerialEventType.END_OBJECT, f);
+        }
+    }
+
+    private SerialEventType stepArray(Frame f) throws IOException {
+        switch(f.state) {
+            case S_NEEDDESC:
+                return needClassDesc(f, "array");
+            case S_START: {
+                if(f.cd.name.length() < 2) {
+                    throw new IOException("invalid name in array classdesc: " + f.cd.name);
+                }
+                FieldTypeEnum ft = FieldTypeEnum.get((byte)f.cd.name.charAt(1));
+                int size = in.readInt();
+                if(size < 0) {
+                    throw new IOException("invalid array size: " + size);
+                }
+                f.handle = newHandle();
+                setHandle(f.handle, ContentTypeEnum.ARRAY);
+                f.elemtype = ft;
+                f.length = size;
+                f.index = 0;
+                f.dataoffset = -1;
+                if(ft.isPrimitive() && skipThreshold >= 0 && (long)size * ft.getSize() > skipThreshold) {
+                    f.dataoffset = in.position();
+                }
+                f.state = S_BODY;
+                evlength = size;
+                evdataoffset = f.dataoffset;
+                return frameEvent(SerialEventType.START_ARRAY, f);
+            }
+            case S_BODY:
+                if(f.index < f.length) {
+                    if(f.elemtype.isPrimitive()) {
+                        if(skipping || f.dataoffset >= 0) {
+                            in.skipFully((long)(f.length - f.index) * f.elemtype.getSize());
+                            f.index = f.length;
+                            return null;
+                        }
+                        readPrimitive(f.elemtype);
+                        evindex = f.index++;
+                        return SerialEventType.PRIMITIVE;
+                    }
+                    byte tc = in.readByte();
+                    SerialEventType ev = startValue(tc, false, null, null, f.index);
+                    f.index++;
+                    return ev;
+                }
+                f.state = S_END;
+                return null;
+            default:
+                pop();
+                return frameEvent(SerialEventType.END_ARRAY, f);
+        }
+    }
+
+    private SerialEventType stepClassDesc(Frame f) throws IOException {
+        ClassDesc cd = f.cd;
+        switch(f.state) {
+            case S_FIELDS:
+                if(f.fieldidx < cd.fields.length) {
+                    if(classDescCache != null) {
+                        cd.fields[f.fieldidx] = readFieldDesc(f);
+                    } else {
+                        cd.fields[f.fieldidx] = readFieldDesc();
+                    }
+                    f.fieldidx++;
+                } else {
+                    if(classDescCache != null) {
+                        classDescCache.add(cd, f.layout);
+                    }
+                    f.state = S_START;
+                }
+                return null;
+            case S_START:
+                f.state = S_ANNOTATION;
+                return frameEvent(SerialEventType.START_CLASSDESC, f);
+            case S_ANNOTATION:
+                f.state = S_SUPER;
+                return startAnnotation(cd);
+            case S_SUPER: {
+                ClassDesc sup = readClassDesc();
+                if(sup == PENDING) {
+                    inheritContext(f);
+                    f.state = S_WAITDESC;
+                } else {
+                    cd.superclass = sup;
+                    f.state = S_END;
+                }
+                return null;
+            }
+            default:
+                setHandle(f.handle, cd);
+                pop();
+                Frame parent = stack[depth-1];
+                if(parent.state == S_WAITDESC) {
+                    if(parent.kind == CLASSDESC) {
+                        parent.cd.superclass = cd;
+                        parent.state = S_END;
+                    } else {
+                        parent.cd = cd;
+                        parent.state = S_START;
+                    }
+                }
+                return frameEvent(SerialEventType.END_CLASSDESC, f);
+        }
+    }
+
+    private SerialEventType stepEnum(Frame f) throws IOException {
+        if(f.state == S_NEEDDESC) {
+            return needClassDesc(f, "enum");
+        }
+        byte tc = in.readByte();
+        int handle = newHandle();
+        StringObj so;
+        try {
+            so = readString(tc);
+        } catch (IOException ioe) {
+            // Give the handle back, so that the step has no side effects when it fails.
+            handlecount--;
+            throw ioe;
+        }
+        f.cd.addEnum(so.getValue());
+        setHandle(handle, new EnumObj(handle, f.cd, so));
+        pop();
+        evstring = so;
+        f.handle = handle;
+        return frameEvent(SerialEventType.ENUM, f);
+    }
+
+    private SerialEventType stepClass(Frame f) throws IOException {
+        if(f.state == S_NEEDDESC) {
+            return needClassDesc(f, "class");
+        }
+        f.handle = newHandle();
+        setHandle(f.handle, new ClassObj(f.handle, f.cd));
+        pop();
+        return frameEvent(SerialEventType.CLASS, f);
+    }
+
+    private SerialEventType stepException(Frame f) throws IOException {
+        switch(f.state) {
+            case S_START:
+                f.state = S_RESET;
+                setContext(f.field, f.fieldclass, f.elemindex);
+                return SerialEventType.START_EXCEPTION;
+            case S_RESET:
+                resetHandles();
+                f.state = S_BODY;
+                return SerialEventType.RESET;
+            case S_BODY: {
+                byte tc = in.readByte();
+                if(tc == ObjectStreamConstants.TC_RESET) {
+                    throw new ValidityException("TC_RESET for object while reading exception: what should we do?");
+                }
+                if(tc == ObjectStreamConstants.TC_NULL) {
+                    throw new ValidityException("stream signaled for an exception, but exception object was null!");
+                }
+                if(tc != ObjectStreamConstants.TC_OBJECT && tc != ObjectStreamConstants.TC_REFERENCE
+                        && tc != ObjectStreamConstants.TC_EXCEPTION) {
+                    throw new ValidityException("stream signaled for an exception, but content is not an object!");
+                }
+                SerialEventType ev = startValue(tc, false, null, null, -1);
+                f.state = S_END;
+                return ev;
+            }
+            case S_END:
+                resetHandles();
+                f.state = S_FIELDS;
+                return SerialEventType.RESET;
+            default:
+                // The exception terminates whatever it interrupted.
+                while(depth > 1) {
+                    pop();
+                }
+                return SerialEventType.END_EXCEPTION;
+        }
+    }
+
+    /**
+     * Reads the class description of an object, array, enum or Class frame.
+     */
+    private SerialEventType needClassDesc(Frame f, String what) throws IOException {
+        ClassDesc cd = readClassDesc();
+        if(cd == PENDING) {
+            inheritContext(f);
+            f.state = S_WAITDESC;
+            return null;
+        }
+        if(cd == null) {
+            throw new ValidityException(what + " classdesc can't be null!");
+        }
+        f.cd = cd;
+        f.state = S_START;
+        return null;
+    }
+
+    /**
+     * Reads a value in a position where the spec's "object" or "content" rules apply.
+     * Simple values are read completely and reported; for structured values, a frame is
+     * pushed whose steps report the contents.
+     */
+    private SerialEventType startValue(byte tc, boolean blockdata, Field field, ClassDesc fieldclass, int index) throws IOException {
+        switch(tc) {
+            case ObjectStreamConstants.TC_OBJECT:
+                pushValue(OBJECT, S_NEEDDESC, field, fieldclass, index);
+                return null;
+            case ObjectStreamConstants.TC_CLASS:
+                pushValue(CLASS, S_NEEDDESC, field, fieldclass, index);
+                return null;
+            case ObjectStreamConstants.TC_ARRAY:
+                pushValue(ARRAY, S_NEEDDESC, field, fieldclass, index);
+                return null;
+            case ObjectStreamConstants.TC_ENUM:
+                pushValue(ENUM, S_NEEDDESC, field, fieldclass, index);
+                return null;
+            case ObjectStreamConstants.TC_EXCEPTION:
+                pushValue(EXCEPTION, S_START, field, fieldclass, index);
+                return null;
+            case ObjectStreamConstants.TC_CLASSDESC:
+            case ObjectStreamConstants.TC_PROXYCLASSDESC: {
+                Frame f = readNewClassDesc(tc);
+                f.field = field;
+                f.fieldclass = fieldclass;
+                f.elemindex = index;
+                f.value = true;
+                return null;
+            }
+            case ObjectStreamConstants.TC_STRING:
+            case ObjectStreamConstants.TC_LONGSTRING:
+                evstring = readString(tc);
+                evhandle = evstring.handle;
+                setContext(field, fieldclass, index);
+                return SerialEventType.STRING;
+            case ObjectStreamConstants.TC_REFERENCE: {
+                int handle = in.readInt();
+                evreferenced = getHandleValue(handle);
+                evhandle = handle;
+                setContext(field, fieldclass, index);
+                return SerialEventType.REFERENCE;
+            }
+            case ObjectStreamConstants.TC_NULL:
+                setContext(field, fieldclass, index);
+                return SerialEventType.NULL;
+            case ObjectStreamConstants.TC_BLOCKDATA:
+            case ObjectStreamConstants.TC_BLOCKDATALONG: {
+                if(blockdata == false) {
+                    throw new IOException("got a blockdata TC_*, but not allowed here: " + FormatUtil.hex(tc));
+                }
+                int size;
+                if(tc == ObjectStreamConstants.TC_BLOCKDATA) {
+                    size = in.readUnsignedByte();
+                } else {
+                    size = in.readInt();
+                }
+                if(size < 0) {
+                    throw new IOException("invalid value for blockdata size: " + size);
+                }
+                if(skipping) {
+                    in.skipFully(size);
+                    return null;
+                }
+                if(blockDataByOffset || (skipThreshold >= 0 && size > skipThreshold)) {
+                    long offset = in.position();
+                    in.skipFully(size);
+                    evblockdata = new BlockData(offset, size);
+                    return SerialEventType.BLOCKDATA;
+                }
+                byte[] b = new byte[size];
+                in.readFully(b);
+                evblockdata = new BlockData(b);
+                return SerialEventType.BLOCKDATA;
+            }
+            default:
+                throw new IOException("unknown content tc byte in stream: " + FormatUtil.hex(tc));
+        }
+    }
+
+    /**
+     * Reads the spec's "classDesc" rule: a new class description, a reference to one, or
+     * null.
+     *
+     * @return the class description, null, or PENDING if a new class description frame
+     * was pushed
+     */
+    private ClassDesc readClassDesc() throws IOException {
+        byte tc = in.readByte();
+        switch(tc) {
+            case ObjectStreamConstants.TC_NULL:
+                return null;
+            case ObjectStreamConstants.TC_REFERENCE: {
+                Object o = getHandleValue(in.readInt());
+                if(!(o instanceof ClassDesc)) {
+                    throw new IOException("referenced object not a class description!");
+                }
+                return (ClassDesc)o;
+            }
+            case ObjectStreamConstants.TC_CLASSDESC:
+            case ObjectStreamConstants.TC_PROXYCLASSDESC:
+                readNewClassDesc(tc);
+                return PENDING;
+            default:
+                throw new ValidityException("expected a valid class description starter got " + FormatUtil.hex(tc));
+        }
+    }
+
+    /**
+     * Reads the header of a new class description and pushes its frame.  The field
+     * descriptors of a normal class are read by the frame's steps.
+     */
+    private Frame readNewClassDesc(byte tc) throws IOException {
+        ClassDesc cd;
+        int state;
+        ClassDescCache.Layout layout = null;
+        if(tc == ObjectStreamConstants.TC_CLASSDESC) {
+            String name;
+            if(classDescCache != null) {
+                name = classDescCache.getName(in.readSlice(in.readUnsignedShort()));
+            } else {
+                name = readName();
+            }
+            long serialVersionUID = in.readLong();
+            byte descflags = in.readByte();
+            short nfields = in.readShort();
+            if(nfields < 0) {
+                throw new IOException("invalid field count: " + nfields);
+            }
+            if(classDescCache != null) {
+                layout = classDescCache.find(name, serialVersionUID, descflags, nfields);
+            }
+            cd = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
+            cd.name = name;
+            cd.serialVersionUID = serialVersionUID;
+            cd.descflags = descflags;
+            cd.fields = new Field[nfields];
+            state = S_FIELDS;
+        } else {
+            int icount = in.readInt();
+            if(icount < 0) {
+                throw new IOException("invalid proxy interface count: " + FormatUtil.hex(icount));
+            }
+            String interfaces[] = new String[icount];
+            for(int i = 0; i < icount; i++) {
+                interfaces[i] = readName();
+            }
+            cd = new ClassDesc(ClassDescTypeEnum.PROXYCLASS);
+            cd.name = "(proxy class; no name)";
+            cd.interfaces = interfaces;
+            state = S_START;
+        }
+        cd.handle = newHandle();
+        Frame f = push(CLASSDESC, state);
+        f.cd = cd;
+        f.handle = cd.handle;
+        f.fieldidx = 0;
+        f.layout = layout;
+        return f;
+    }
+
+    /**
+     * Reads a class, interface or field name, through the string interner if there is
+     * one.
+     */
+    private String readName() throws IOException {
+        if(stringInterner == null) {
+            return in.readUTF();
+        }
+        return stringInterner.intern(in.readSlice(in.readUnsignedShort()));
+    }
+
+    private Field readFieldDesc() throws IOException {
+        byte ftype = in.readByte();
+        if(ftype == 'B' || ftype == 'C' || ftype == 'D'
+                || ftype == 'F' || ftype == 'I' || ftype == 'J'
+                || ftype == 'S' || ftype == 'Z') {
+            String fieldname = readName();
+            return new Field(FieldTypeEnum.get(ftype), fieldname);
+        } else if(ftype == '[' || ftype == 'L') {
+            String fieldname = readName();
+            byte stc = in.readByte();
+            StringObj classname = readString(stc);
+            return new Field(FieldTypeEnum.get(ftype), fieldname, classname);
+        } else {
+            throw new IOException("invalid field type char: " + FormatUtil.hex(ftype));
+        }
+    }
+
+    /**
+     * Reads the next field descriptor of a class description, comparing it with the
+     * cached candidate layouts that the previous fields matched.
+     */
+    private Field readFieldDesc(Frame f) throws IOException {
+        ClassDescCache.Layout layout = f.layout;
+        byte ftype = in.readByte();
+        boolean primitive = (ftype == 'B' || ftype == 'C' || ftype == 'D'
+                || ftype == 'F' || ftype == 'I' || ftype == 'J'
+                || ftype == 'S' || ftype == 'Z');
+        if(!primitive && ftype != '[' && ftype != 'L') {
+            throw new IOException("invalid field type char: " + FormatUtil.hex(ftype));
+        }
+        ByteBuffer rawname = in.readSlice(in.readUnsignedShort());
+        StringObj classname = (primitive ? null : readString(in.readByte()));
+        Field fld = null;
+        for(; layout != null; layout = layout.next(f.cd.fields, f.fieldidx)) {
+            fld = layout.newField(f.fieldidx, ftype, rawname, classname);
+            if(fld != null) {
+                break;
+            }
+        }
+        if(fld == null) {
+            String fieldname = (stringInterner != null ? stringInterner.intern(rawname) : ModifiedUtf8Util.decode(rawname));
+            fld = new Field(FieldTypeEnum.get(ftype), fieldname, classname);
+        }
+        f.layout = layout;
+        return fld;
+    }
+
+    /**
+     * Reads a new string, or a reference to one.
+     */
+    private StringObj readString(byte tc) throws IOException {
+        if(tc == ObjectStreamConstants.TC_REFERENCE) {
+            Object o = getHandleValue(in.readInt());
+            if(!(o instanceof StringObj)) {
+                throw new IOException("got reference for a string, but referenced value was something else!");
+            }
+            return (StringObj)o;
+        }
+        int size;
+        if(tc == ObjectStreamConstants.TC_STRING) {
+            size = in.readUnsignedShort();
+        } else if(tc == ObjectStreamConstants.TC_LONGSTRING) {
+            long len = in.readLong();
+            if(len < 0) {
+                throw new IOException("invalid long string length: " + len);
+            }
+            if(len > 2147483647) {
+                throw new IOException("long string is too long: " + len);
+            }
+            if(len < 65536) {
+                LogUtil.debugerr("warning: small string length encoded as TC_LONGSTRING: " + len);
+            }
+            size = (int)len;
+        } else if(tc == ObjectStreamConstants.TC_NULL) {
+            throw new ValidityException("stream signaled TC_NULL when string type expected!");
+        } else {
+            throw new IOException("invalid tc byte in string: " + FormatUtil.hex(tc));
+        }
+        StringObj sobj;
+        if(lazyStrings) {
+            ByteBuffer data = in.readSlice(size);
+            sobj = new StringObj(newHandle(), data, cacheStrings);
+        } else if(stringInterner != null) {
+            String value = stringInterner.intern(in.readSlice(size));
+            sobj = new StringObj(newHandle(), value);
+        } else {
+            byte[] data = new byte[size];
+            in.readFully(data);
+            sobj = new StringObj(newHandle(), data);
+        }
+        setHandle(sobj.handle, sobj);
+        return sobj;
+    }
+
+    private void readPrimitive(FieldTypeEnum type) throws IOException {
+        switch(type) {
+            case BYTE:
+                primbits = in.readByte();
+                break;
+            case CHAR:
+                primbits = in.readChar();
+                break;
+            case DOUBLE:
+                primbits = in.readLong();
+                break;
+            case FLOAT:
+                primbits = in.readInt();
+                break;
+            case INTEGER:
+                primbits = in.readInt();
+                break;
+            case LONG:
+                primbits = in.readLong();
+                break;
+            case SHORT:
+                primbits = in.readShort();
+                break;
+            case BOOLEAN:
+                primbits = in.readBoolean() ? 1 : 0;
+                break;
+            default:
+                throw new IOException("can't process type: " + type.toString());
+        }
+        primtype = type;
+    }
+
+    /**
+     * Reads n big-endian values of the given type into a primitive array.  The input is
+     * consumed in slices of at most BULK_BYTES bytes, and the array grows as they arrive,
+     * so a corrupt length fails at the end of the input rather than on allocation.
+     */
+    private Object readPrimitiveValues(FieldTypeEnum ft, int n) throws IOException {
+        int size = ft.getSize();
+        int chunk = BULK_BYTES / size;
+        Object values = Array.newInstance(PrimitiveArrayColl.arrayClass(ft).getComponentType(), Math.min(n, chunk));
+        for(int i = 0; i < n; ) {
+            int c = Math.min(chunk, n - i);
+            if(i + c > Array.getLength(values)) {
+                Object grown = Array.newInstance(values.getClass().getComponentType(), (int)Math.min(n, 2L * (i + c)));
+                System.arraycopy(values, 0, grown, 0, i);
+                values = grown;
+            }
+            PrimitiveArrayColl.getValues(ft, in.readSlice(c * size), values, i, c);
+            i += c;
+        }
+        return values;
+    }
+
+    private SerialEventType startAnnotation(ClassDesc cd) throws IOException {
+        Frame f = push(ANNOTATION, S_BODY);
+        f.cd = cd;
+        evclassdesc = cd;
+        return SerialEventType.START_ANNOTATION;
+    }
+
+    private SerialEventType frameEvent(SerialEventType type, Frame f) {
+        evhandle = f.handle;
+        evclassdesc = f.cd;
+        evvalue = f.value;
+        setContext(f.field, f.fieldclass, f.elemindex);
+        return type;
+    }
+
+    /**
+     * Passes the context of a frame on to the class description frame just pushed above
+     * it.
+     */
+    private void inheritContext(Frame f) {
+        Frame c = stack[depth-1];
+        c.field = f.field;
+        c.fieldclass = f.fieldclass;
+        c.elemindex = f.elemindex;
+    }
+
+    private void setContext(Field field, ClassDesc fieldclass, int index) {
+        evfield = field;
+        evfieldclass = fieldclass;
+        evindex = index;
+    }
+
+    private ClassDesc[] getHierarchy(ClassDesc cd) {
+        ClassDesc[] h = hierarchies.get(cd);
+        if(h == null) {
+            ArrayList<ClassDesc> classes = new ArrayList<ClassDesc>();
+            cd.getHierarchy(classes);
+            h = classes.toArray(new ClassDesc[classes.size()]);
+            hierarchies.put(cd, h);
+        }
+        return h;
+    }
+
+    private Frame push(int kind, int state) throws IOException {
+        if(depth > maxDepth) {
+            throw new IOException("maximum nesting depth exceeded: " + maxDepth);
+        }
+        if(depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        Frame f = stack[depth];
+        if(f == null) {
+            f = new Frame();
+            stack[depth] = f;
+        }
+        depth++;
+        f.kind = kind;
+        f.state = state;
+        f.handle = -1;
+        f.cd = null;
+        f.hierarchy = null;
+        f.field = null;
+        f.fieldclass = null;
+        f.elemindex = -1;
+        f.value = false;
+        return f;
+    }
+
+    private void pushValue(int kind, int state, Field field, ClassDesc fieldclass, int index) throws IOException {
+        Frame f = push(kind, state);
+        f.field = field;
+        f.fieldclass = fieldclass;
+        f.elemindex = index;
+    }
+
+    private void pop() {
+        depth--;
+    }
+
+    private int newHandle() {
+        if(handlecount == handles.length) {
+            handles = Arrays.copyOf(handles, handlecount * 2);
+        }
+        return ObjectStreamConstants.baseWireHandle + handlecount++;
+    }
+
+    private void setHandle(int handle, Object value) throws IOException {
+        int idx = handle - ObjectStreamConstants.baseWireHandle;
+        if(handles[idx] != null) {
+            throw new IOException("trying to reset handle " + FormatUtil.hex(handle));
+        }
+        handles[idx] = value;
+    }
+
+    private Object getHandleValue(int handle) throws IOException {
+        int idx = handle - ObjectStreamConstants.baseWireHandle;
+        if(idx < 0 || idx >= handlecount || handles[idx] == null) {
+            throw new ValidityException("can't find an entry for handle " + FormatUtil.hex(handle));
+        }
+        return handles[idx];
+    }
+
+    private void resetHandles() {
+        Arrays.fill(handles, 0, handlecount, null);
+        handlecount = 0;
+        hierarchies.clear();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.shayartzi.jdeserialize2.event;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.shayartzi.jdeserialize2.io.SerialInput;
+
+/**
+ * <p>
+ * Finds the top-level TC_RESET markers of a stream.  A reset discards all handles, so
+ * the stream after a top-level reset can be decoded without anything that came before
+ * it (see JavaSerialReader.startAfterReset()); the segments between resets can then be
+ * decoded independently, for instance in parallel.
+ * </p>
+ *
+ * <p>
+ * The scan is a structural pass of a JavaSerialReader that skips the children of every
+ * structure: primitive values and block data are skipped over, and strings aren't
+ * decoded.  Resets inside annotations and exceptions aren't segment boundaries, since
+ * something is still open there.
+ * </p>
+ */
+public class ResetScanner {
+
+    /**
+     * Scans a stream, from its header to the end.  The input isn't closed.
+     *
+     * @param in the stream
+     * @return the offsets (see SerialInput.position()) just past each top-level TC_RESET,
+     * in order
+     * @throws IOException if an I/O or validity error occurs
+     */
+    public static long[] findResets(SerialInput in) throws IOException {
+        return findResets(in, false);
+    }
+
+    /**
+     * Scans a stream, from its header to the end.  The input isn't closed.
+     *
+     * @param in the stream
+     * @param concatenatedStreams true if the input may hold further streams; see
+     * JavaSerialReader.setConcatenatedStreams()
+     * @return the offsets (see SerialInput.position()) just past each top-level TC_RESET,
+     * in order
+     * @throws IOException if an I/O or validity error occurs
+     */
+    public static long[] findResets(SerialInput in, boolean concatenatedStreams) throws IOException {
+        JavaSerialReader r = new JavaSerialReader(in);
+        r.setConcatenatedStreams(concatenatedStreams);
+        r.setLazyStrings(true);
+        r.setCacheStrings(false);
+        long[] resets = new long[16];
+        int count = 0;
+        SerialEventType ev;
+        while((ev = r.next()) != SerialEventType.END_STREAM) {
+            if(ev == SerialEventType.RESET && r.getDepth() == 0) {
+                if(count == resets.length) {
+                    resets = Arrays.copyOf(resets, count * 2);
+                }
+                resets[count++] = in.position();
+            } else {
+                r.skipChildren();
+            }
+        }
+        return Arrays.copyOf(resets, count);
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.shayartzi.jdeserialize2.event;
+
+/**
+ * Event types reported by JavaSerialReader.  Each constant documents which of the
+ * reader's accessors are meaningful for it.
+ */
+public enum SerialEventType {
+	
+    /**
+     * A new class description; getHandle() and getClassDesc().  Its class annotations and
+     * superclass follow.
+     */
+    START_CLASSDESC,
+
+    /**
+     * End of a class description; getHandle() and getClassDesc().
+     */
+    END_CLASSDESC,
+
+    /**
+     * A new object; getHandle() and getClassDesc().  Field values and object annotations
+     * follow.
+     */
+    START_OBJECT,
+
+    /**
+     * End of an object; getHandle() and getClassDesc().
+     */
+    END_OBJECT,
+
+    /**
+     * A primitive field value or array element; getPrimitiveType() and the typed value
+     * accessors.
+     */
+    PRIMITIVE,
+
+    /**
+     * Start of class or object annotations; getClassDesc() is the annotated class.
+     */
+    START_ANNOTATION,
+
+    /**
+     * End of class or object annotations; getClassDesc() is the annotated class.
+     */
+    END_ANNOTATION,
+
+    /**
+     * A new array; getHandle(), getClassDesc() and getArrayLength().  The elements
+     * follow.
+     */
+    START_ARRAY,
+
+    /**
+     * End of an array; getHandle() and getClassDesc().
+     */
+    END_ARRAY,
+
+    /**
+     * A new string; getHandle(), getString() and getStringValue().
+     */
+    STRING,
+
+    /**
+     * A new enum constant; getHandle(), getClassDesc(), getString() and getStringValue().
+     */
+    ENUM,
+
+    /**
+     * A new Class object; getHandle() and getClassDesc().
+     */
+    CLASS,
+
+    /**
+     * A reference to a previously-read object; getHandle() and getReferencedObject().
+     */
+    REFERENCE,
+
+    /**
+     * A null reference.
+     */
+    NULL,
+
+    /**
+     * A block of opaque data; getBlockData().
+     */
+    BLOCKDATA,
+
+    /**
+     * The handle table was reset.
+     */
+    RESET,
+
+    /**
+     * The header of another stream was found where the previous one ended (see
+     * JavaSerialReader.setConcatenatedStreams()).  The handle table starts over, as after
+     * a reset.
+     */
+    NEW_STREAM,
+
+    /**
+     * A serialized exception begins; the exception object follows.
+     */
+    START_EXCEPTION,
+
+    /**
+     * End of a serialized exception.  The top-level item that was interrupted by the
+     * exception is abandoned, and the reader continues at the top level.
+     */
+    END_EXCEPTION,
+
+    /**
+     * End of the stream.
+     */
+    END_STREAM;
+	
+}
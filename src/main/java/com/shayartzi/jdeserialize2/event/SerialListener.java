@@ -0,0 +1,237 @@
+package com.shayartzi.jdeserialize2.event;
+
+import java.io.IOException;
+
+import com.shayartzi.jdeserialize2.legacy.BlockData;
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+
+/**
+ * <p>
+ * Receives parse events as the stream is decoded, in stream order.  All methods have
+ * empty default implementations, so a listener only needs to override the events it is
+ * interested in.
+ * </p>
+ *
+ * <p>
+ * Events are structural: a value is either reported by a single event (string, enum,
+ * class object, reference, null, blockdata, primitive field or array element), or is
+ * bracketed by a start/end pair whose inner events describe its contents (objects,
+ * arrays, class descriptions, annotations and exceptions).  Every reference-typed field
+ * and array element is announced by startField() or startArrayElement(), followed by
+ * exactly one value.
+ * </p>
+ *
+ * <p>
+ * A new class description is reported as startClassDesc(), its class annotations
+ * (bracketed by startAnnotation() and endAnnotation()), the superclass description if
+ * that is new as well, and finally endClassDesc().  Where the grammar expects a class
+ * description (for an object, array, enum, Class or superclass), only new descriptions
+ * generate events; references to known descriptions and nulls don't, since the
+ * description is passed to the event that uses it.  Objects are reported as
+ * startObject(), then the field values and object annotations of each class in the
+ * hierarchy (see ClassDesc.getHierarchy()), and finally endObject().
+ * </p>
+ *
+ * <p>
+ * A serialized exception always terminates the top-level item it interrupts: after
+ * endException(), the objects, arrays, class descriptions and annotations that were
+ * open when startException() was reported are abandoned, and no end events are reported
+ * for them.
+ * </p>
+ *
+ * <p>
+ * Any of the methods may throw an IOException to abort parsing.
+ * </p>
+ */
+public interface SerialListener {
+	
+    /**
+     * The handle table was reset, either by TC_RESET or around a serialized exception.
+     */
+    default void reset() throws IOException {
+    }
+
+    /**
+     * The stream ended, and another one, with its own header and handles, begins; see
+     * JavaSerialReader.setConcatenatedStreams().
+     */
+    default void newStream() throws IOException {
+    }
+
+    /**
+     * A new class description was read.  Its fields are available, but its annotations
+     * and superclass follow as separate events.
+     *
+     * @param handle the class description's handle
+     * @param cd the class description
+     */
+    default void startClassDesc(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * The class description started by the matching startClassDesc() is complete.
+     *
+     * @param handle the class description's handle
+     * @param cd the class description, including its superclass
+     */
+    default void endClassDesc(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * A new object (TC_OBJECT) begins.
+     *
+     * @param handle the object's handle
+     * @param cd the object's class description
+     */
+    default void startObject(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * The object started by the matching startObject() is complete.
+     *
+     * @param handle the object's handle
+     * @param cd the object's class description
+     */
+    default void endObject(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * A primitive field value of the current object was read.
+     *
+     * @param cd the class in the hierarchy that declares the field
+     * @param f the field
+     * @param value the value, boxed in its wrapper type
+     */
+    default void fieldValue(ClassDesc cd, Field f, Object value) throws IOException {
+    }
+
+    /**
+     * A reference-typed field of the current object begins; its value is reported by the
+     * following event(s).
+     *
+     * @param cd the class in the hierarchy that declares the field
+     * @param f the field
+     */
+    default void startField(ClassDesc cd, Field f) throws IOException {
+    }
+
+    /**
+     * Annotation data begins: either class annotations (inside a class description), or
+     * the data written by a class's writeObject()/writeExternal() method (inside an
+     * object).  Each item is reported as a value, until endAnnotation().
+     *
+     * @param cd the class the annotations belong to
+     */
+    default void startAnnotation(ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * The annotation data started by the matching startAnnotation() is complete.
+     *
+     * @param cd the class the annotations belong to
+     */
+    default void endAnnotation(ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * A new array begins.
+     *
+     * @param handle the array's handle
+     * @param cd the array's class description
+     * @param length the number of elements
+     */
+    default void startArray(int handle, ClassDesc cd, int length) throws IOException {
+    }
+
+    /**
+     * A primitive array element was read.
+     *
+     * @param index the element's index
+     * @param value the value, boxed in its wrapper type
+     */
+    default void arrayElement(int index, Object value) throws IOException {
+    }
+
+    /**
+     * A reference-typed array element begins; its value is reported by the following
+     * event(s).
+     *
+     * @param index the element's index
+     */
+    default void startArrayElement(int index) throws IOException {
+    }
+
+    /**
+     * The array started by the matching startArray() is complete.
+     *
+     * @param handle the array's handle
+     * @param cd the array's class description
+     */
+    default void endArray(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * A new string was read.
+     *
+     * @param so the string
+     */
+    default void string(StringObj so) throws IOException {
+    }
+
+    /**
+     * A new enum constant was read.
+     *
+     * @param handle the enum's handle
+     * @param cd the enum's class description
+     * @param so the constant's name
+     */
+    default void enumValue(int handle, ClassDesc cd, StringObj so) throws IOException {
+    }
+
+    /**
+     * A new Class object was read.
+     *
+     * @param handle the object's handle
+     * @param cd the class description of the Class instance
+     */
+    default void classObject(int handle, ClassDesc cd) throws IOException {
+    }
+
+    /**
+     * A reference to a previously-read object was read.
+     *
+     * @param handle the referenced handle
+     */
+    default void reference(int handle) throws IOException {
+    }
+
+    /**
+     * A null reference was read.
+     */
+    default void nullValue() throws IOException {
+    }
+
+    /**
+     * A block of opaque data was read.
+     *
+     * @param bd the block data
+     */
+    default void blockData(BlockData bd) throws IOException {
+    }
+
+    /**
+     * A serialized exception (TC_EXCEPTION) begins.  The exception object follows,
+     * surrounded by resets.
+     */
+    default void startException() throws IOException {
+    }
+
+    /**
+     * The exception started by the matching startException() is complete.
+     */
+    default void endException() throws IOException {
+    }
+    
+}
@@ -0,0 +1,279 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+
+/**
+ * <p>
+ * SerialInput that reads primitives directly out of a ByteBuffer, without going through
+ * the InputStream/DataInputStream call chain.  Heap buffers, direct buffers and
+ * memory-mapped files are all supported.
+ * </p>
+ *
+ * <p>
+ * The buffer is read from its position to its limit.  The caller's buffer isn't
+ * modified; a duplicate is used internally.
+ * </p>
+ *
+ * <p>
+ * Subclasses can serve data larger than a single buffer by overriding nextBuffer(),
+ * which is called whenever the current buffer has been exhausted.
+ * </p>
+ */
+public class ByteBufferSerialInput implements SerialInput {
+
+    /**
+     * The buffer currently being read.
+     */
+    protected ByteBuffer buf;
+
+    /**
+     * Absolute stream offset of index 0 of the current buffer.
+     */
+    protected long base;
+
+    /**
+     * Absolute offset where recording started, or -1 if record() hasn't been called.
+     */
+    protected long recordstart = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param buf the buffer to read; reading starts at its current position
+     */
+    public ByteBufferSerialInput(ByteBuffer buf) {
+        this.buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.base = -buf.position();
+    }
+
+    /**
+     * Constructor for reading part of a stream, such as a segment between resets.
+     *
+     * @param buf the buffer to read; reading starts at its current position
+     * @param position the offset that position() reports for the first byte
+     */
+    public ByteBufferSerialInput(ByteBuffer buf, long position) {
+        this.buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.base = position - buf.position();
+    }
+
+    /**
+     * Constructor for subclasses that supply their buffers through nextBuffer().
+     */
+    protected ByteBufferSerialInput() {
+        this.buf = ByteBuffer.allocate(0);
+        this.base = 0;
+    }
+
+    /**
+     * Called when the current buffer has no remaining bytes.  Subclasses that read from
+     * more than one buffer should replace buf (and base) with the next one and return
+     * true.
+     *
+     * @return true if a new buffer with remaining data was installed; false at the end
+     * of the input
+     * @throws IOException if the next buffer can't be obtained
+     */
+    protected boolean nextBuffer() throws IOException {
+        return false;
+    }
+
+    /**
+     * Gets the absolute offset of the next byte to be read.
+     *
+     * @return the current read offset
+     */
+    public long position() {
+        return base + buf.position();
+    }
+
+    /**
+     * Copies a range of already-read data into a new array.  The default implementation
+     * only supports ranges within the current buffer.
+     *
+     * @param start absolute offset of the first byte
+     * @param end absolute offset one past the last byte
+     * @return the data in the range
+     * @throws IOException if the range isn't available
+     */
+    protected byte[] copyRange(long start, long end) throws IOException {
+        if(start < base || end > base + buf.limit()) {
+            throw new IOException("range no longer available: " + start + "-" + end);
+        }
+        byte[] data = new byte[(int)(end - start)];
+        ByteBuffer dup = buf.duplicate();
+        dup.position((int)(start - base));
+        dup.get(data);
+        return data;
+    }
+
+    public void record() {
+        recordstart = position();
+    }
+
+    public byte[] getRecordedData() throws IOException {
+        if(recordstart < 0) {
+            return new byte[0];
+        }
+        return copyRange(recordstart, position());
+    }
+
+    /**
+     * Ensures that at least one byte is available in the current buffer.
+     */
+    private void fill() throws IOException {
+        while(!buf.hasRemaining()) {
+            if(!nextBuffer()) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            fill();
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public int skipBytes(int n) throws IOException {
+        int skipped = 0;
+        while(skipped < n) {
+            if(!buf.hasRemaining() && !nextBuffer()) {
+                break;
+            }
+            int s = Math.min(n - skipped, buf.remaining());
+            buf.position(buf.position() + s);
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    public void skipFully(long n) throws IOException {
+        while(n > 0) {
+            fill();
+            int s = (int)Math.min(n, buf.remaining());
+            buf.position(buf.position() + s);
+            n -= s;
+        }
+    }
+
+    public ByteBuffer readSlice(int length) throws IOException {
+        if(length > 0 && !buf.hasRemaining()) {
+            fill();
+        }
+        if(buf.remaining() >= length) {
+            ByteBuffer slice = buf.slice().asReadOnlyBuffer();
+            slice.limit(length);
+            buf.position(buf.position() + length);
+            return slice;
+        }
+        // Spans more than one buffer.
+        byte[] b = new byte[length];
+        readFully(b);
+        return ByteBuffer.wrap(b);
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        if(!buf.hasRemaining()) {
+            fill();
+        }
+        return buf.get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        if(buf.remaining() >= 2) {
+            return buf.getShort();
+        }
+        return (short)((readUnsignedByte() << 8) | readUnsignedByte());
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        return (char)readShort();
+    }
+
+    public int readInt() throws IOException {
+        if(buf.remaining() >= 4) {
+            return buf.getInt();
+        }
+        return (readUnsignedShort() << 16) | readUnsignedShort();
+    }
+
+    public long readLong() throws IOException {
+        if(buf.remaining() >= 8) {
+            return buf.getLong();
+        }
+        return ((long)readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readLine() throws IOException {
+        StringBuffer sb = new StringBuffer();
+        while(true) {
+            if(!buf.hasRemaining() && !nextBuffer()) {
+                return sb.length() == 0 ? null : sb.toString();
+            }
+            int c = buf.get() & 0xff;
+            if(c == '\n') {
+                return sb.toString();
+            }
+            if(c == '\r') {
+                if((buf.hasRemaining() || nextBuffer()) && buf.get(buf.position()) == '\n') {
+                    buf.get();
+                }
+                return sb.toString();
+            }
+            sb.append((char)c);
+        }
+    }
+
+    public String readUTF() throws IOException {
+        int length = readUnsignedShort();
+        if(length > 0 && !buf.hasRemaining()) {
+            fill();
+        }
+        if(buf.hasArray() && buf.remaining() >= length) {
+            String s = ModifiedUtf8Util.decode(buf.array(), buf.arrayOffset() + buf.position(), length);
+            buf.position(buf.position() + length);
+            return s;
+        }
+        byte[] b = new byte[length];
+        readFully(b);
+        return ModifiedUtf8Util.decode(b, 0, length);
+    }
+
+    public void close() throws IOException {
+    }
+
+}
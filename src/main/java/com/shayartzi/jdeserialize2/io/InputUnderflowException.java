@@ -0,0 +1,18 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown by PushSerialInput when a read needs data that hasn't been fed yet.
+ * Unlike EOFException, it doesn't mean the stream is over: the read can be retried once
+ * more data has arrived.
+ */
+public class InputUnderflowException extends IOException {
+
+    public static final long serialVersionUID = 4130872218457102L;
+
+    public InputUnderflowException(String msg) {
+        super(msg);
+    }
+
+}
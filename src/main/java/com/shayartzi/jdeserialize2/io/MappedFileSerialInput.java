@@ -0,0 +1,122 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * SerialInput over a memory-mapped FileChannel.  The file is mapped in windows of at
+ * most chunkSize bytes, so files larger than 2 GB (the limit of a single
+ * MappedByteBuffer) can be read.  Primitives that straddle two windows are assembled
+ * byte by byte; everything else is read directly from the mapping.
+ * </p>
+ *
+ * <p>
+ * Reading starts at the channel's current position.  The channel isn't closed by
+ * close(); that's left to the caller who opened it.
+ * </p>
+ */
+public class MappedFileSerialInput extends ByteBufferSerialInput {
+
+    /**
+     * Default mapping window size (1 GB).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long end;
+    private final int chunkSize;
+    private long next;
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to map
+     * @throws IOException if the channel's position or size can't be determined
+     */
+    public MappedFileSerialInput(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to map
+     * @param chunkSize the maximum size of a single mapping window
+     * @throws IOException if the channel's position or size can't be determined
+     */
+    public MappedFileSerialInput(FileChannel channel, int chunkSize) throws IOException {
+        this(channel, channel.position(), channel.size(), chunkSize);
+    }
+
+    /**
+     * Constructor for reading a range of the file, such as a segment of a stream between
+     * resets.  Whatever the channel's position, reading starts at start.
+     *
+     * @param channel the channel to map
+     * @param start the file offset of the first byte to read
+     * @param end the file offset just past the last byte to read
+     * @param chunkSize the maximum size of a single mapping window
+     */
+    public MappedFileSerialInput(FileChannel channel, long start, long end, int chunkSize) {
+        super();
+        if(chunkSize < 8) {
+            throw new IllegalArgumentException("invalid chunk size: " + chunkSize);
+        }
+        this.channel = channel;
+        this.end = end;
+        this.chunkSize = chunkSize;
+        this.next = start;
+        this.base = next;
+    }
+
+    protected boolean nextBuffer() throws IOException {
+        if(next >= end) {
+            return false;
+        }
+        int len = (int)Math.min(chunkSize, end - next);
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, next, len).order(ByteOrder.BIG_ENDIAN);
+        base = next;
+        next += len;
+        return true;
+    }
+
+    /**
+     * Copies a range of the file to a channel, with FileChannel.transferTo(), so that the
+     * data doesn't pass through the Java heap.  The read position isn't changed.
+     *
+     * @param position file offset of the first byte, as returned by position()
+     * @param count the number of bytes to copy
+     * @param target the channel to write to
+     * @throws IOException if the range can't be read or written
+     */
+    public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        while(count > 0) {
+            long n = channel.transferTo(position, count, target);
+            if(n <= 0) {
+                throw new EOFException("file truncated while transferring range " + position + "-" + (position + count));
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    protected byte[] copyRange(long start, long end) throws IOException {
+        if(start >= base) {
+            return super.copyRange(start, end);
+        }
+        byte[] data = new byte[(int)(end - start)];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while(bb.hasRemaining()) {
+            if(channel.read(bb, start + bb.position()) < 0) {
+                throw new EOFException("file truncated while reading range " + start + "-" + end);
+            }
+        }
+        return data;
+    }
+
+}
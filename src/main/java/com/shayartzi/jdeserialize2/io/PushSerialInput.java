@@ -0,0 +1,119 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * SerialInput for data that arrives in pieces, such as from a non-blocking socket or a
+ * file that is still being written.  Chunks are appended with feed(); a read that needs
+ * more than has been fed throws InputUnderflowException instead of blocking, until
+ * finish() has been called, after which running out of data is a real EOFException.
+ * </p>
+ *
+ * <p>
+ * JavaSerialReader marks the input before each step it takes, and rewinds to the mark
+ * when a step underflows, so the step can be taken again once more data is there.  The
+ * data from the mark (or from the start of the recording, if that's earlier) onwards is
+ * kept; older data is dropped when the buffer has to grow.  Bytes that have been fed
+ * are never overwritten, so lazily decoded strings stay valid.
+ * </p>
+ */
+public class PushSerialInput extends ByteBufferSerialInput {
+
+    /**
+     * Smallest buffer allocated when the data is moved.
+     */
+    private static final int MIN_CAPACITY = 8192;
+
+    private long stepmark;
+    private boolean finished;
+
+    /**
+     * Constructor.  No data is available until feed() is called.
+     */
+    public PushSerialInput() {
+        super();
+    }
+
+    /**
+     * Appends data to the input.
+     *
+     * @param chunk the data, from its position to its limit; the buffer isn't modified
+     * @throws IllegalStateException if finish() has been called
+     */
+    public void feed(ByteBuffer chunk) {
+        if(finished) {
+            throw new IllegalStateException("input already finished");
+        }
+        int n = chunk.remaining();
+        if(n == 0) {
+            return;
+        }
+        int limit = buf.limit();
+        if(buf.hasArray() && buf.arrayOffset() == 0 && buf.capacity() - limit >= n) {
+            chunk.duplicate().get(buf.array(), limit, n);
+            buf.limit(limit + n);
+            return;
+        }
+        long keepfrom = stepmark;
+        if(recordstart >= 0 && recordstart < keepfrom) {
+            keepfrom = recordstart;
+        }
+        int keep = (int)(keepfrom - base);
+        int live = limit - keep;
+        byte[] data = new byte[Math.max(Math.max(live + n, live * 2), MIN_CAPACITY)];
+        ByteBuffer old = buf.duplicate();
+        old.position(keep);
+        old.get(data, 0, live);
+        chunk.duplicate().get(data, live, n);
+        int position = buf.position() - keep;
+        base += keep;
+        buf = ByteBuffer.wrap(data);
+        buf.limit(live + n);
+        buf.position(position);
+    }
+
+    /**
+     * Marks the end of the input.  Reads past the data fed so far throw EOFException.
+     */
+    public void finish() {
+        finished = true;
+    }
+
+    /**
+     * @return true if finish() has been called
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the number of bytes fed but not read yet
+     */
+    public int available() {
+        return buf.remaining();
+    }
+
+    /**
+     * Remembers the current position as the start of a step.
+     */
+    public void markStep() {
+        stepmark = position();
+    }
+
+    /**
+     * Goes back to the position remembered by markStep().
+     */
+    public void rewindStep() {
+        buf.position((int)(stepmark - base));
+    }
+
+    protected boolean nextBuffer() throws IOException {
+        if(finished) {
+            return false;
+        }
+        throw new InputUnderflowException("more data needed at offset " + position());
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Source of primitive data for the parser.  This is a DataInput (all reads are
+ * big-endian, as written by ObjectOutputStream) with the additional bookkeeping the
+ * parser needs, such as recording the raw bytes of the item being read so that they can
+ * be attached to an ExceptionState.
+ * </p>
+ *
+ * <p>
+ * Implementations are not thread-safe; a source is meant to be consumed by exactly one
+ * parser.
+ * </p>
+ */
+public interface SerialInput extends DataInput, Closeable {
+	
+    /**
+     * If not currently recording, start recording.  If the input is currently recording,
+     * the recorded data is discarded and recording restarts at the current position.
+     */
+    public void record();
+
+    /**
+     * Returns the data recorded since the last call to record(); if recording is not
+     * active, an empty buffer is returned.
+     *
+     * @return a copy of the recorded bytes
+     * @throws IOException if the recorded data can't be retrieved from the source
+     */
+    public byte[] getRecordedData() throws IOException;
+
+    /**
+     * Skips exactly n bytes of input.  Unlike skipBytes(), this never skips fewer bytes
+     * than requested.
+     *
+     * @param n the number of bytes to skip
+     * @throws java.io.EOFException if the input ends before n bytes were skipped
+     * @throws IOException if an I/O error occurs
+     */
+    public void skipFully(long n) throws IOException;
+
+    /**
+     * Gets the offset of the next byte to be read.  For inputs that read a file, this is
+     * the offset in the file; otherwise it counts from the start of the input.
+     *
+     * @return the current read offset
+     */
+    public long position();
+
+    /**
+     * Reads exactly length bytes and returns them as a buffer positioned at the first of
+     * them.  Buffer-backed sources return a read-only view of their own storage where
+     * they can, without copying; other sources return a new buffer.
+     *
+     * @param length the number of bytes to read
+     * @return a buffer whose remaining bytes are the data read
+     * @throws java.io.EOFException if the input ends before length bytes were read
+     * @throws IOException if an I/O error occurs
+     */
+    public ByteBuffer readSlice(int length) throws IOException;
+    
+}
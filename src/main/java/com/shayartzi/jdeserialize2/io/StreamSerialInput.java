@@ -0,0 +1,243 @@
+package com.shayartzi.jdeserialize2.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+
+/**
+ * <p>
+ * SerialInput over an arbitrary InputStream.  Reads are buffered and passed through a
+ * DataInputStream; the number of bytes consumed is counted, so recording only has to
+ * remember where it started.
+ * </p>
+ *
+ * <p>
+ * If the stream is a FileInputStream, getRecordedData() re-reads the recorded range
+ * from the file when it's asked for, and nothing is copied in the meantime.  Other
+ * streams can't be re-read, so while recording, the bytes consumed are kept in memory.
+ * </p>
+ */
+public class StreamSerialInput implements SerialInput {
+
+    private final CountingInputStream cis;
+    private final DataInputStream dis;
+
+    /**
+     * The file the stream reads, if known, and the file offset of the first byte.
+     */
+    private final FileChannel channel;
+    private final long channelstart;
+
+    private long recordstart = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param is the stream to read from
+     */
+    public StreamSerialInput(InputStream is) {
+        FileChannel fc = null;
+        long start = 0;
+        if(is instanceof FileInputStream) {
+            try {
+                fc = ((FileInputStream)is).getChannel();
+                start = fc.position();
+            } catch (IOException ioe) {
+                fc = null;
+            }
+        }
+        this.channel = fc;
+        this.channelstart = start;
+        this.cis = new CountingInputStream(new BufferedInputStream(is));
+        this.dis = new DataInputStream(cis);
+    }
+
+    public void record() {
+        recordstart = cis.count;
+        if(channel == null) {
+            cis.recordlen = 0;
+            cis.recording = true;
+        }
+    }
+
+    public byte[] getRecordedData() throws IOException {
+        if(recordstart < 0) {
+            return new byte[0];
+        }
+        if(channel == null) {
+            return Arrays.copyOf(cis.recorded, cis.recordlen);
+        }
+        byte[] data = new byte[(int)(cis.count - recordstart)];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while(bb.hasRemaining()) {
+            if(channel.read(bb, channelstart + recordstart + bb.position()) < 0) {
+                throw new EOFException("file truncated while reading range " + recordstart + "-" + cis.count);
+            }
+        }
+        return data;
+    }
+
+    public long position() {
+        return channelstart + cis.count;
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        dis.readFully(b);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        dis.readFully(b, off, len);
+    }
+
+    public int skipBytes(int n) throws IOException {
+        return dis.skipBytes(n);
+    }
+
+    public void skipFully(long n) throws IOException {
+        while(n > 0) {
+            int s = dis.skipBytes((int)Math.min(n, Integer.MAX_VALUE));
+            if(s <= 0) {
+                // skipBytes() may give up early; a read tells us whether that's EOF
+                if(dis.read() < 0) {
+                    throw new EOFException();
+                }
+                s = 1;
+            }
+            n -= s;
+        }
+    }
+
+    public ByteBuffer readSlice(int length) throws IOException {
+        byte[] b = new byte[length];
+        dis.readFully(b);
+        return ByteBuffer.wrap(b);
+    }
+
+    public boolean readBoolean() throws IOException {
+        return dis.readBoolean();
+    }
+
+    public byte readByte() throws IOException {
+        return dis.readByte();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return dis.readUnsignedByte();
+    }
+
+    public short readShort() throws IOException {
+        return dis.readShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return dis.readUnsignedShort();
+    }
+
+    public char readChar() throws IOException {
+        return dis.readChar();
+    }
+
+    public int readInt() throws IOException {
+        return dis.readInt();
+    }
+
+    public long readLong() throws IOException {
+        return dis.readLong();
+    }
+
+    public float readFloat() throws IOException {
+        return dis.readFloat();
+    }
+
+    public double readDouble() throws IOException {
+        return dis.readDouble();
+    }
+
+    @SuppressWarnings("deprecation")
+    public String readLine() throws IOException {
+        return dis.readLine();
+    }
+
+    public String readUTF() throws IOException {
+        byte[] b = new byte[dis.readUnsignedShort()];
+        dis.readFully(b);
+        return ModifiedUtf8Util.decode(b, 0, b.length);
+    }
+
+    public void close() throws IOException {
+        dis.close();
+    }
+
+    /**
+     * Counts the bytes consumed, and keeps a copy of them while recording.  Unlike
+     * LoggerInputStream, this isn't synchronized; a SerialInput has a single reader.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+        boolean recording;
+        byte[] recorded;
+        int recordlen;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        private void ensure(int len) {
+            if(recorded == null || recordlen + len > recorded.length) {
+                int size = Math.max(recordlen + len, recorded == null ? 256 : recorded.length * 2);
+                recorded = (recorded == null ? new byte[size] : Arrays.copyOf(recorded, size));
+            }
+        }
+
+        public int read() throws IOException {
+            int i = in.read();
+            if(i >= 0) {
+                count++;
+                if(recording) {
+                    ensure(1);
+                    recorded[recordlen++] = (byte)i;
+                }
+            }
+            return i;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if(n > 0) {
+                count += n;
+                if(recording) {
+                    ensure(n);
+                    System.arraycopy(b, off, recorded, recordlen, n);
+                    recordlen += n;
+                }
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            if(!recording) {
+                long s = in.skip(n);
+                count += s;
+                return s;
+            }
+            // The skipped bytes are part of the recording.
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            int r = read(buf, 0, buf.length);
+            return r < 0 ? 0 : r;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.shayartzi.jdeserialize2.legacy;
 
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.RandomAccess;
 
 /**
  * <p>Typed collection used for storing the values of a serialized array.  </p>
@@ -8,13 +11,22 @@ import java.util.ArrayList;
  * <p>Primitive types are stored using their corresponding objects; for instance, an int is
  * stored as an Integer.  To determine whether or not this is an array of ints or of
  * Integer instances, check the name in the arrayobj's class description.</p>
+ *
+ * <p>Arrays of primitives read by the parser are stored as PrimitiveArrayColl instances,
+ * which keep the values in a real primitive array and only box them when they are
+ * accessed through the List interface.</p>
  */
-public class ArrayColl extends ArrayList<Object> {
-	
-    public static final long serialVersionUID = 2277356908919248L;
+public class ArrayColl extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    // Changed when ArrayColl stopped extending ArrayList, whose serialized form differs.
+    public static final long serialVersionUID = 2277356908919249L;
 
     private FieldTypeEnum ftype;
 
+    // Created on the first add(), so that subclasses with storage of their own don't
+    // allocate it.
+    private ArrayList<Object> values;
+
     /**
      * Constructor.
      * @param ft field type of the array
@@ -32,6 +44,40 @@ public class ArrayColl extends ArrayList<Object> {
     public FieldTypeEnum getFieldType() {
         return ftype;
     }
+
+    public Object get(int index) {
+        return values(index).get(index);
+    }
+
+    public Object set(int index, Object element) {
+        return values(index).set(index, element);
+    }
+
+    public void add(int index, Object element) {
+        if(values == null) {
+            values = new ArrayList<Object>();
+        }
+        values.add(index, element);
+        modCount++;
+    }
+
+    public Object remove(int index) {
+        Object o = values(index).remove(index);
+        modCount++;
+        return o;
+    }
+
+    public int size() {
+        return values == null ? 0 : values.size();
+    }
+
+    private ArrayList<Object> values(int index) {
+        if(values == null) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length 0");
+        }
+        return values;
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append("[arraycoll sz ").append(this.size());
@@ -47,5 +93,5 @@ public class ArrayColl extends ArrayList<Object> {
         }
         return sb.toString();
     }
-    
+
 }
@@ -1,20 +1,37 @@
 package com.shayartzi.jdeserialize2.legacy;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 import com.shayartzi.jdeserialize2.util.FormatUtil;
 
 /**
+ * <p>
  * Represents an opaque block of data written to the stream.  Primarily, these are used to
  * write class and object annotations by ObjectOutputStream overrides; they can also occur
  * inside an object, when the object overrides Serializable.writeObject().  Their
  * interpretation is hereby left to users.
+ * </p>
+ *
+ * <p>
+ * A block either holds its data, or only records where the data is in the source (see
+ * JavaSerialReader.setBlockDataByOffset() and setSkipThreshold()); in that case buf is
+ * null, and the data can be read from the source at getOffset(), with read() if the
+ * source is a file.
+ * </p>
  */
 public class BlockData extends ContentBase {
 	
     /**
-     * The block data read from the stream.
+     * The block data read from the stream, or null if only its offset is known.
      */
     public byte[] buf;
 
+    private final long offset;
+    private final int length;
+
     /**
      * Constructor.
      *
@@ -23,9 +40,59 @@ public class BlockData extends ContentBase {
     public BlockData(byte[] buf) {
         super(ContentTypeEnum.BLOCKDATA);
         this.buf = buf;
+        this.offset = -1;
+        this.length = buf.length;
+    }
+
+    /**
+     * Constructor for a block whose data isn't kept.
+     *
+     * @param offset the offset of the data in the source; see SerialInput.position()
+     * @param length the number of bytes of data
+     */
+    public BlockData(long offset, int length) {
+        super(ContentTypeEnum.BLOCKDATA);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return the number of bytes of data
+     */
+    public int getLength() {
+        return buf != null ? buf.length : length;
     }
+
+    /**
+     * @return the offset of the data in the source, or -1 if it wasn't recorded
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the data of the block, reading it from the file the stream was read from if
+     * only its offset is known.  The channel's position isn't changed.
+     *
+     * @param channel the file; not used if the data was kept
+     * @return the block data
+     * @throws IOException if the data can't be read
+     */
+    public byte[] read(FileChannel channel) throws IOException {
+        if(buf != null) {
+            return buf;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        while(bb.hasRemaining()) {
+            if(channel.read(bb, offset + bb.position()) < 0) {
+                throw new EOFException("file truncated while reading block data at " + offset);
+            }
+        }
+        return bb.array();
+    }
+
     public String toString() {
-        return "[blockdata " + FormatUtil.hex(handle) + ": " + buf.length + " bytes]";
+        return "[blockdata " + FormatUtil.hex(handle) + ": " + getLength() + " bytes]";
     }
-    
+
 }
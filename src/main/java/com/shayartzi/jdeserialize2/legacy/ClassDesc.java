@@ -210,6 +210,20 @@ public class ClassDesc extends ContentBase {
         } 
         classes.add(this);
     }
+
+    private FieldLayout fieldLayout;
+    /**
+     * Gets the slot layout of the fields of this class and its superclasses, computing it
+     * on first use.  The class's fields and superclass must be complete by then.
+     *
+     * @return the field layout
+     */
+    public FieldLayout getFieldLayout() {
+        if(fieldLayout == null) {
+            fieldLayout = new FieldLayout(this);
+        }
+        return fieldLayout;
+    }
     public void validate() throws ValidityException {
         // If neither SC_SERIALIZABLE nor SC_EXTERNALIZABLE is set, then the number of
         // fields is always zero.  (spec section 4.3)
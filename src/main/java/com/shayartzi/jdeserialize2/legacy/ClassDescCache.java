@@ -0,0 +1,309 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
+
+/**
+ * <p>
+ * Cache of class descriptions shared by the parses of many streams, which typically
+ * describe the same few classes over and over again.  Descriptions are identified by
+ * their fingerprint: the class name, serialVersionUID and flags, and the type, name and
+ * type descriptor of every field.  The layouts that share a header (class name,
+ * serialVersionUID, flags and field count), such as two releases of a class whose
+ * serialVersionUID is pinned, are kept as a list of candidates.
+ * </p>
+ *
+ * <p>
+ * A parser using the cache (see JavaSerialReader.setClassDescCache()) looks up the class
+ * name by its encoded bytes, so known names aren't decoded again.  It then finds the
+ * candidates cached for the description's header, and compares each field descriptor in
+ * the stream with them as it's read, the field name by its encoded bytes.  Fields that
+ * match get the shared name String, and their type descriptors aren't validated (or,
+ * for lazy strings, decoded) again.
+ * </p>
+ *
+ * <p>
+ * Only the immutable parts of a description are shared.  Every stream still gets its
+ * own ClassDesc and Field objects, and so its own FieldLayout, since those hold the
+ * handles, annotations and superclass of that stream, and are modified by
+ * connectMemberClasses().  The cache saves decoding and validation work; apart from
+ * the shared name Strings, it doesn't reduce the heap a parse retains.
+ * </p>
+ *
+ * <p>
+ * The cache is thread-safe.  It holds at most maxSize names and maxSize layouts; once
+ * full, further classes are parsed as usual, but not added.
+ * </p>
+ */
+public class ClassDescCache {
+
+    /**
+     * Default maximum number of names and of layouts.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    /**
+     * The immutable part of a class description: its name, serialVersionUID, flags and
+     * fields.  Layouts with the same header are chained; see next().
+     */
+    public static final class Layout {
+        private final String name;
+        private final long serialVersionUID;
+        private final byte descflags;
+        private final FieldTypeEnum[] types;
+        private final String[] fieldnames;
+        private final ByteBuffer[] rawnames;
+        private final String[] typenames;
+        // The next candidate with the same header; set before the layout is published.
+        private Layout next;
+
+        private Layout(ClassDesc cd) throws IOException {
+            name = cd.name;
+            serialVersionUID = cd.serialVersionUID;
+            descflags = cd.descflags;
+            int n = cd.fields.length;
+            types = new FieldTypeEnum[n];
+            fieldnames = new String[n];
+            rawnames = new ByteBuffer[n];
+            typenames = new String[n];
+            for(int i = 0; i < n; i++) {
+                Field f = cd.fields[i];
+                types[i] = f.type;
+                fieldnames[i] = f.name;
+                rawnames[i] = ByteBuffer.wrap(ModifiedUtf8Util.encode(f.name)).asReadOnlyBuffer();
+                typenames[i] = (f.classname == null ? null : f.classname.decodeValue());
+            }
+        }
+
+        /**
+         * @return the class name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the serialVersionUID
+         */
+        public long getSerialVersionUID() {
+            return serialVersionUID;
+        }
+
+        /**
+         * @return the class description flags
+         */
+        public byte getDescFlags() {
+            return descflags;
+        }
+
+        /**
+         * @return the number of fields
+         */
+        public int getFieldCount() {
+            return types.length;
+        }
+
+        /**
+         * Creates the Field for a field descriptor read from a stream, if it matches
+         * field i.
+         *
+         * @param i the index of the field
+         * @param type the type code read
+         * @param rawname the encoded field name read, from its position to its limit
+         * @param classname the type descriptor read, or null for a primitive field
+         * @return a field with the shared name, or null if the descriptor differs
+         */
+        public Field newField(int i, byte type, ByteBuffer rawname, StringObj classname) {
+            if(types[i].ch() != type || !rawnames[i].equals(rawname)) {
+                return null;
+            }
+            if(typenames[i] == null ? classname != null : classname == null || !classname.contentEquals(typenames[i])) {
+                return null;
+            }
+            return Field.validated(types[i], fieldnames[i], classname);
+        }
+
+        /**
+         * Finds the next candidate with the same header whose first fields match the
+         * ones read so far.
+         *
+         * @param fields the fields read
+         * @param count the number of fields read
+         * @return the candidate, or null if there is none
+         */
+        public Layout next(Field[] fields, int count) {
+            for(Layout l = next; l != null; l = l.next) {
+                if(l.matches(fields, count)) {
+                    return l;
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(Field[] fields, int count) {
+            for(int i = 0; i < count; i++) {
+                Field f = fields[i];
+                if(types[i] != f.type || !fieldnames[i].equals(f.name)) {
+                    return false;
+                }
+                if(typenames[i] == null ? f.classname != null : f.classname == null || !f.classname.contentEquals(typenames[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fingerprint of the header of a class description.  The fields are compared one by
+     * one as they are read.
+     */
+    private static final class Key {
+        final String name;
+        final long serialVersionUID;
+        final byte descflags;
+        final int nfields;
+
+        Key(String name, long serialVersionUID, byte descflags, int nfields) {
+            this.name = name;
+            this.serialVersionUID = serialVersionUID;
+            this.descflags = descflags;
+            this.nfields = nfields;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return name.equals(k.name) && serialVersionUID == k.serialVersionUID
+                    && descflags == k.descflags && nfields == k.nfields;
+        }
+
+        public int hashCode() {
+            return (name.hashCode() * 31 + Long.hashCode(serialVersionUID)) * 31 + descflags * 257 + nfields;
+        }
+    }
+
+    private final int maxSize;
+    private final ConcurrentHashMap<ByteBuffer, String> names = new ConcurrentHashMap<ByteBuffer, String>();
+    private final ConcurrentHashMap<Key, Layout> layouts = new ConcurrentHashMap<Key, Layout>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Constructor for a cache of DEFAULT_MAX_SIZE classes.
+     */
+    public ClassDescCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum number of names, and of layouts, to keep
+     */
+    public ClassDescCache(int maxSize) {
+        if(maxSize < 0) {
+            throw new IllegalArgumentException("invalid cache size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets a class name, decoding it only if it isn't in the cache yet.
+     *
+     * @param raw the encoded name, from its position to its limit; not modified or kept
+     * @return the name
+     * @throws IOException if the name isn't valid modified UTF-8
+     */
+    public String getName(ByteBuffer raw) throws IOException {
+        String name = names.get(raw);
+        if(name == null) {
+            name = ModifiedUtf8Util.decode(raw);
+            if(names.size() < maxSize) {
+                byte[] b = new byte[raw.remaining()];
+                raw.duplicate().get(b);
+                String known = names.putIfAbsent(ByteBuffer.wrap(b).asReadOnlyBuffer(), name);
+                if(known != null) {
+                    name = known;
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Finds the first of the layouts cached for a class description header; the others
+     * are found with Layout.next().
+     *
+     * @param name the class name
+     * @param serialVersionUID the serialVersionUID
+     * @param descflags the class description flags
+     * @param nfields the number of fields
+     * @return the first candidate, or null if there is none
+     */
+    public Layout find(String name, long serialVersionUID, byte descflags, int nfields) {
+        return layouts.get(new Key(name, serialVersionUID, descflags, nfields));
+    }
+
+    /**
+     * Records a class description whose fields have all been read.  If they didn't all
+     * match a cached layout, the description's layout is added to the candidates for its
+     * header.
+     *
+     * @param cd the class description
+     * @param layout the layout that every field matched, or null
+     * @throws IOException if a lazily read field type descriptor isn't valid modified
+     * UTF-8
+     */
+    public void add(ClassDesc cd, Layout layout) throws IOException {
+        if(layout != null) {
+            hits.increment();
+            return;
+        }
+        misses.increment();
+        if(count.get() < maxSize) {
+            Layout added = new Layout(cd);
+            layouts.compute(new Key(cd.name, cd.serialVersionUID, cd.descflags, cd.fields.length), (k, first) -> {
+                for(Layout l = first; l != null; l = l.next) {
+                    if(l.matches(cd.fields, cd.fields.length)) {
+                        // Added by another parser in the meantime.
+                        return first;
+                    }
+                }
+                added.next = first;
+                count.incrementAndGet();
+                return added;
+            });
+        }
+    }
+
+    /**
+     * @return the number of class descriptions that matched a cached layout
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of class descriptions that didn't match a cached layout
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of layouts cached
+     */
+    public int size() {
+        return count.get();
+    }
+
+}
@@ -36,7 +36,7 @@ public class EnumObj extends ContentBase {
     }
     
     public String toString() {
-        return "[enum " + FormatUtil.hex(handle) + ": " + value.value + "]";
+        return "[enum " + FormatUtil.hex(handle) + ": " + value.getValue() + "]";
     }
     
 }
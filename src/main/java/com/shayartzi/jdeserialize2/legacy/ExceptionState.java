@@ -37,10 +37,9 @@ public class ExceptionState extends ContentBase {
      * </p>
      *
      * <p>
-     * The uncertainty centers around the fact that this data is gathered by jdeserialize
-     * using a LoggerInputStream, and the underlying DataInputStream may have read more
-     * than is necessary.  In all tests conducted so far, the above description is
-     * accurate.
+     * The data is the range of the input between the start of the top-level item and the
+     * point where the exception had been read.  It is sliced out of the source by offset
+     * only when an exception is found; inputs that can't be re-read record it as they go.
      * </p>
      */
     public byte[] streamdata;
@@ -60,10 +60,33 @@ public class Field {
         this.name = name;
         this.classname = classname;
         if(classname != null) {
-            validate(classname.value);
+            String jt;
+            try {
+                jt = classname.decodeValue();
+            } catch (ValidityException ve) {
+                throw ve;
+            } catch (IOException ioe) {
+                throw new ValidityException("invalid field type descriptor encoding: " + ioe.getMessage());
+            }
+            validate(jt);
         }
     }
 
+    private Field() {
+    }
+
+    /**
+     * Creates a field whose class name is already known to be valid, without decoding a
+     * lazy class name to check it; see ClassDescCache.
+     */
+    static Field validated(FieldTypeEnum type, String name, StringObj classname) {
+        Field f = new Field();
+        f.type = type;
+        f.name = name;
+        f.classname = classname;
+        return f;
+    }
+
     /**
      * Constructor for simple fields.
      * 
@@ -81,7 +104,7 @@ public class Field {
      * @throws IOException if a validity or I/O error occurs
      */
     public String getJavaType() throws IOException {
-        return TypeUtil.resolveJavaType(this.type, this.classname == null ? null : this.classname.value, true, false);
+        return TypeUtil.resolveJavaType(this.type, this.classname == null ? null : this.classname.getValue(), true, false);
     }
     
     /**
@@ -96,7 +119,7 @@ public class Field {
             throw new ValidityException("can't fix up a non-reference field!");
         }
         String nname = "L" + newname.replace('.', '/') + ";";
-        this.classname.value = nname;
+        this.classname.setValue(nname);
     }
     public void validate(String jt) throws ValidityException {
         if(this.type == FieldTypeEnum.OBJECT) {
@@ -104,11 +127,11 @@ public class Field {
                 throw new ValidityException("classname can't be null");
             }
             if(jt.charAt(0) != 'L') {
-                throw new ValidityException("invalid object field type descriptor: " + classname.value);
+                throw new ValidityException("invalid object field type descriptor: " + classname.getValue());
             }
             int end = jt.indexOf(';');
             if(end == -1 || end != (jt.length()-1)) {
-                throw new ValidityException("invalid object field type descriptor (must end with semicolon): " + classname.value);
+                throw new ValidityException("invalid object field type descriptor (must end with semicolon): " + classname.getValue());
             }
         }
     }
@@ -0,0 +1,177 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import java.io.ObjectStreamConstants;
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * Slot layout of the serialized fields of a class and its superclasses, used by Instance
+ * to store field values without per-object maps.  The fields of every serializable class
+ * in the hierarchy are flattened, superclasses first, in the order they appear in the
+ * stream.  Each primitive field is assigned a slot in a long[], and each object or array
+ * field a slot in an Object[].
+ * </p>
+ *
+ * <p>
+ * A layout is computed once per class description; see ClassDesc.getFieldLayout().
+ * </p>
+ */
+public class FieldLayout {
+
+    private final ClassDesc[] classes;
+    private final int[] classstart;
+    private final Field[] fields;
+    private final int[] owners;
+    private final int[] slots;
+    private final int primcount;
+    private final int refcount;
+
+    /**
+     * Constructor.
+     *
+     * @param cd the class description of the instances
+     */
+    public FieldLayout(ClassDesc cd) {
+        ArrayList<ClassDesc> hierarchy = new ArrayList<ClassDesc>();
+        cd.getHierarchy(hierarchy);
+        ArrayList<ClassDesc> serializable = new ArrayList<ClassDesc>();
+        int count = 0;
+        for(ClassDesc c: hierarchy) {
+            if((c.descflags & ObjectStreamConstants.SC_SERIALIZABLE) != 0) {
+                serializable.add(c);
+                count += (c.fields == null ? 0 : c.fields.length);
+            }
+        }
+        classes = serializable.toArray(new ClassDesc[0]);
+        classstart = new int[classes.length + 1];
+        fields = new Field[count];
+        owners = new int[count];
+        slots = new int[count];
+        int n = 0, prims = 0, refs = 0;
+        for(int i = 0; i < classes.length; i++) {
+            classstart[i] = n;
+            if(classes[i].fields != null) {
+                for(Field f: classes[i].fields) {
+                    fields[n] = f;
+                    owners[n] = i;
+                    slots[n] = f.type.isPrimitive() ? prims++ : refs++;
+                    n++;
+                }
+            }
+        }
+        classstart[classes.length] = n;
+        primcount = prims;
+        refcount = refs;
+    }
+
+    /**
+     * @return the serializable classes of the hierarchy, superclasses first
+     */
+    public ClassDesc[] getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the total number of fields
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * @return the number of primitive slots
+     */
+    public int getPrimitiveCount() {
+        return primcount;
+    }
+
+    /**
+     * @return the number of object slots
+     */
+    public int getReferenceCount() {
+        return refcount;
+    }
+
+    /**
+     * @param index the index of a field in the flattened layout
+     * @return the field
+     */
+    public Field getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * @param index the index of a field in the flattened layout
+     * @return the class that declares the field
+     */
+    public ClassDesc getDeclaringClass(int index) {
+        return classes[owners[index]];
+    }
+
+    /**
+     * Gets the slot of a field: an index into the primitive values if the field has a
+     * primitive type, and into the object values otherwise.
+     *
+     * @param index the index of a field in the flattened layout
+     * @return the slot
+     */
+    public int getSlot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Gets the range of flattened indexes of the fields of one class.
+     *
+     * @param classindex the index of the class in getClasses()
+     * @return the index of the class's first field
+     */
+    public int getClassStart(int classindex) {
+        return classstart[classindex];
+    }
+
+    /**
+     * @param classindex the index of the class in getClasses()
+     * @return one past the index of the class's last field
+     */
+    public int getClassEnd(int classindex) {
+        return classstart[classindex + 1];
+    }
+
+    /**
+     * Finds a field by declaring class and field.
+     *
+     * @param cd the declaring class
+     * @param f the field
+     * @return the flattened index of the field, or -1 if it isn't part of the layout
+     */
+    public int indexOf(ClassDesc cd, Field f) {
+        for(int i = classes.length - 1; i >= 0; i--) {
+            if(classes[i] == cd) {
+                for(int j = classstart[i]; j < classstart[i+1]; j++) {
+                    if(fields[j] == f) {
+                        return j;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a field by name.  If a subclass declares a field with the same name as one of
+     * its superclasses, the subclass's field is found.
+     *
+     * @param name the field name
+     * @return the flattened index of the field, or -1 if there is no such field
+     */
+    public int indexOf(String name) {
+        for(int i = fields.length - 1; i >= 0; i--) {
+            if(fields[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -66,6 +66,39 @@ public enum FieldTypeEnum {
      */
     public char ch() { return ch; }
 
+    /**
+     * Tells whether this is a primitive type, as opposed to a reference or array type.
+     *
+     * @return true iff values of this type are primitives
+     */
+    public boolean isPrimitive() {
+        return this != ARRAY && this != OBJECT;
+    }
+
+    /**
+     * Gets the number of bytes a value of this type occupies in the stream.
+     *
+     * @return the size of a primitive value, or 0 for reference and array types
+     */
+    public int getSize() {
+        switch(this) {
+            case BYTE:
+            case BOOLEAN:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INTEGER:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
     /**
      * Given a byte containing a type code, return the corresponding enum.
      *
@@ -0,0 +1,191 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.shayartzi.jdeserialize2.util.FormatUtil;
+
+/**
+ * <p>
+ * Table of the content registered under each handle of a stream.  Handles are assigned
+ * sequentially from ObjectStreamConstants.baseWireHandle, so the table is a growable
+ * array indexed by handle - baseWireHandle, and lookups don't box or hash.
+ * </p>
+ *
+ * <p>
+ * Content isn't always registered in handle order (a class description, for instance,
+ * is registered after the type names of its fields), so the order of registration is
+ * kept separately; values() and asMap() follow it.
+ * </p>
+ *
+ * <p>
+ * When a stream is reset, its table can be frozen and kept as it is, and a new table
+ * started for the next generation of handles; asMap() exposes a table as a Map without
+ * copying it.
+ * </p>
+ */
+public class HandleTable {
+
+    private Content[] table = new Content[64];
+    private int[] order = new int[64];
+    private int size;
+    private boolean frozen;
+
+    /**
+     * Gets the content registered under a handle.
+     *
+     * @param handle the handle
+     * @return the content, or null if nothing is registered under the handle
+     */
+    public Content get(int handle) {
+        int i = handle - ObjectStreamConstants.baseWireHandle;
+        if(i < 0 || i >= table.length) {
+            return null;
+        }
+        return table[i];
+    }
+
+    /**
+     * @param handle the handle
+     * @return true if content is registered under the handle
+     */
+    public boolean contains(int handle) {
+        return get(handle) != null;
+    }
+
+    /**
+     * Registers content under a handle.
+     *
+     * @param handle the handle
+     * @param c the content
+     * @throws IOException if the handle is invalid or already in use
+     */
+    public void put(int handle, Content c) throws IOException {
+        checkFrozen();
+        int i = handle - ObjectStreamConstants.baseWireHandle;
+        if(i < 0) {
+            throw new IOException("invalid handle " + FormatUtil.hex(handle));
+        }
+        if(i >= table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, i + 1));
+        } else if(table[i] != null) {
+            throw new IOException("trying to reset handle " + FormatUtil.hex(handle));
+        }
+        if(size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+        }
+        table[i] = c;
+        order[size++] = i;
+    }
+
+    /**
+     * @return the number of registered handles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all handles.
+     */
+    public void clear() {
+        checkFrozen();
+        for(int i = 0; i < size; i++) {
+            table[order[i]] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Gets the registered content, in the order it was registered.  The list is a view;
+     * it reflects later changes to the table.
+     *
+     * @return the content
+     */
+    public List<Content> values() {
+        return new AbstractList<Content>() {
+            public Content get(int index) {
+                if(index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+                }
+                return table[order[index]];
+            }
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Makes the table read-only.  Later calls to put() and clear() throw
+     * IllegalStateException.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return true if the table has been frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkFrozen() {
+        if(frozen) {
+            throw new IllegalStateException("handle table is frozen");
+        }
+    }
+
+    /**
+     * Gets a read-only map from handle to content, in registration order.  The map is a
+     * view; it reflects later changes to the table.
+     *
+     * @return the map
+     */
+    public Map<Integer, Content> asMap() {
+        return new AbstractMap<Integer, Content>() {
+            public Content get(Object key) {
+                return key instanceof Integer ? HandleTable.this.get((Integer)key) : null;
+            }
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+            public int size() {
+                return size;
+            }
+            public Set<Map.Entry<Integer, Content>> entrySet() {
+                return new AbstractSet<Map.Entry<Integer, Content>>() {
+                    public Iterator<Map.Entry<Integer, Content>> iterator() {
+                        return new Iterator<Map.Entry<Integer, Content>>() {
+                            private int next = 0;
+                            public boolean hasNext() {
+                                return next < size;
+                            }
+                            public Map.Entry<Integer, Content> next() {
+                                if(!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int i = order[next++];
+                                return new SimpleImmutableEntry<Integer, Content>(i + ObjectStreamConstants.baseWireHandle, table[i]);
+                            }
+                        };
+                    }
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+}
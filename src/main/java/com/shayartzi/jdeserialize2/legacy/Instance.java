@@ -1,20 +1,45 @@
 package com.shayartzi.jdeserialize2.legacy;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import com.shayartzi.jdeserialize2.util.FormatUtil;
 
 /**
- * Represents an instance of a non-enum, non-Class, non-ObjectStreamClass, 
+ * <p>
+ * Represents an instance of a non-enum, non-Class, non-ObjectStreamClass,
  * non-array class, including the non-transient field values, for all classes in its
  * hierarchy and inner classes.
+ * </p>
+ *
+ * <p>
+ * Instances created by the parser store their field values in slots laid out by the
+ * class description's FieldLayout: primitives, unboxed, in a long[], and everything else
+ * in an Object[].  The typed getters (getInt(), getLong(), getRef() and so on) read the
+ * slots directly, and fielddata is a view over them that boxes values as they're read.
+ * </p>
+ *
+ * <p>
+ * An instance whose field values aren't kept, because the parser doesn't retain content
+ * or a filter rejected it, is a shell: it has no slots, and its fielddata is empty.
+ * </p>
  */
 public class Instance extends ContentBase {
-	
+
+    private static final long[] NOPRIMITIVES = new long[0];
+    private static final Object[] NOREFERENCES = new Object[0];
+
     /**
-     * Collection of field data, organized by class description.  
+     * Collection of field data, organized by class description.  For instances with field
+     * slots, this is a live view of the slots, in which existing fields can be set with
+     * put(); if it is replaced, the typed getters still read the slots.
      */
     public Map<ClassDesc, Map<Field, Object>> fielddata;
 
@@ -23,6 +48,10 @@ public class Instance extends ContentBase {
      */
     public ClassDesc classdesc;
 
+    private FieldLayout layout;
+    private long[] primitives;
+    private Object[] references;
+
     /**
      * Constructor.
      */
@@ -30,6 +59,43 @@ public class Instance extends ContentBase {
         super(ContentTypeEnum.INSTANCE);
         this.fielddata = new LinkedHashMap<ClassDesc, Map<Field, Object>>();
     }
+
+    /**
+     * Constructor for an instance that keeps its field values in slots.  All fields start
+     * out as zero, false or null.
+     *
+     * @param handle the instance's handle
+     * @param cd the class description of the instance; its hierarchy must be complete
+     */
+    public Instance(int handle, ClassDesc cd) {
+        this(handle, cd, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param handle the instance's handle
+     * @param cd the class description of the instance; its hierarchy must be complete if
+     * the field values are kept
+     * @param values true for an instance that keeps its field values in slots, false for
+     * a shell without field values
+     */
+    public Instance(int handle, ClassDesc cd, boolean values) {
+        super(ContentTypeEnum.INSTANCE);
+        this.handle = handle;
+        this.classdesc = cd;
+        if(values) {
+            this.layout = cd.getFieldLayout();
+            this.primitives = layout.getPrimitiveCount() == 0 ? NOPRIMITIVES : new long[layout.getPrimitiveCount()];
+            this.references = layout.getReferenceCount() == 0 ? NOREFERENCES : new Object[layout.getReferenceCount()];
+            this.fielddata = new FieldData();
+        } else {
+            this.primitives = NOPRIMITIVES;
+            this.references = NOREFERENCES;
+            this.fielddata = Collections.emptyMap();
+        }
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append(classdesc.name).append(' ').append("_h").append(FormatUtil.hex(handle))
@@ -41,5 +107,387 @@ public class Instance extends ContentBase {
      * Object annotation data.
      */
     public Map<ClassDesc, List<Content>> annotations;
-    
+
+    /**
+     * @return the field layout, or null if this instance doesn't use field slots, as for
+     * shells
+     */
+    public FieldLayout getFieldLayout() {
+        return layout;
+    }
+
+    /**
+     * Sets the value of a primitive field.  The value is given in the form used by the
+     * slots: the value itself for integral types and char, 1 or 0 for booleans, and the
+     * raw IEEE 754 bits for float and double.
+     *
+     * @param cd the class that declares the field
+     * @param f the field
+     * @param bits the encoded value
+     */
+    public void setPrimitiveBits(ClassDesc cd, Field f, long bits) {
+        setPrimitiveBits(slotIndex(cd, f), bits);
+    }
+
+    /**
+     * Sets the value of a primitive field by its position in the field layout, in the
+     * form getPrimitiveBits() returns.
+     *
+     * @param index the index of the field in getFieldLayout()
+     * @param bits the encoded value
+     */
+    public void setPrimitiveBits(int index, long bits) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        if(!layout.getField(index).type.isPrimitive()) {
+            throw new IllegalArgumentException("field " + layout.getField(index).name + " isn't primitive");
+        }
+        primitives[layout.getSlot(index)] = bits;
+    }
+
+    /**
+     * Sets the value of a field.  Primitive values must be given as the corresponding
+     * wrapper objects.
+     *
+     * @param cd the class that declares the field
+     * @param f the field
+     * @param value the value
+     */
+    public void setFieldValue(ClassDesc cd, Field f, Object value) {
+        setFieldValue(slotIndex(cd, f), value);
+    }
+
+    /**
+     * Sets the value of a field by its position in the field layout.  Primitive values
+     * must be given as the corresponding wrapper objects.
+     *
+     * @param index the index of the field in getFieldLayout()
+     * @param value the value
+     */
+    public void setFieldValue(int index, Object value) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        FieldTypeEnum type = layout.getField(index).type;
+        if(type.isPrimitive()) {
+            primitives[layout.getSlot(index)] = toBits(type, value);
+        } else {
+            references[layout.getSlot(index)] = value;
+        }
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a boolean field
+     */
+    public boolean getBoolean(String field) {
+        return primitive(field, FieldTypeEnum.BOOLEAN) != 0;
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a byte field
+     */
+    public byte getByte(String field) {
+        return (byte)primitive(field, FieldTypeEnum.BYTE);
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a char field
+     */
+    public char getChar(String field) {
+        return (char)primitive(field, FieldTypeEnum.CHAR);
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a short field
+     */
+    public short getShort(String field) {
+        return (short)primitive(field, FieldTypeEnum.SHORT);
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of an int field
+     */
+    public int getInt(String field) {
+        return (int)primitive(field, FieldTypeEnum.INTEGER);
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a long field
+     */
+    public long getLong(String field) {
+        return primitive(field, FieldTypeEnum.LONG);
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a float field
+     */
+    public float getFloat(String field) {
+        return Float.intBitsToFloat((int)primitive(field, FieldTypeEnum.FLOAT));
+    }
+
+    /**
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value of a double field
+     */
+    public double getDouble(String field) {
+        return Double.longBitsToDouble(primitive(field, FieldTypeEnum.DOUBLE));
+    }
+
+    /**
+     * Gets the value of an object or array field: a Content, or null.
+     *
+     * @param field the field name; see FieldLayout.indexOf(String)
+     * @return the value
+     */
+    public Object getRef(String field) {
+        int i = nameIndex(field);
+        if(layout.getField(i).type.isPrimitive()) {
+            throw new IllegalArgumentException("field " + field + " is " + layout.getField(i).type + ", not a reference");
+        }
+        return references[layout.getSlot(i)];
+    }
+
+    /**
+     * Gets the value of a primitive field by its position in the field layout, in the
+     * form setPrimitiveBits() takes.
+     *
+     * @param index the index of the field in getFieldLayout()
+     * @return the encoded value
+     */
+    public long getPrimitiveBits(int index) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        if(!layout.getField(index).type.isPrimitive()) {
+            throw new IllegalArgumentException("field " + layout.getField(index).name + " isn't primitive");
+        }
+        return primitives[layout.getSlot(index)];
+    }
+
+    /**
+     * Gets the value of a field by its position in the field layout, boxed as fielddata
+     * boxes it.
+     *
+     * @param index the index of the field in getFieldLayout()
+     * @return the value
+     */
+    public Object getValue(int index) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        return value(index);
+    }
+
+    /**
+     * Drops the field values and the annotations, releasing the objects the instance
+     * referred to, and turns the instance into a shell without field slots.  The instance
+     * keeps its handle and class.
+     */
+    public void clearFieldValues() {
+        if(layout != null) {
+            layout = null;
+            primitives = NOPRIMITIVES;
+            references = NOREFERENCES;
+            fielddata = Collections.emptyMap();
+        } else if(fielddata != null) {
+            fielddata.clear();
+        }
+        annotations = null;
+    }
+
+    private long primitive(String field, FieldTypeEnum type) {
+        int i = nameIndex(field);
+        if(layout.getField(i).type != type) {
+            throw new IllegalArgumentException("field " + field + " is " + layout.getField(i).type + ", not " + type);
+        }
+        return primitives[layout.getSlot(i)];
+    }
+
+    private int nameIndex(String field) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        int i = layout.indexOf(field);
+        if(i < 0) {
+            throw new IllegalArgumentException("no field " + field + " in " + classdesc.name);
+        }
+        return i;
+    }
+
+    private int slotIndex(ClassDesc cd, Field f) {
+        if(layout == null) {
+            throw new IllegalStateException("instance has no field slots");
+        }
+        int i = layout.indexOf(cd, f);
+        if(i < 0) {
+            throw new IllegalArgumentException("no field " + f.name + " of " + cd.name + " in " + classdesc.name);
+        }
+        return i;
+    }
+
+    private Object value(int index) {
+        Field f = layout.getField(index);
+        int slot = layout.getSlot(index);
+        if(!f.type.isPrimitive()) {
+            return references[slot];
+        }
+        long bits = primitives[slot];
+        switch(f.type) {
+            case BYTE:
+                return Byte.valueOf((byte)bits);
+            case CHAR:
+                return Character.valueOf((char)bits);
+            case SHORT:
+                return Short.valueOf((short)bits);
+            case INTEGER:
+                return Integer.valueOf((int)bits);
+            case LONG:
+                return Long.valueOf(bits);
+            case FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int)bits));
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(bits));
+            default:
+                return Boolean.valueOf(bits != 0);
+        }
+    }
+
+    private static long toBits(FieldTypeEnum type, Object value) {
+        switch(type) {
+            case BOOLEAN:
+                return ((Boolean)value).booleanValue() ? 1 : 0;
+            case CHAR:
+                return ((Character)value).charValue();
+            case FLOAT:
+                return Float.floatToRawIntBits((Float)value);
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double)value);
+            default:
+                return ((Number)value).longValue();
+        }
+    }
+
+    /**
+     * The fielddata view: one entry per serializable class in the hierarchy.
+     */
+    private class FieldData extends AbstractMap<ClassDesc, Map<Field, Object>> {
+
+        public Set<Map.Entry<ClassDesc, Map<Field, Object>>> entrySet() {
+            return new AbstractSet<Map.Entry<ClassDesc, Map<Field, Object>>>() {
+                public Iterator<Map.Entry<ClassDesc, Map<Field, Object>>> iterator() {
+                    return new Iterator<Map.Entry<ClassDesc, Map<Field, Object>>>() {
+                        private int next = 0;
+                        public boolean hasNext() {
+                            return next < layout.getClasses().length;
+                        }
+                        public Map.Entry<ClassDesc, Map<Field, Object>> next() {
+                            if(!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int c = next++;
+                            return new SimpleImmutableEntry<ClassDesc, Map<Field, Object>>(layout.getClasses()[c], new ClassFields(c));
+                        }
+                    };
+                }
+                public int size() {
+                    return layout.getClasses().length;
+                }
+            };
+        }
+
+        public Map<Field, Object> get(Object key) {
+            ClassDesc[] classes = layout.getClasses();
+            for(int c = 0; c < classes.length; c++) {
+                if(classes[c] == key) {
+                    return new ClassFields(c);
+                }
+            }
+            return null;
+        }
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        public int size() {
+            return layout.getClasses().length;
+        }
+    }
+
+    /**
+     * The fields of one class, in stream order.
+     */
+    private class ClassFields extends AbstractMap<Field, Object> {
+        private final int start;
+        private final int end;
+
+        ClassFields(int classindex) {
+            this.start = layout.getClassStart(classindex);
+            this.end = layout.getClassEnd(classindex);
+        }
+
+        private int find(Object key) {
+            for(int i = start; i < end; i++) {
+                if(layout.getField(i) == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public Set<Map.Entry<Field, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<Field, Object>>() {
+                public Iterator<Map.Entry<Field, Object>> iterator() {
+                    return new Iterator<Map.Entry<Field, Object>>() {
+                        private int next = start;
+                        public boolean hasNext() {
+                            return next < end;
+                        }
+                        public Map.Entry<Field, Object> next() {
+                            if(!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new SimpleImmutableEntry<Field, Object>(layout.getField(i), value(i));
+                        }
+                    };
+                }
+                public int size() {
+                    return end - start;
+                }
+            };
+        }
+
+        public Object get(Object key) {
+            int i = find(key);
+            return i < 0 ? null : value(i);
+        }
+
+        public boolean containsKey(Object key) {
+            return find(key) >= 0;
+        }
+
+        public Object put(Field key, Object value) {
+            int i = find(key);
+            if(i < 0) {
+                throw new IllegalArgumentException("no field " + key.name + " in this class");
+            }
+            Object old = value(i);
+            setFieldValue(i, value);
+            return old;
+        }
+
+        public int size() {
+            return end - start;
+        }
+    }
+
 }
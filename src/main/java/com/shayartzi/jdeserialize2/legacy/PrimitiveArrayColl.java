@@ -0,0 +1,213 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Collection of the values of a serialized array of primitives, backed by a primitive
+ * array of the matching Java type (int[] for an int array, and so on).  </p>
+ *
+ * <p>The typed accessors return the backing array itself, not a copy.  The List view
+ * boxes each value as it's read, so it behaves like an ArrayColl holding the
+ * corresponding wrapper objects; its size is fixed, but set() is supported.</p>
+ */
+public class PrimitiveArrayColl extends ArrayColl {
+
+    public static final long serialVersionUID = 6090321843127790912L;
+
+    private final Object array;
+
+    /**
+     * Constructor.
+     * @param ft field type of the array; must be a primitive type
+     * @param array the values, as a primitive array of the corresponding Java type
+     * @throws IllegalArgumentException if array doesn't match ft
+     */
+    public PrimitiveArrayColl(FieldTypeEnum ft, Object array) {
+        super(ft);
+        if(!ft.isPrimitive() || array == null || array.getClass() != arrayClass(ft)) {
+            throw new IllegalArgumentException("not a " + ft + " array: " + (array == null ? null : array.getClass().getName()));
+        }
+        this.array = array;
+    }
+
+    /**
+     * Gets the Java array class used to store values of the given primitive type.
+     *
+     * @param ft the field type
+     * @return the array class, such as int[].class
+     */
+    public static Class<?> arrayClass(FieldTypeEnum ft) {
+        switch(ft) {
+            case BYTE:
+                return byte[].class;
+            case CHAR:
+                return char[].class;
+            case DOUBLE:
+                return double[].class;
+            case FLOAT:
+                return float[].class;
+            case INTEGER:
+                return int[].class;
+            case LONG:
+                return long[].class;
+            case SHORT:
+                return short[].class;
+            case BOOLEAN:
+                return boolean[].class;
+            default:
+                throw new IllegalArgumentException("not a primitive type: " + ft);
+        }
+    }
+
+    /**
+     * Decodes values as they are serialized (big-endian) from a buffer into a primitive
+     * array.
+     *
+     * @param ft the field type of the values; must be a primitive type
+     * @param bb the buffer to read from; its position is advanced past the values
+     * @param array the destination, an array of arrayClass(ft)
+     * @param off the index of the first value in array
+     * @param count the number of values
+     */
+    public static void getValues(FieldTypeEnum ft, ByteBuffer bb, Object array, int off, int count) {
+        bb = bb.order(ByteOrder.BIG_ENDIAN);
+        switch(ft) {
+            case BYTE:
+                bb.get((byte[])array, off, count);
+                return;
+            case BOOLEAN: {
+                boolean[] a = (boolean[])array;
+                for(int j = 0; j < count; j++) {
+                    a[off + j] = bb.get() != 0;
+                }
+                return;
+            }
+            case CHAR:
+                bb.asCharBuffer().get((char[])array, off, count);
+                break;
+            case SHORT:
+                bb.asShortBuffer().get((short[])array, off, count);
+                break;
+            case INTEGER:
+                bb.asIntBuffer().get((int[])array, off, count);
+                break;
+            case LONG:
+                bb.asLongBuffer().get((long[])array, off, count);
+                break;
+            case FLOAT:
+                bb.asFloatBuffer().get((float[])array, off, count);
+                break;
+            case DOUBLE:
+                bb.asDoubleBuffer().get((double[])array, off, count);
+                break;
+            default:
+                throw new IllegalArgumentException("not a primitive type: " + ft);
+        }
+        bb.position(bb.position() + count * ft.getSize());
+    }
+
+    /**
+     * Gets the backing array.
+     *
+     * @return the primitive array holding the values
+     */
+    public Object getArray() {
+        return array;
+    }
+
+    /**
+     * @return the backing array of a byte array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public byte[] getByteArray() {
+        return (byte[])typed(FieldTypeEnum.BYTE);
+    }
+
+    /**
+     * @return the backing array of a char array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public char[] getCharArray() {
+        return (char[])typed(FieldTypeEnum.CHAR);
+    }
+
+    /**
+     * @return the backing array of a double array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public double[] getDoubleArray() {
+        return (double[])typed(FieldTypeEnum.DOUBLE);
+    }
+
+    /**
+     * @return the backing array of a float array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public float[] getFloatArray() {
+        return (float[])typed(FieldTypeEnum.FLOAT);
+    }
+
+    /**
+     * @return the backing array of an int array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public int[] getIntArray() {
+        return (int[])typed(FieldTypeEnum.INTEGER);
+    }
+
+    /**
+     * @return the backing array of a long array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public long[] getLongArray() {
+        return (long[])typed(FieldTypeEnum.LONG);
+    }
+
+    /**
+     * @return the backing array of a short array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public short[] getShortArray() {
+        return (short[])typed(FieldTypeEnum.SHORT);
+    }
+
+    /**
+     * @return the backing array of a boolean array
+     * @throws IllegalStateException if the array holds another type
+     */
+    public boolean[] getBooleanArray() {
+        return (boolean[])typed(FieldTypeEnum.BOOLEAN);
+    }
+
+    private Object typed(FieldTypeEnum ft) {
+        if(getFieldType() != ft) {
+            throw new IllegalStateException("array holds " + getFieldType() + " values, not " + ft);
+        }
+        return array;
+    }
+
+    public Object get(int index) {
+        return Array.get(array, index);
+    }
+
+    public Object set(int index, Object element) {
+        Object old = Array.get(array, index);
+        Array.set(array, index, element);
+        return old;
+    }
+
+    public void add(int index, Object element) {
+        throw new UnsupportedOperationException("primitive arrays have a fixed size");
+    }
+
+    public Object remove(int index) {
+        throw new UnsupportedOperationException("primitive arrays have a fixed size");
+    }
+
+    public int size() {
+        return Array.getLength(array);
+    }
+
+}
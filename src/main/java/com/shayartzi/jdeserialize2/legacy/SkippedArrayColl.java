@@ -0,0 +1,98 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Placeholder for the values of an array of primitives whose contents were skipped
+ * because they were larger than the skip threshold (see
+ * JavaSerialReader.setSkipThreshold()).  Only the type, length and offset of the values
+ * are known; the List view is empty.  </p>
+ *
+ * <p>If the stream was read from a file, read() reads the values from there.</p>
+ */
+public class SkippedArrayColl extends ArrayColl {
+
+    public static final long serialVersionUID = 3857219410587730261L;
+
+    /**
+     * Largest number of bytes read from the file at once by read().
+     */
+    private static final int READ_BYTES = 1 << 16;
+
+    private final int length;
+    private final long offset;
+
+    /**
+     * Constructor.
+     * @param ft field type of the array; must be a primitive type
+     * @param length the number of elements
+     * @param offset the offset of the first element in the source; see
+     * SerialInput.position()
+     */
+    public SkippedArrayColl(FieldTypeEnum ft, int length, long offset) {
+        super(ft);
+        if(!ft.isPrimitive()) {
+            throw new IllegalArgumentException("not a primitive type: " + ft);
+        }
+        this.length = length;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the number of elements of the array
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the offset of the first element in the source
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads the skipped values from the file the stream was read from.  The channel's
+     * position isn't changed.
+     *
+     * @param channel the file
+     * @return the values
+     * @throws IOException if the values can't be read
+     */
+    public PrimitiveArrayColl read(FileChannel channel) throws IOException {
+        FieldTypeEnum ft = getFieldType();
+        int size = ft.getSize();
+        Object values = Array.newInstance(PrimitiveArrayColl.arrayClass(ft).getComponentType(), length);
+        ByteBuffer bb = ByteBuffer.allocate((int)Math.min((long)length * size, READ_BYTES / size * size));
+        long pos = offset;
+        for(int i = 0; i < length; ) {
+            int c = Math.min(bb.capacity() / size, length - i);
+            bb.clear().limit(c * size);
+            while(bb.hasRemaining()) {
+                if(channel.read(bb, pos + bb.position()) < 0) {
+                    throw new EOFException("file truncated while reading array at " + offset);
+                }
+            }
+            bb.flip();
+            PrimitiveArrayColl.getValues(ft, bb, values, i, c);
+            pos += c * size;
+            i += c;
+        }
+        return new PrimitiveArrayColl(ft, values);
+    }
+
+    public void add(int index, Object element) {
+        throw new UnsupportedOperationException("the contents of the array were skipped");
+    }
+
+    public String toString() {
+        // Like ArrayColl, the closing bracket is left to ArrayObj.
+        return "[arraycoll sz " + length + " skipped at offset " + offset;
+    }
+
+}
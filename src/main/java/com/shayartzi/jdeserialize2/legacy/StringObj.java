@@ -1,80 +1,210 @@
 package com.shayartzi.jdeserialize2.legacy;
 
-import java.io.ByteArrayInputStream;
-import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 
 import com.shayartzi.jdeserialize2.util.FormatUtil;
+import com.shayartzi.jdeserialize2.util.ModifiedUtf8Util;
 
 /**
+ * <p>
  * Represents a serialized string object.  This is primarily used in serialized streams;
  * however, it is also used internally by other objects, since string objects have
  * handles as well.
+ * </p>
+ *
+ * <p>
+ * A string can be decoded eagerly, when it is constructed, or lazily.  A lazy string
+ * keeps the raw modified UTF-8 bytes (usually a view of the parser's source buffer) and
+ * decodes them on the first call to getValue().  The decoded value is kept if caching
+ * was requested; otherwise every call decodes again, and only the bytes are retained.
+ * The comparison methods contentEquals() and startsWith() work on the bytes directly,
+ * so filtering on lazy strings never requires decoding.
+ * </p>
  */
 public class StringObj extends ContentBase {
-	
-    public String value;
-    
-    private int readorthrow(ByteArrayInputStream bais) throws EOFException {
-        int x = bais.read();
-        if(x == -1) {
-            throw new EOFException("unexpected eof in modified utf-8 string");
-        }
-        return x;
-    }
-    
+
+    private String value;
+
+    /**
+     * The encoded string, for lazy strings; null once the string is renamed with
+     * setValue().
+     */
+    private ByteBuffer data;
+
+    private final boolean cache;
+
     public String toString() {
-        return "[String " + FormatUtil.hex(handle) + ": \"" + value + "\"]";
+        return "[String " + FormatUtil.hex(handle) + ": \"" + getValue() + "\"]";
     }
-    
+
     /**
      * Constructor.
      *
      * @param handle the string object's handle
-     * @param data the bytes corresponding to the string 
+     * @param data the bytes corresponding to the string
      * @throws IOException if an I/O or validity error occurs
      */
     public StringObj(int handle, byte[] data) throws IOException {
         super(ContentTypeEnum.STRING);
         this.handle = handle;
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        StringBuffer sb = new StringBuffer();
-        while(true) {
-            int ba = bais.read();
-            if(ba == -1) {
-                break;
+        this.value = ModifiedUtf8Util.decode(data, 0, data.length);
+        this.cache = true;
+    }
+
+    /**
+     * Constructor for a string that has already been decoded.
+     *
+     * @param handle the string object's handle
+     * @param value the string
+     */
+    public StringObj(int handle, String value) {
+        super(ContentTypeEnum.STRING);
+        this.handle = handle;
+        this.value = value;
+        this.cache = true;
+    }
+
+    /**
+     * Constructor for a lazily decoded string.  The bytes aren't validated until the
+     * string is decoded.
+     *
+     * @param handle the string object's handle
+     * @param data the modified UTF-8 bytes of the string, from the buffer's position to
+     * its limit; the buffer must not be modified afterwards
+     * @param cache true if the decoded value should be kept once getValue() is called
+     */
+    public StringObj(int handle, ByteBuffer data, boolean cache) {
+        super(ContentTypeEnum.STRING);
+        this.handle = handle;
+        this.data = data;
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the value of the string, decoding it first if necessary.
+     *
+     * @return the string
+     * @throws UncheckedIOException if a lazy string turns out to be improperly encoded
+     */
+    public String getValue() {
+        try {
+            return decodeValue();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Gets the value of the string as getValue() does, but reports an improperly encoded
+     * lazy string with a checked exception, for callers that can pass it on.
+     *
+     * @return the string
+     * @throws IOException if a lazy string turns out to be improperly encoded
+     */
+    public String decodeValue() throws IOException {
+        String v = value;
+        if(v == null) {
+            v = ModifiedUtf8Util.decode(data);
+            if(cache) {
+                value = v;
             }
-            if((ba & 0x80) == 0) {                  /* U+0001..U+007F */
-                if(ba == 0) {
-                    throw new IOException("improperly-encoded null in modified UTF8 string!");
-                }
-                sb.append((char)ba);
-            } else if((ba & 0xf0) == 0xe0) {        /* U+0800..U+FFFF */
-                int bb = readorthrow(bais);
-                if((bb & 0xc0) != 0x80) {
-                    throw new IOException("byte b in 0800-FFFF seq doesn't begin with correct prefix");
-                }
-                int bc = readorthrow(bais);
-                if((bc & 0xc0) != 0x80) {
-                    throw new IOException("byte c in 0800-FFFF seq doesn't begin with correct prefix");
+        }
+        return v;
+    }
+
+    /**
+     * Replaces the value of the string.
+     *
+     * @param value the new value
+     */
+    public void setValue(String value) {
+        this.value = value;
+        this.data = null;
+    }
+
+    /**
+     * Tells whether the string has been decoded (or was never lazy).
+     *
+     * @return true if getValue() doesn't need to decode
+     */
+    public boolean isDecoded() {
+        return value != null;
+    }
+
+    /**
+     * Compares this string to s, without decoding it.
+     *
+     * @param s the string to compare to
+     * @return true if the strings are equal
+     */
+    public boolean contentEquals(String s) {
+        if(data == null || value != null) {
+            return getValue().equals(s);
+        }
+        return compareEncoded(s) == data.remaining();
+    }
+
+    /**
+     * Compares this string to another string object, comparing the encoded bytes if
+     * both are lazy.
+     *
+     * @param so the string object to compare to
+     * @return true if the strings are equal
+     */
+    public boolean contentEquals(StringObj so) {
+        if(data != null && so.data != null) {
+            return data.equals(so.data);
+        }
+        if(data != null) {
+            return contentEquals(so.getValue());
+        }
+        return so.contentEquals(getValue());
+    }
+
+    /**
+     * Tells whether this string starts with prefix, without decoding it.
+     *
+     * @param prefix the prefix
+     * @return true if the string starts with prefix
+     */
+    public boolean startsWith(String prefix) {
+        if(data == null || value != null) {
+            return getValue().startsWith(prefix);
+        }
+        return compareEncoded(prefix) >= 0;
+    }
+
+    /**
+     * Matches the modified UTF-8 encoding of s against the start of the data.
+     *
+     * @return the number of bytes matched, or -1 if s isn't a prefix of the data
+     */
+    private int compareEncoded(String s) {
+        int pos = data.position(), end = data.limit();
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c >= 0x01 && c <= 0x7f) {
+                if(pos >= end || data.get(pos++) != (byte)c) {
+                    return -1;
                 }
-                int cp = 
-                    ((ba & 0xf) << 12)
-                    | ((bb & 0x3f) << 6)
-                    | (bc & 0x3f);
-                sb.append((char)cp);
-            } else if((ba & 0xe0) == 0xc0) {        /* U+0080..U+07FF */
-                int bb = readorthrow(bais);
-                if((bb & 0xc0) != 0x80) {
-                    throw new IOException("byte b in 0080-07FF seq doesn't begin with correct prefix");
+            } else if(c <= 0x7ff) {
+                if(end - pos < 2
+                        || data.get(pos++) != (byte)(0xc0 | (c >> 6))
+                        || data.get(pos++) != (byte)(0x80 | (c & 0x3f))) {
+                    return -1;
                 }
-                int cp = ((ba & 0x1f) << 6) | (bb & 0x3f);
-                sb.append((char)cp);
             } else {
-                throw new IOException("invalid byte in modified utf-8 string: " + FormatUtil.hex(ba));
+                if(end - pos < 3
+                        || data.get(pos++) != (byte)(0xe0 | (c >> 12))
+                        || data.get(pos++) != (byte)(0x80 | ((c >> 6) & 0x3f))
+                        || data.get(pos++) != (byte)(0x80 | (c & 0x3f))) {
+                    return -1;
+                }
             }
         }
-        this.value = sb.toString();
+        return pos - data.position();
     }
-    
+
 }
@@ -0,0 +1,188 @@
+package com.shayartzi.jdeserialize2.util;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>
+ * Writer for large amounts of text, such as the dump of a big stream.  Characters are
+ * collected in a reusable char buffer, encoded into a reusable byte buffer, and written
+ * to a channel only when the byte buffer is full or on flush(); nothing is allocated
+ * per write.  The encoding is done as OutputStreamWriter does it, including the
+ * replacement of characters the charset can't encode, so the bytes written are the
+ * same.
+ * </p>
+ *
+ * <p>
+ * Unlike most writers, this one isn't synchronized: it's meant to be used by a single
+ * thread.
+ * </p>
+ */
+public class ChannelWriter extends Writer {
+
+    /**
+     * Default size of the char and byte buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final CharsetEncoder encoder;
+    private final char[] cbuf;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private int count;
+    private boolean closed;
+
+    /**
+     * Constructor for a writer in the default charset, which leaves the channel open when
+     * it's closed.
+     *
+     * @param channel the channel to write to
+     */
+    public ChannelWriter(WritableByteChannel channel) {
+        this(channel, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to write to
+     * @param charset the charset to encode the text in
+     * @param bufferSize the size of the buffers, in chars and in bytes
+     * @param closeChannel true if close() should close the channel as well
+     */
+    public ChannelWriter(WritableByteChannel channel, Charset charset, int bufferSize, boolean closeChannel) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.cbuf = new char[bufferSize];
+        this.chars = CharBuffer.wrap(cbuf);
+        this.bytes = ByteBuffer.allocate(Math.max(bufferSize, (int)Math.ceil(encoder.maxBytesPerChar())));
+    }
+
+    /**
+     * Creates a writer for the standard output of the process, which bypasses
+     * System.out and its buffering.  Anything written to System.out should be flushed
+     * before this writer is.
+     *
+     * @return the writer
+     */
+    public static ChannelWriter stdout() {
+        return new ChannelWriter(new FileOutputStream(FileDescriptor.out).getChannel());
+    }
+
+    public void write(int c) throws IOException {
+        if(count == cbuf.length) {
+            encode();
+        }
+        cbuf[count++] = (char)c;
+    }
+
+    public void write(char[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            if(count == cbuf.length) {
+                encode();
+            }
+            int n = Math.min(len, cbuf.length - count);
+            System.arraycopy(b, off, cbuf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    public void write(String s, int off, int len) throws IOException {
+        while(len > 0) {
+            if(count == cbuf.length) {
+                encode();
+            }
+            int n = Math.min(len, cbuf.length - count);
+            s.getChars(off, off + n, cbuf, count);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public Writer append(CharSequence csq) throws IOException {
+        String s = String.valueOf(csq);
+        write(s, 0, s.length());
+        return this;
+    }
+
+    /**
+     * Encodes the collected chars into the byte buffer, writing it out whenever it fills
+     * up.  A high surrogate at the end is kept for the next call.
+     */
+    private void encode() throws IOException {
+        chars.limit(count).position(0);
+        while(true) {
+            CoderResult cr = encoder.encode(chars, bytes, false);
+            if(cr.isOverflow()) {
+                writeBytes();
+            } else if(cr.isError()) {
+                cr.throwException();
+            } else {
+                break;
+            }
+        }
+        int left = chars.remaining();
+        System.arraycopy(cbuf, chars.position(), cbuf, 0, left);
+        count = left;
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    public void flush() throws IOException {
+        if(closed) {
+            return;
+        }
+        encode();
+        writeBytes();
+    }
+
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        try {
+            encode();
+            chars.limit(count).position(0);
+            while(encoder.encode(chars, bytes, true).isOverflow()) {
+                writeBytes();
+            }
+            while(encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        } finally {
+            closed = true;
+            if(closeChannel) {
+                channel.close();
+            }
+        }
+    }
+
+}
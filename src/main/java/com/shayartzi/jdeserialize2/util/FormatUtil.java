@@ -1,11 +1,48 @@
 package com.shayartzi.jdeserialize2.util;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public class FormatUtil {
 	
 	private static String linesep = null;
+
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * Buffer for writeHex(), reused by each thread's calls.
+	 */
+	private static final ThreadLocal<char[]> HEXBUF = ThreadLocal.withInitial(() -> new char[20]);
 	
 	public static String hex(long value) {
-        return "0x" + hexnoprefix(value);
+        char[] buf = new char[20];
+        int start = hexDigits(value, 2, buf);
+        if(start < 0) {
+            return "0x" + hexnoprefix(value);
+        }
+        buf[--start] = 'x';
+        buf[--start] = '0';
+        return new String(buf, start, buf.length - start);
+    }
+
+    /**
+     * Writes hex(value) without building a string: the digits are formatted in place, in
+     * a buffer that the calling thread reuses.
+     *
+     * @param w the writer
+     * @param value the value
+     * @throws IOException if the writer fails
+     */
+    public static void writeHex(Writer w, long value) throws IOException {
+        char[] buf = HEXBUF.get();
+        int start = hexDigits(value, 2, buf);
+        if(start < 0) {
+            w.write(hex(value));
+            return;
+        }
+        buf[--start] = 'x';
+        buf[--start] = '0';
+        w.write(buf, start, buf.length - start);
     }
 	
 	public static String hexnoprefix(long value) {
@@ -13,6 +50,13 @@ public class FormatUtil {
     }
 	
     public static String hexnoprefix(long value, int len) {
+        if(len <= 16) {
+            char[] buf = new char[16];
+            int start = hexDigits(value, len, buf);
+            if(start >= 0) {
+                return new String(buf, start, buf.length - start);
+            }
+        }
         if(value < 0) {
             value = 256 + value;
         }
@@ -22,6 +66,31 @@ public class FormatUtil {
         }
         return s;
     }
+
+    /**
+     * Formats a value as hexnoprefix() does into the end of buf, from a digit table.
+     *
+     * @return the index of the first digit, or -1 if the value is negative even after
+     * the adjustment hexnoprefix() makes
+     */
+    private static int hexDigits(long value, int len, char[] buf) {
+        if(value < 0) {
+            value = 256 + value;
+            if(value < 0) {
+                return -1;
+            }
+        }
+        int pos = buf.length;
+        do {
+            buf[--pos] = DIGITS[(int)(value & 0xf)];
+            value >>>= 4;
+        } while(value != 0);
+        int end = buf.length;
+        while(end - pos < len) {
+            buf[--pos] = '0';
+        }
+        return pos;
+    }
     
     public static String getLineSeperator() {
     	if (linesep == null) {
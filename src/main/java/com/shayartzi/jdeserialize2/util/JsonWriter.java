@@ -0,0 +1,305 @@
+package com.shayartzi.jdeserialize2.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Writes JSON text to a Writer as it's produced: values are written the moment they're
+ * given, and only the nesting of the open objects and arrays is remembered, so the
+ * memory used doesn't grow with the output.  The output is compact, without whitespace.
+ * </p>
+ *
+ * <p>
+ * Strings are escaped as RFC 8259 requires, and unpaired surrogates, which Java strings
+ * (and modified UTF-8) allow but no charset can encode, are written as unicode escapes,
+ * so that they survive the encoding.  So are U+2028 and U+2029, which JavaScript doesn't
+ * accept in string literals.  Non-finite floating-point numbers have no JSON form;
+ * they're written as the strings "NaN", "Infinity" and "-Infinity".
+ * </p>
+ *
+ * <p>
+ * Calls that would produce invalid JSON, such as a value in an object without a name,
+ * throw IllegalStateException.  Several top-level values may be written one after the
+ * other, separated by newLine(), as in NDJSON.
+ * </p>
+ */
+public class JsonWriter {
+
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY = 1;
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final Writer out;
+    private final char[] scratch = new char[1024];
+
+    /**
+     * The kind of each open object or array, and whether it has a member yet.
+     */
+    private byte[] kinds = new byte[32];
+    private boolean[] nonempty = new boolean[32];
+    private int depth;
+    private boolean named;
+    private boolean topLevelWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param out the writer to write the JSON text to
+     */
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the number of objects and arrays that are open
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push(OBJECT);
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop(OBJECT);
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push(ARRAY);
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop(ARRAY);
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name the name
+     * @return this writer
+     */
+    public JsonWriter name(String name) throws IOException {
+        if(depth == 0 || kinds[depth-1] != OBJECT || named) {
+            throw new IllegalStateException("a name is only allowed before a value in an object");
+        }
+        if(nonempty[depth-1]) {
+            out.write(',');
+        }
+        nonempty[depth-1] = true;
+        writeString(name);
+        out.write(':');
+        named = true;
+        return this;
+    }
+
+    /**
+     * @param value the string, or null
+     * @return this writer
+     */
+    public JsonWriter value(String value) throws IOException {
+        if(value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            return value(Double.toString(value));
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a float with the digits Float.toString() gives, rather than those of the
+     * double it widens to.
+     *
+     * @param value the number
+     * @return this writer
+     */
+    public JsonWriter value(float value) throws IOException {
+        if(Float.isNaN(value) || Float.isInfinite(value)) {
+            return value(Float.toString(value));
+        }
+        beforeValue();
+        out.write(Float.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Writes bytes as a base64 string (RFC 4648, with padding), a chunk at a time.
+     *
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return this writer
+     */
+    public JsonWriter base64Value(byte[] b, int off, int len) throws IOException {
+        beforeValue();
+        out.write('"');
+        int end = off + len;
+        int n = 0;
+        for(int i = off; i < end; i += 3) {
+            if(n > scratch.length - 4) {
+                out.write(scratch, 0, n);
+                n = 0;
+            }
+            int rest = end - i;
+            int bits = (b[i] & 0xff) << 16
+                    | (rest > 1 ? (b[i+1] & 0xff) << 8 : 0)
+                    | (rest > 2 ? (b[i+2] & 0xff) : 0);
+            scratch[n++] = BASE64[bits >>> 18];
+            scratch[n++] = BASE64[(bits >>> 12) & 0x3f];
+            scratch[n++] = (rest > 1 ? BASE64[(bits >>> 6) & 0x3f] : '=');
+            scratch[n++] = (rest > 2 ? BASE64[bits & 0x3f] : '=');
+        }
+        out.write(scratch, 0, n);
+        out.write('"');
+        return this;
+    }
+
+    /**
+     * Ends a top-level value with a line feed, as NDJSON separates its records.
+     *
+     * @return this writer
+     * @throws IllegalStateException if an object or array is still open
+     */
+    public JsonWriter newLine() throws IOException {
+        if(depth != 0) {
+            throw new IllegalStateException("newLine() inside an object or array");
+        }
+        out.write('\n');
+        topLevelWritten = false;
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void beforeValue() throws IOException {
+        if(depth == 0) {
+            if(topLevelWritten) {
+                throw new IllegalStateException("a top-level value was already written; call newLine() first");
+            }
+            topLevelWritten = true;
+            return;
+        }
+        if(kinds[depth-1] == OBJECT) {
+            if(!named) {
+                throw new IllegalStateException("a value in an object needs a name");
+            }
+            named = false;
+            return;
+        }
+        if(nonempty[depth-1]) {
+            out.write(',');
+        }
+        nonempty[depth-1] = true;
+    }
+
+    private void push(byte kind) {
+        if(depth == kinds.length) {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            nonempty = Arrays.copyOf(nonempty, depth * 2);
+        }
+        kinds[depth] = kind;
+        nonempty[depth] = false;
+        depth++;
+    }
+
+    private void pop(byte kind) {
+        if(depth == 0 || kinds[depth-1] != kind || named) {
+            throw new IllegalStateException("no " + (kind == OBJECT ? "object" : "array") + " to end");
+        }
+        depth--;
+    }
+
+    /**
+     * Writes a quoted string, copying runs of characters that don't need escaping in one
+     * write.
+     */
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        int len = s.length();
+        int run = 0;
+        for(int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            String esc = null;
+            if(c == '"') {
+                esc = "\\\"";
+            } else if(c == '\\') {
+                esc = "\\\\";
+            } else if(c == '\n') {
+                esc = "\\n";
+            } else if(c == '\r') {
+                esc = "\\r";
+            } else if(c == '\t') {
+                esc = "\\t";
+            } else if(c < 0x20 || c == 0x2028 || c == 0x2029) {
+                esc = unicodeEscape(c);
+            } else if(Character.isHighSurrogate(c)) {
+                if(i + 1 < len && Character.isLowSurrogate(s.charAt(i+1))) {
+                    i++;
+                    continue;
+                }
+                esc = unicodeEscape(c);
+            } else if(Character.isLowSurrogate(c)) {
+                esc = unicodeEscape(c);
+            } else {
+                continue;
+            }
+            if(i > run) {
+                out.write(s, run, i - run);
+            }
+            out.write(esc);
+            run = i + 1;
+        }
+        if(len > run) {
+            out.write(s, run, len - run);
+        }
+        out.write('"');
+    }
+
+    private static String unicodeEscape(char c) {
+        return "\\u" + FormatUtil.hexnoprefix(c, 4);
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.shayartzi.jdeserialize2.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Decoder for the modified UTF-8 encoding used by serialized strings, class names and
+ * field names.  Validation is strict: a raw null byte, a truncated sequence, a bad
+ * continuation byte or a 4-byte form all cause an exception.
+ * </p>
+ *
+ * <p>
+ * Most strings in a stream are plain ASCII, so the input is first scanned eight bytes
+ * at a time; if every byte is in 0x01..0x7f the string is built straight from the bytes
+ * as Latin-1, without an intermediate char array.  Otherwise decoding continues into a
+ * Latin-1 byte array for as long as every character fits in one byte, and switches to
+ * a char array, sized from the byte length, at the first one that doesn't.
+ * </p>
+ *
+ * <p>
+ * encode() does the reverse, for comparing decoded names with the bytes in a stream.
+ * </p>
+ */
+public class ModifiedUtf8Util {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /**
+     * Decodes the bytes from the buffer's position to its limit.  The buffer's position
+     * isn't changed.
+     *
+     * @param data the encoded string
+     * @return the decoded string
+     * @throws IOException if the data isn't valid modified UTF-8
+     */
+    public static String decode(ByteBuffer data) throws IOException {
+        if(data.hasArray()) {
+            return decode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        byte[] b = new byte[data.remaining()];
+        data.duplicate().get(b);
+        return decode(b, 0, b.length);
+    }
+
+    /**
+     * Decodes len bytes of b, starting at off.
+     *
+     * @param b the array holding the encoded string
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @return the decoded string
+     * @throws IOException if the data isn't valid modified UTF-8
+     */
+    public static String decode(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int pos = off;
+        // A word has only bytes in 0x01..0x7f iff neither it nor (it - 0x01 per byte) has
+        // a high bit set; anything else (including borrows) just ends the fast scan.
+        while(end - pos >= 8) {
+            long w = (long)LONGS.get(b, pos);
+            if(((w | (w - ONES)) & HIGHS) != 0) {
+                break;
+            }
+            pos += 8;
+        }
+        while(pos < end && b[pos] > 0) {
+            pos++;
+        }
+        if(pos == end) {
+            return new String(b, off, len, StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] latin1 = new byte[len];
+        int n = pos - off;
+        System.arraycopy(b, off, latin1, 0, n);
+        char[] chars = null;
+        while(pos < end) {
+            int ba = b[pos++] & 0xff;
+            int cp;
+            if((ba & 0x80) == 0) {                  /* U+0001..U+007F */
+                if(ba == 0) {
+                    throw new UTFDataFormatException("improperly-encoded null in modified UTF8 string!");
+                }
+                cp = ba;
+            } else if((ba & 0xf0) == 0xe0) {        /* U+0800..U+FFFF */
+                if(pos >= end) {
+                    throw new EOFException("unexpected eof in modified utf-8 string");
+                }
+                int bb = b[pos++] & 0xff;
+                if((bb & 0xc0) != 0x80) {
+                    throw new UTFDataFormatException("byte b in 0800-FFFF seq doesn't begin with correct prefix");
+                }
+                if(pos >= end) {
+                    throw new EOFException("unexpected eof in modified utf-8 string");
+                }
+                int bc = b[pos++] & 0xff;
+                if((bc & 0xc0) != 0x80) {
+                    throw new UTFDataFormatException("byte c in 0800-FFFF seq doesn't begin with correct prefix");
+                }
+                cp = ((ba & 0xf) << 12)
+                    | ((bb & 0x3f) << 6)
+                    | (bc & 0x3f);
+            } else if((ba & 0xe0) == 0xc0) {        /* U+0080..U+07FF */
+                if(pos >= end) {
+                    throw new EOFException("unexpected eof in modified utf-8 string");
+                }
+                int bb = b[pos++] & 0xff;
+                if((bb & 0xc0) != 0x80) {
+                    throw new UTFDataFormatException("byte b in 0080-07FF seq doesn't begin with correct prefix");
+                }
+                cp = ((ba & 0x1f) << 6) | (bb & 0x3f);
+            } else {
+                throw new UTFDataFormatException("invalid byte in modified utf-8 string: " + FormatUtil.hex(ba));
+            }
+            if(chars != null) {
+                chars[n++] = (char)cp;
+            } else if(cp <= 0xff) {
+                latin1[n++] = (byte)cp;
+            } else {
+                chars = new char[len];
+                for(int i = 0; i < n; i++) {
+                    chars[i] = (char)(latin1[i] & 0xff);
+                }
+                chars[n++] = (char)cp;
+            }
+        }
+        if(chars != null) {
+            return new String(chars, 0, n);
+        }
+        return new String(latin1, 0, n, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encodes a string in modified UTF-8, without the length that DataOutput.writeUTF()
+     * writes before it.
+     *
+     * @param s the string
+     * @return the encoded string
+     */
+    public static byte[] encode(String s) {
+        int len = 0;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            len += (c >= 0x01 && c <= 0x7f) ? 1 : (c <= 0x7ff ? 2 : 3);
+        }
+        byte[] b = new byte[len];
+        int pos = 0;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c >= 0x01 && c <= 0x7f) {
+                b[pos++] = (byte)c;
+            } else if(c <= 0x7ff) {
+                b[pos++] = (byte)(0xc0 | (c >> 6));
+                b[pos++] = (byte)(0x80 | (c & 0x3f));
+            } else {
+                b[pos++] = (byte)(0xe0 | (c >> 12));
+                b[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                b[pos++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return b;
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.shayartzi.jdeserialize2.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Expands the file arguments of the command-line tool: directories are walked
+ * recursively, and glob patterns (see FileSystem.getPathMatcher()) are matched against the
+ * files below the directory their fixed part names.
+ */
+public class PathUtil {
+
+    /**
+     * Tells whether a file argument is a glob pattern rather than a file name.  An
+     * existing file is never a pattern, even if its name has glob characters.
+     *
+     * @param arg the argument
+     * @return true if the argument contains *, ?, [ or { and doesn't name a file
+     */
+    public static boolean isGlob(String arg) {
+        boolean glob = false;
+        for(int i = 0; i < arg.length() && !glob; i++) {
+            char c = arg.charAt(i);
+            glob = (c == '*' || c == '?' || c == '[' || c == '{');
+        }
+        if(!glob) {
+            return false;
+        }
+        try {
+            return !Files.exists(Paths.get(arg));
+        } catch (RuntimeException invalidpath) {
+            return true;
+        }
+    }
+
+    /**
+     * <p>
+     * Expands file arguments into the files to process.  A directory is replaced by the
+     * regular files below it, and a glob pattern by the regular files it matches; both
+     * are sorted by path, so the order is the same on every run.  Other arguments are
+     * kept as they are, whether or not the file exists.
+     * </p>
+     *
+     * <p>
+     * A pattern is matched against paths relative to the directory named by its leading
+     * components without glob characters (or the current directory): for instance,
+     * "captures/*&#47;*.ser" looks for .ser files one level below "captures", and
+     * "captures/**.ser" at any level.
+     * </p>
+     *
+     * @param args the arguments
+     * @return the file names
+     * @throws IOException if a directory can't be read
+     */
+    public static List<String> expandArguments(List<String> args) throws IOException {
+        List<String> files = new ArrayList<String>();
+        for(String arg: args) {
+            if(isGlob(arg)) {
+                files.addAll(expandGlob(arg));
+            } else if(Files.isDirectory(Paths.get(arg))) {
+                files.addAll(walk(Paths.get(arg), -1, null));
+            } else {
+                files.add(arg);
+            }
+        }
+        return files;
+    }
+
+    private static List<String> expandGlob(String pattern) throws IOException {
+        String normalized = pattern.replace(File.separatorChar, '/');
+        String[] parts = normalized.split("/", -1);
+        StringBuilder base = new StringBuilder();
+        int i = 0;
+        for(; i < parts.length - 1 && !isGlobPart(parts[i]); i++) {
+            base.append(parts[i]).append('/');
+        }
+        StringBuilder rest = new StringBuilder();
+        for(int j = i; j < parts.length; j++) {
+            rest.append(j > i ? "/" : "").append(parts[j]);
+        }
+        Path dir = Paths.get(base.length() == 0 ? "." : base.toString());
+        if(!Files.isDirectory(dir)) {
+            return new ArrayList<String>();
+        }
+        int depth = (rest.indexOf("**") >= 0 ? -1 : parts.length - i);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+        List<String> files = walk(dir, depth, matcher);
+        if(base.length() == 0) {
+            // Keep the names as the user wrote them, without a leading "./".
+            for(int k = 0; k < files.size(); k++) {
+                files.set(k, dir.relativize(Paths.get(files.get(k))).toString());
+            }
+        }
+        return files;
+    }
+
+    private static boolean isGlobPart(String part) {
+        return part.indexOf('*') >= 0 || part.indexOf('?') >= 0 || part.indexOf('[') >= 0 || part.indexOf('{') >= 0;
+    }
+
+    private static List<String> walk(Path dir, int depth, PathMatcher matcher) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir, depth < 0 ? Integer.MAX_VALUE : depth)) {
+            return paths.filter(p -> Files.isRegularFile(p))
+                    .filter(p -> matcher == null || matcher.matches(dir.relativize(p)))
+                    .sorted()
+                    .map(Path::toString)
+                    .collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.shayartzi.jdeserialize2.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Bounded, thread-safe table of decoded strings, keyed on their modified UTF-8 bytes, so
+ * that a string seen before is neither decoded again nor kept twice.  One table can be
+ * shared by the parses of many streams, whose class names, field names and common
+ * values (such as enum constant names) are mostly the same.
+ * </p>
+ *
+ * <p>
+ * The table holds at most maxSize strings of at most maxLength encoded bytes; longer
+ * strings are decoded as usual.  When it's full, the eviction policy decides what
+ * happens: LRU drops the least recently used string, while CAPPED keeps what it has and
+ * stops adding.  LRU adapts to a changing set of strings at the cost of some locking;
+ * the table is split into segments that are locked separately.  CAPPED lookups don't
+ * lock at all.
+ * </p>
+ *
+ * <p>
+ * LRU is approximate: each segment holds its share of maxSize and evicts its own least
+ * recently used string, so a string can be dropped from a full segment while older
+ * strings stay in others.  The segments together never hold more than maxSize.
+ * </p>
+ */
+public class StringInterner {
+
+    /**
+     * What to do when the table is full.
+     */
+    public enum Eviction {
+        /**
+         * Drop the least recently used string.
+         */
+        LRU,
+        /**
+         * Don't add any more strings.
+         */
+        CAPPED
+    }
+
+    /**
+     * Default maximum number of encoded bytes of a string to intern.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    private static final int SEGMENTS = 16;
+
+    private final int maxSize;
+    private final int maxLength;
+    private final Eviction eviction;
+    private final ConcurrentHashMap<ByteBuffer, String> capped;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A part of an LRU table, in access order.
+     */
+    private static final class Segment extends LinkedHashMap<ByteBuffer, String> {
+        private static final long serialVersionUID = 1L;
+        private final int max;
+
+        Segment(int max) {
+            super(16, 0.75f, true);
+            this.max = max;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, String> eldest) {
+            return size() > max;
+        }
+    }
+
+    /**
+     * Constructor for a table of strings of up to DEFAULT_MAX_LENGTH bytes.
+     *
+     * @param maxSize the maximum number of strings
+     * @param eviction what to do when the table is full
+     */
+    public StringInterner(int maxSize, Eviction eviction) {
+        this(maxSize, DEFAULT_MAX_LENGTH, eviction);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum number of strings
+     * @param maxLength the maximum number of encoded bytes of a string to intern
+     * @param eviction what to do when the table is full
+     */
+    public StringInterner(int maxSize, int maxLength, Eviction eviction) {
+        if(maxSize < 0 || maxLength < 0) {
+            throw new IllegalArgumentException("invalid string table size: " + maxSize + " strings of " + maxLength + " bytes");
+        }
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+        this.eviction = eviction;
+        if(eviction == Eviction.LRU) {
+            int n = Math.max(1, Math.min(SEGMENTS, maxSize / 64));
+            segments = new Segment[n];
+            for(int i = 0; i < n; i++) {
+                // The first maxSize % n segments take one extra string, so the sizes
+                // add up to maxSize exactly.
+                segments[i] = new Segment(maxSize / n + (i < maxSize % n ? 1 : 0));
+            }
+            capped = null;
+        } else {
+            segments = null;
+            capped = new ConcurrentHashMap<ByteBuffer, String>();
+        }
+    }
+
+    /**
+     * Gets the string encoded by the given bytes, decoding it only if it isn't in the
+     * table.
+     *
+     * @param raw the encoded string, from its position to its limit; not modified or
+     * kept
+     * @return the string
+     * @throws IOException if the bytes aren't valid modified UTF-8
+     */
+    public String intern(ByteBuffer raw) throws IOException {
+        if(raw.remaining() > maxLength || maxSize == 0) {
+            return ModifiedUtf8Util.decode(raw);
+        }
+        String s;
+        Segment segment = null;
+        if(segments != null) {
+            segment = segments[(raw.hashCode() & 0x7fffffff) % segments.length];
+            synchronized(segment) {
+                s = segment.get(raw);
+            }
+        } else {
+            s = capped.get(raw);
+        }
+        if(s != null) {
+            hits.increment();
+            return s;
+        }
+        misses.increment();
+        s = ModifiedUtf8Util.decode(raw);
+        byte[] b = new byte[raw.remaining()];
+        raw.duplicate().get(b);
+        ByteBuffer key = ByteBuffer.wrap(b).asReadOnlyBuffer();
+        if(segment != null) {
+            synchronized(segment) {
+                String known = segment.putIfAbsent(key, s);
+                if(known != null) {
+                    s = known;
+                }
+            }
+        } else if(capped.size() < maxSize) {
+            String known = capped.putIfAbsent(key, s);
+            if(known != null) {
+                s = known;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return the eviction policy
+     */
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    /**
+     * @return the number of lookups that found the string in the table
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that had to decode the string
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups that found the string in the table, or 0 if there
+     * were none; strings longer than maxLength aren't counted
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    /**
+     * @return the number of strings in the table
+     */
+    public int size() {
+        if(capped != null) {
+            return capped.size();
+        }
+        int n = 0;
+        for(Segment segment: segments) {
+            synchronized(segment) {
+                n += segment.size();
+            }
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class BatchSummaryTest {
+
+	@Test
+	void print_givenParsedAndFailedFiles_whenPrinted_countsFailuresAndClasses() throws Exception {
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(new Object[] { 1, 2, 3L });
+		}
+		byte[] data = bos.toByteArray();
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.run(ByteBuffer.wrap(data), false);
+
+		BatchSummary summary = new BatchSummary();
+		summary.addParsed(data.length, jd);
+		summary.addParsed(data.length, jd);
+		summary.addFailure(new EOFException());
+		summary.addFailure(new EOFException());
+		summary.addFailure(new IOException());
+		StringWriter sw = new StringWriter();
+		summary.print(new PrintWriter(sw));
+
+		// Validate
+		assertEquals(2, summary.getParsedCount());
+		assertEquals(2L * data.length, summary.getParsedBytes());
+		assertEquals(Map.of("java.io.EOFException", 2, "java.io.IOException", 1), summary.getFailures());
+		assertEquals(List.of("java.lang.Integer", "java.lang.Long"), summary.getTopClasses(2));
+		assertEquals(4, summary.getInstanceCount("java.lang.Integer"));
+		assertTrue(sw.toString().contains("files failed: 3"));
+		assertTrue(sw.toString().contains("    4 java.lang.Integer"));
+	}
+
+}
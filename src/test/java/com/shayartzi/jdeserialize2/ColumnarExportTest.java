@@ -0,0 +1,139 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
+import com.shayartzi.jdeserialize2.legacy.ValidityException;
+
+class ColumnarExportTest {
+
+	@TempDir
+	Path tempDir;
+
+	static class Base implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int id;
+	}
+
+	static class Sample extends Base {
+		private static final long serialVersionUID = 2L;
+		int id;
+		double weight;
+		boolean flag;
+		char grade;
+		long stamp;
+		String label;
+		String name;
+		TimeUnit unit;
+		Object other;
+	}
+
+	private static Sample sample(int i) {
+		Sample s = new Sample();
+		((Base)s).id = -i;
+		s.id = i;
+		s.weight = i / 4.0;
+		s.flag = (i % 2 == 0);
+		s.grade = (char)('A' + i % 3);
+		s.stamp = 1L << (i + 32);
+		s.label = (i < 6 ? "low" : "high");
+		s.name = (i == 3 ? null : "n" + i);
+		s.unit = (i % 2 == 0 ? TimeUnit.SECONDS : TimeUnit.DAYS);
+		s.other = (i % 2 == 0 ? "text" : new int[] { i });
+		return s;
+	}
+
+	private List<Path> export() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			for(int i = 0; i < 10; i++) {
+				if(i == 5) {
+					oos.reset();
+				}
+				oos.writeObject(sample(i));
+			}
+		}
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.run(ByteBuffer.wrap(bos.toByteArray()), true);
+		ColumnarExport export = new ColumnarExport(tempDir.resolve("out"));
+		export.addAll(jd);
+		assertEquals(10, export.size());
+		return export.write();
+	}
+
+	@Test
+	void write_givenInstancesAcrossResets_whenReadBack_matchesFieldValues() throws Exception {
+
+		List<Path> files = export();
+
+		// Validate
+		assertEquals(1, files.size());
+		assertEquals(Sample.class.getName() + ColumnarExport.SUFFIX, files.get(0).getFileName().toString());
+		try (ColumnFileReader r = new ColumnFileReader(files.get(0))) {
+			assertEquals(Sample.class.getName(), r.getClassName());
+			assertEquals(2L, r.getSerialVersionUID());
+			assertEquals(10, r.getRowCount());
+			assertEquals(10, r.getColumnCount());
+			assertEquals(Base.class.getName(), r.getDeclaringClass(0));
+			assertEquals(Sample.class.getName(), r.getDeclaringClass(r.findColumn("id")));
+			assertEquals(10, r.getHandles().remaining());
+			IntBuffer generations = r.getGenerations();
+			for(int i = 0; i < 10; i++) {
+				assertEquals(i < 5 ? 0 : 1, generations.get(i));
+			}
+			IntBuffer baseIds = r.getInts(0);
+			IntBuffer ids = r.getInts(r.findColumn("id"));
+			for(int i = 0; i < 10; i++) {
+				assertEquals(-i, baseIds.get(i));
+				assertEquals(i, ids.get(i));
+				assertEquals(i / 4.0, r.getDoubles(r.findColumn("weight")).get(i));
+				assertEquals(i % 2 == 0 ? 1 : 0, r.getBytes(r.findColumn("flag")).get(i));
+				assertEquals((char)('A' + i % 3), r.getChars(r.findColumn("grade")).get(i));
+				assertEquals(1L << (i + 32), r.getLongs(r.findColumn("stamp")).get(i));
+			}
+			int label = r.findColumn("label");
+			assertEquals(ColumnFileReader.DICTIONARY_RLE, r.getEncoding(label));
+			assertEquals(List.of("low", "high"), r.getDictionary(label));
+			assertArrayEquals(new int[] { 0, 0, 0, 0, 0, 0, 1, 1, 1, 1 }, r.getDictionaryIndexes(label));
+			int name = r.findColumn("name");
+			assertEquals(ColumnFileReader.DICTIONARY, r.getEncoding(name));
+			assertArrayEquals(new String[] { "n0", "n1", "n2", null, "n4", "n5", "n6", "n7", "n8", "n9" }, r.getStrings(name));
+			int unit = r.findColumn("unit");
+			assertEquals(FieldTypeEnum.OBJECT, r.getColumnType(unit));
+			assertEquals("Ljava/util/concurrent/TimeUnit;", r.getColumnClassName(unit));
+			assertEquals("DAYS", r.getStrings(unit)[1]);
+			int other = r.findColumn("other");
+			assertEquals(ColumnFileReader.HANDLES, r.getEncoding(other));
+			assertEquals(10, r.getReferences(other).remaining());
+			assertThrows(IllegalArgumentException.class, () -> r.getInts(label));
+		}
+	}
+
+	@Test
+	void open_givenOtherFile_whenRead_throwsValidityException() throws Exception {
+
+		Path file = tempDir.resolve("other.col");
+		Files.write(file, new byte[64]);
+
+		// Validate
+		assertThrows(ValidityException.class, () -> new ColumnFileReader(file));
+		assertEquals("a_b_c.ser", ColumnarExport.fileName("a/b\\c.ser"));
+	}
+
+}
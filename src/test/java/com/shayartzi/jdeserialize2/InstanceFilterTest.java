@@ -0,0 +1,189 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+
+class InstanceFilterTest {
+
+	static class User implements Serializable {
+		private static final long serialVersionUID = 1L;
+		String name;
+
+		User(String name) {
+			this.name = name;
+		}
+	}
+
+	static class Session implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int id;
+		String userId;
+		User user;
+		Session previous;
+
+		Session(int id, String userId) {
+			this.id = id;
+			this.userId = userId;
+			this.user = new User("u-" + userId);
+		}
+	}
+
+	static class SessionHolder implements Serializable {
+		private static final long serialVersionUID = 1L;
+		List<Session> sessions = new ArrayList<Session>();
+	}
+
+	private static byte[] serialize(boolean reset, Object... objects) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			for(int i = 0; i < objects.length; i++) {
+				if(reset && i > 0) {
+					oos.reset();
+				}
+				oos.writeObject(objects[i]);
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	private static Jdeserialize2 parse(byte[] data, InstanceFilter filter) throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.addFilter(filter);
+		jd.run(ByteBuffer.wrap(data), true);
+		return jd;
+	}
+
+	private static List<Instance> instances(Jdeserialize2 jd) {
+		List<Instance> found = new ArrayList<Instance>();
+		for(Map<Integer, Content> hm: jd.getHandleMaps()) {
+			for(Content c: hm.values()) {
+				if(c instanceof Instance) {
+					found.add((Instance)c);
+				}
+			}
+		}
+		return found;
+	}
+
+	@Test
+	void matchesClass_givenGlob_whenMatching_thenWildcardMatchesAnything() {
+		InstanceFilter filter = new InstanceFilter("com.acme.Session*");
+
+		// Validate
+		assertTrue(filter.matchesClass("com.acme.Session"));
+		assertTrue(filter.matchesClass("com.acme.SessionImpl"));
+		assertFalse(filter.matchesClass("com.acmeXSession"));
+		assertFalse(filter.matchesClass("org.acme.Session"));
+		assertTrue(new InstanceFilter("*$Session").matchesClass("a.b.Outer$Session"));
+		assertFalse(new InstanceFilter("Session").matchesClass("SessionImpl"));
+	}
+
+	@Test
+	void valueEquals_givenValues_whenCompared_thenComparesByContent() {
+		// Validate
+		assertTrue(InstanceFilter.valueEquals(new StringObj(0x7e0000, "X"), "X"));
+		assertFalse(InstanceFilter.valueEquals(new StringObj(0x7e0000, "Y"), "X"));
+		assertTrue(InstanceFilter.valueEquals(5, 5L));
+		assertTrue(InstanceFilter.valueEquals((short)5, 5));
+		assertTrue(InstanceFilter.valueEquals(2.5f, 2.5));
+		assertFalse(InstanceFilter.valueEquals(5, 6));
+		assertTrue(InstanceFilter.valueEquals(null, null));
+		assertFalse(InstanceFilter.valueEquals(null, "X"));
+		assertTrue(InstanceFilter.valueEquals(Boolean.TRUE, true));
+	}
+
+	@Test
+	void addFilter_givenSessions_whenParsed_thenOnlyMatchesKept() throws Exception {
+		byte[] data = serialize(false, new Session(1, "X"), new Session(2, "Y"), new Session(3, "X"));
+
+		Jdeserialize2 jd = parse(data, new InstanceFilter("*$Session").whereEquals("userId", "X"));
+
+		// Validate
+		List<Content> content = jd.getContent();
+		assertEquals(2, content.size());
+		assertEquals(1, ((Instance)content.get(0)).getInt("id"));
+		assertEquals(3, ((Instance)content.get(1)).getInt("id"));
+		Instance user = (Instance)((Instance)content.get(1)).getRef("user");
+		assertTrue(InstanceFilter.valueEquals(user.getRef("name"), "u-X"));
+		List<Instance> kept = instances(jd);
+		assertEquals(2, kept.size());
+		assertSame(content.get(0), kept.get(0));
+		assertSame(content.get(1), kept.get(1));
+	}
+
+	@Test
+	void addFilter_givenPrimitiveCondition_whenParsed_thenTestedAsDecoded() throws Exception {
+		byte[] data = serialize(false, new Session(1, "X"), new Session(2, "X"), new Session(3, "Y"));
+
+		Jdeserialize2 jd = parse(data, new InstanceFilter("*$Session")
+				.where("id", v -> ((Integer)v) >= 2)
+				.whereEquals("userId", "X"));
+
+		// Validate
+		List<Content> content = jd.getContent();
+		assertEquals(1, content.size());
+		assertEquals(2, ((Instance)content.get(0)).getInt("id"));
+	}
+
+	@Test
+	void addFilter_givenRejectedObjectReferencedAgain_whenParsed_thenBackReferenceResolves() throws Exception {
+		Session rejected = new Session(1, "Y");
+		Session kept = new Session(2, "X");
+		kept.previous = rejected;
+		SessionHolder holder = new SessionHolder();
+		holder.sessions.add(rejected);
+		holder.sessions.add(kept);
+
+		Jdeserialize2 jd = parse(serialize(false, holder), new InstanceFilter("*$Session").whereEquals("userId", "X"));
+
+		// Validate
+		assertEquals(0, jd.getContent().size());
+		List<Instance> found = instances(jd);
+		assertEquals(1, found.size());
+		Instance match = found.get(0);
+		assertEquals(2, match.getInt("id"));
+		Instance previous = (Instance)match.getRef("previous");
+		assertEquals(rejected.getClass().getName(), previous.classdesc.name);
+		assertNull(previous.getFieldLayout());
+		assertTrue(previous.fielddata.isEmpty());
+		assertThrows(IllegalStateException.class, () -> previous.getInt("id"));
+	}
+
+	@Test
+	void addFilter_givenResetsAndSegments_whenParsed_thenSameMatches() throws Exception {
+		byte[] data = serialize(true, new Session(1, "X"), new Session(2, "Y"), new Session(3, "X"), new Session(4, "Y"));
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.addFilter(new InstanceFilter("*$Session").whereEquals("userId", "X"));
+		jd.setSegmentPool(ForkJoinPool.commonPool());
+
+		jd.run(ByteBuffer.wrap(data), true);
+
+		// Validate
+		List<Content> content = jd.getContent();
+		assertEquals(2, content.size());
+		assertEquals(1, ((Instance)content.get(0)).getInt("id"));
+		assertEquals(3, ((Instance)content.get(1)).getInt("id"));
+		assertEquals(2, instances(jd).size());
+	}
+
+}
@@ -0,0 +1,224 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.shayartzi.jdeserialize2.event.ResetScanner;
+import com.shayartzi.jdeserialize2.io.ByteBufferSerialInput;
+import com.shayartzi.jdeserialize2.legacy.ArrayObj;
+import com.shayartzi.jdeserialize2.legacy.BlockData;
+import com.shayartzi.jdeserialize2.legacy.GetOpt;
+import com.shayartzi.jdeserialize2.legacy.PrimitiveArrayColl;
+import com.shayartzi.jdeserialize2.legacy.SkippedArrayColl;
+
+class Jdeserialize2Test {
+
+	@TempDir
+	Path tempDir;
+
+	private static byte[] serializeWithResets(int generations) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			for(int i = 0; i < generations; i++) {
+				if(i > 0) {
+					oos.reset();
+				}
+				oos.writeObject("generation " + i);
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	private static Jdeserialize2 parse(byte[] data, int retainedHandleMaps) throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.setRetainedHandleMaps(retainedHandleMaps);
+		jd.run(ByteBuffer.wrap(data), false);
+		return jd;
+	}
+
+	@Test
+	void getHandleMaps_givenResets_whenRetentionSet_keepsLatestGenerations() throws Exception {
+
+		byte[] data = serializeWithResets(5);
+
+		Jdeserialize2 all = parse(data, -1);
+		Jdeserialize2 none = parse(data, 0);
+		Jdeserialize2 last2 = parse(data, 2);
+
+		// Validate
+		assertEquals(5, all.getHandleMaps().size());
+		assertEquals(0, none.getHandleMaps().size());
+		assertEquals(5, none.getContent().size());
+		assertEquals(2, last2.getHandleMaps().size());
+		assertEquals("[String 0x7e0000: \"generation 4\"]", last2.getHandleMaps().get(1).get(0x7e0000).toString());
+		assertThrows(UnsupportedOperationException.class, () -> all.getHandleMaps().get(0).put(0x7e0001, null));
+	}
+
+	@Test
+	void run_givenBlockDataOutput_whenReadFromFile_transfersTopLevelBlocks() throws Exception {
+
+		byte[] first = new byte[3000];
+		byte[] second = new byte[] { 1, 2, 3 };
+		for(int i = 0; i < first.length; i++) {
+			first[i] = (byte)i;
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.write(first);
+			oos.writeObject("between");
+			oos.write(second);
+		}
+		Path file = tempDir.resolve("blocks.ser");
+		Files.write(file, bos.toByteArray());
+		Path out = tempDir.resolve("blocks.bin");
+		StringWriter manifest = new StringWriter();
+
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		try (FileChannel fc = FileChannel.open(file);
+				FileChannel bdout = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			jd.setBlockDataOutput(bdout, new PrintWriter(manifest, true));
+			jd.run(fc, false);
+		}
+
+		// Validate
+		byte[] expected = new byte[first.length + second.length];
+		System.arraycopy(first, 0, expected, 0, first.length);
+		System.arraycopy(second, 0, expected, first.length, second.length);
+		assertArrayEquals(expected, Files.readAllBytes(out));
+		assertEquals(String.format("1024%n1024%n952%n3%n"), manifest.toString());
+		BlockData bd = (BlockData)jd.getContent().get(0);
+		assertNull(bd.buf);
+		assertEquals(1024, bd.getLength());
+		assertEquals(expected[0], Files.readAllBytes(file)[(int)bd.getOffset()]);
+	}
+
+	@Test
+	void run_givenSkipThreshold_whenReadFromFile_largeDataCanBeReadBack() throws Exception {
+
+		long[] large = new long[5000];
+		for(int i = 0; i < large.length; i++) {
+			large[i] = i * 0x100000001L;
+		}
+		byte[] block = new byte[200];
+		block[199] = 42;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(new short[] { 1, 2 });
+			oos.writeObject(large);
+			oos.write(block);
+		}
+		Path file = tempDir.resolve("large.ser");
+		Files.write(file, bos.toByteArray());
+
+		Jdeserialize2 mapped = new Jdeserialize2(null, new StringWriter());
+		mapped.setSkipThreshold(100);
+		Jdeserialize2 stream = new Jdeserialize2(null, new StringWriter());
+		stream.setSkipThreshold(100);
+		try (FileChannel fc = FileChannel.open(file)) {
+			mapped.run(fc, false);
+		}
+		stream.run(new FileInputStream(file.toFile()), false);
+
+		// Validate
+		for(Jdeserialize2 jd: List.of(mapped, stream)) {
+			assertTrue(((ArrayObj)jd.getContent().get(0)).data instanceof PrimitiveArrayColl);
+			SkippedArrayColl skipped = (SkippedArrayColl)((ArrayObj)jd.getContent().get(1)).data;
+			assertEquals(large.length, skipped.getLength());
+			assertEquals(0, skipped.size());
+			BlockData bd = (BlockData)jd.getContent().get(2);
+			assertNull(bd.buf);
+			try (FileChannel fc = FileChannel.open(file)) {
+				assertArrayEquals(large, skipped.read(fc).getLongArray());
+				assertArrayEquals(block, bd.read(fc));
+			}
+		}
+	}
+
+	@Test
+	void run_givenSegmentPool_whenStreamHasResets_matchesSequentialRun() throws Exception {
+
+		byte[] data = serializeWithResets(50);
+		StringWriter sequentialOut = new StringWriter();
+		Jdeserialize2 sequential = new Jdeserialize2(null, sequentialOut);
+		sequential.run(ByteBuffer.wrap(data), true);
+		StringWriter segmentedOut = new StringWriter();
+		Jdeserialize2 segmented = new Jdeserialize2(null, segmentedOut);
+		segmented.setSegmentPool(new ForkJoinPool(4));
+		segmented.setRetainedHandleMaps(10);
+		segmented.run(ByteBuffer.wrap(data), true);
+		Jdeserialize2 truncated = new Jdeserialize2(null, new StringWriter());
+		truncated.setSegmentPool(ForkJoinPool.commonPool());
+
+		// Validate
+		assertEquals(49, ResetScanner.findResets(new ByteBufferSerialInput(ByteBuffer.wrap(data))).length);
+		assertEquals(sequential.getContent().toString(), segmented.getContent().toString());
+		assertEquals(sequentialOut.toString(), segmentedOut.toString());
+		assertEquals(10, segmented.getHandleMaps().size());
+		assertEquals(sequential.getHandleMaps().subList(40, 50).toString(), segmented.getHandleMaps().toString());
+		assertThrows(EOFException.class, () -> truncated.run(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 3)), true));
+	}
+
+	@Test
+	void runParallel_givenMalformedFile_whenThreaded_dumpsInOrderAndContinues() throws Exception {
+
+		List<String> files = new ArrayList<String>();
+		for(int i = 0; i < 6; i++) {
+			Path file = tempDir.resolve("file" + i + ".ser");
+			if(i == 2) {
+				Files.write(file, new byte[] { (byte)0xac, (byte)0xed, 0, 5, 0x73, 0x72, 0, 9 });
+			} else {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+					oos.writeObject("content of file " + i);
+				}
+				Files.write(file, bos.toByteArray());
+			}
+			files.add(file.toString());
+		}
+		GetOpt go = new GetOpt();
+		go.parse(new String[0]);
+		StringWriter out = new StringWriter();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		boolean ok = Jdeserialize2.runParallel(files, go, Integer.MAX_VALUE, -1, 3, null, null, out, new PrintStream(err, true));
+
+		// Validate
+		assertFalse(ok);
+		int last = -1;
+		for(int i = 0; i < 6; i++) {
+			int at = out.toString().indexOf("content of file " + i);
+			if(i == 2) {
+				assertEquals(-1, at);
+				continue;
+			}
+			assertTrue(at > last, "file " + i + " out of order");
+			last = at;
+		}
+		assertTrue(err.toString().contains(files.get(2)));
+	}
+
+}
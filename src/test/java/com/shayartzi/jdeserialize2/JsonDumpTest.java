@@ -0,0 +1,97 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.legacy.GetOpt;
+
+class JsonDumpTest {
+
+	static class Node implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int id;
+		String label;
+		Node next;
+		int[] values = { 1, 2 };
+	}
+
+	private static String dump(Object obj, String... options) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(obj);
+			oos.writeObject(TimeUnit.SECONDS);
+		}
+		StringWriter sw = new StringWriter();
+		Jdeserialize2 jd = new Jdeserialize2("nodes.ser", sw);
+		jd.setParseLog(false);
+		jd.run(ByteBuffer.wrap(bos.toByteArray()), true);
+		GetOpt go = new GetOpt();
+		go.addOption("-json", 0, "");
+		go.addOption("-ndjson", 0, "");
+		go.addOption("-noclasses", 0, "");
+		go.parse(options);
+		jd.dump(go);
+		return sw.toString();
+	}
+
+	private static Node cycle() {
+		Node a = new Node();
+		Node b = new Node();
+		a.id = 1;
+		a.label = "first";
+		a.next = b;
+		b.id = 2;
+		b.next = a;
+		return a;
+	}
+
+	@Test
+	void dump_givenCyclicGraph_whenJson_writesOneDocumentWithReferences() throws Exception {
+
+		String out = dump(cycle(), "-json");
+
+		// Validate
+		assertTrue(out.startsWith("{\"file\":\"nodes.ser\",\"content\":[{\"type\":\"instance\",\"handle\":"), out);
+		assertTrue(out.endsWith("]}\n"), out);
+		assertEquals(1, out.split("\n").length);
+		assertTrue(out.contains("\"values\":{\"id\":1,\"label\":{\"type\":\"string\",\"handle\":"), out);
+		assertTrue(out.contains("\"value\":\"first\"},\"next\":{\"ref\":"), out);
+		assertTrue(out.contains("{\"type\":\"array\",\"handle\":"), out);
+		assertTrue(out.contains("\"class\":\"[I\","), out);
+		assertTrue(out.contains("\"length\":2,\"values\":[1,2]}"), out);
+		assertTrue(out.contains("{\"type\":\"enum\",\"handle\":"), out);
+		assertTrue(out.contains("\"value\":\"SECONDS\"}"), out);
+		assertTrue(out.contains("\"classes\":[{\"type\":\"class\""), out);
+		assertTrue(out.contains("\"name\":\"next\",\"type\":\"L\",\"className\":\"L" + Node.class.getName().replace('.', '/') + ";\""), out);
+	}
+
+	@Test
+	void dump_givenCyclicGraph_whenNdjson_writesOneLinePerItem() throws Exception {
+
+		String out = dump(cycle(), "-ndjson", "-noclasses");
+		String[] lines = out.split("\n");
+
+		// Validate
+		// two top-level items, then the two nodes and their two arrays
+		assertEquals(6, lines.length, out);
+		assertTrue(lines[0].startsWith("{\"file\":\"nodes.ser\",\"section\":\"content\",\"type\":\"instance\""), lines[0]);
+		assertTrue(lines[1].startsWith("{\"file\":\"nodes.ser\",\"section\":\"content\",\"type\":\"enum\""), lines[1]);
+		int arrays = 0;
+		for(int i = 2; i < lines.length; i++) {
+			assertTrue(lines[i].startsWith("{\"file\":\"nodes.ser\",\"section\":\"objects\",\"type\":\""), lines[i]);
+			arrays += (lines[i].contains("\"type\":\"array\"") ? 1 : 0);
+		}
+		assertEquals(2, arrays);
+		assertTrue(!out.contains("\"section\":\"classes\""), out);
+	}
+
+}
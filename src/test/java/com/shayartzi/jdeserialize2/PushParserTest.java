@@ -0,0 +1,132 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.legacy.Content;
+
+class PushParserTest {
+
+	static class Point implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int x = 3;
+		long y = 4;
+		String label = "point";
+		TimeUnit unit = TimeUnit.SECONDS;
+		int[] samples = new int[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+	}
+
+	static class FailingObject implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.writeInt(7);
+			throw new NotSerializableException("failing on purpose");
+		}
+	}
+
+	private static byte[] serialize() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject("first");
+			oos.writeObject(new Point());
+			oos.writeInt(42);
+			oos.writeObject(new long[300]);
+			oos.reset();
+			oos.writeObject(new Point());
+			try {
+				oos.writeObject(new FailingObject());
+			} catch (NotSerializableException expected) {
+			}
+			oos.writeObject(TimeUnit.DAYS);
+		}
+		return bos.toByteArray();
+	}
+
+	private static String describe(List<Content> content) {
+		StringBuilder sb = new StringBuilder();
+		for(Content c: content) {
+			sb.append(c).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static List<Content> push(PushParser pp, byte[] data, int chunk) throws Exception {
+		List<Content> items = new ArrayList<Content>();
+		for(int off = 0; off < data.length; off += chunk) {
+			items.addAll(pp.feed(ByteBuffer.wrap(data, off, Math.min(chunk, data.length - off))));
+		}
+		items.addAll(pp.finish(false));
+		return items;
+	}
+
+	@Test
+	void feed_givenChunks_whenStreamComplete_matchesRun() throws Exception {
+
+		byte[] data = serialize();
+		Jdeserialize2 expected = new Jdeserialize2(null, new StringWriter());
+		expected.run(ByteBuffer.wrap(data), false);
+
+		// Validate
+		for(int chunk: new int[] { 1, 3, 7, 64, data.length }) {
+			for(boolean lazy: new boolean[] { false, true }) {
+				Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+				jd.setLazyStrings(lazy);
+				List<Content> items = push(new PushParser(jd), data, chunk);
+				assertEquals(describe(expected.getContent()), describe(items), "chunk " + chunk);
+				assertEquals(expected.getHandleMaps().toString(), jd.getHandleMaps().toString(), "chunk " + chunk);
+			}
+		}
+	}
+
+	@Test
+	void feed_givenPartialItem_whenRestArrives_returnsItemOnce() throws Exception {
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject("first");
+			oos.flush();
+			int split = bos.size();
+			oos.writeObject("second");
+			oos.flush();
+			byte[] data = bos.toByteArray();
+
+			PushParser pp = new PushParser();
+			List<Content> firstItems = pp.feed(ByteBuffer.wrap(data, 0, split + 3));
+			List<Content> secondItems = pp.feed(ByteBuffer.wrap(data, split + 3, data.length - split - 3));
+
+			// Validate
+			assertEquals(1, firstItems.size());
+			assertTrue(firstItems.get(0).toString().contains("\"first\""));
+			assertEquals(1, secondItems.size());
+			assertTrue(secondItems.get(0).toString().contains("\"second\""));
+			assertEquals(0, pp.finish(false).size());
+		}
+	}
+
+	@Test
+	void finish_givenTruncatedStream_throwsEOFException() throws Exception {
+
+		byte[] data = serialize();
+		PushParser pp = new PushParser();
+		pp.feed(ByteBuffer.wrap(data, 0, data.length / 2));
+
+		// Validate
+		assertThrows(EOFException.class, () -> pp.finish(false));
+	}
+
+}
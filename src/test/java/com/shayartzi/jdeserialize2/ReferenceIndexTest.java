@@ -0,0 +1,190 @@
+package com.shayartzi.jdeserialize2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.legacy.ArrayObj;
+import com.shayartzi.jdeserialize2.legacy.Content;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+
+class ReferenceIndexTest {
+
+	static class Node implements Serializable {
+		private static final long serialVersionUID = 1L;
+		String name;
+		Node left;
+		Node right;
+		Object[] extra;
+
+		Node(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * root -> a -> shared, root -> b -> shared, b.extra = { shared, a }; orphan refers
+	 * to nothing.
+	 */
+	private static byte[] graph(boolean reset) throws Exception {
+		Node shared = new Node("shared");
+		Node a = new Node("a");
+		a.left = shared;
+		Node b = new Node("b");
+		b.right = shared;
+		b.extra = new Object[] { shared, a };
+		Node root = new Node("root");
+		root.left = a;
+		root.right = b;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(root);
+			if(reset) {
+				oos.reset();
+			}
+			oos.writeObject(new Node("orphan"));
+		}
+		return bos.toByteArray();
+	}
+
+	private static Jdeserialize2 parse(byte[] data, boolean retainContent, boolean split) throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.setIndexReferences(true);
+		jd.setRetainContent(retainContent);
+		if(split) {
+			jd.setSegmentPool(ForkJoinPool.commonPool());
+		}
+		jd.run(ByteBuffer.wrap(data), true);
+		return jd;
+	}
+
+	private static int handleOf(Jdeserialize2 jd, String name) {
+		for(Map<Integer, Content> hm: jd.getHandleMaps()) {
+			for(Content c: hm.values()) {
+				if(c instanceof Instance && InstanceFilter.valueEquals(((Instance)c).getRef("name"), name)) {
+					return c.getHandle();
+				}
+			}
+		}
+		throw new AssertionError("no node named " + name);
+	}
+
+	private static String nameOf(Jdeserialize2 jd, ReferenceIndex index, int node) {
+		Content c = jd.getHandleMaps().get(index.getGeneration(node)).get(index.getHandle(node));
+		if(c instanceof ArrayObj) {
+			return "[]";
+		}
+		return ((StringObj)((Instance)c).getRef("name")).getValue();
+	}
+
+	@Test
+	void getReferenceIndex_givenNoIndex_whenParsed_thenNull() throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+
+		jd.run(ByteBuffer.wrap(graph(false)), true);
+
+		// Validate
+		assertNull(jd.getReferenceIndex());
+	}
+
+	@Test
+	void getReferrers_givenSharedNode_whenIndexed_thenEveryReferenceFound() throws Exception {
+		Jdeserialize2 jd = parse(graph(false), true, false);
+		ReferenceIndex index = jd.getReferenceIndex();
+
+		int shared = index.findNode(handleOf(jd, "shared"));
+
+		// Validate
+		assertEquals(1, index.getGenerationCount());
+		assertEquals(3, index.getReferrerCount(shared));
+		StringBuilder sb = new StringBuilder();
+		for(int r: index.getReferrers(shared)) {
+			sb.append(nameOf(jd, index, r)).append(' ');
+		}
+		assertEquals("a [] b ", sb.toString());
+		int b = index.findNode(handleOf(jd, "b"));
+		int[] referents = index.getReferents(b);
+		assertEquals(3, index.getReferentCount(b));
+		assertEquals("[]", nameOf(jd, index, referents[0]));
+		assertEquals("b", ((StringObj)jd.getHandleMaps().get(0).get(index.getHandle(referents[1]))).getValue());
+		assertEquals(shared, referents[2]);
+		assertEquals(2, index.getReferentCount(referents[0]));
+	}
+
+	@Test
+	void getPathsToRoots_givenNestedNode_whenSearched_thenShortestPathsFromRoots() throws Exception {
+		Jdeserialize2 jd = parse(graph(false), true, false);
+		ReferenceIndex index = jd.getReferenceIndex();
+		int shared = index.findNode(handleOf(jd, "shared"));
+		int root = index.findNode(handleOf(jd, "root"));
+		int orphan = index.findNode(handleOf(jd, "orphan"));
+
+		int[] path = index.getPathToRoot(shared);
+		List<int[]> paths = index.getPathsToRoots(shared, 10);
+
+		// Validate
+		assertTrue(index.isRoot(root));
+		assertFalse(index.isRoot(shared));
+		assertEquals(3, path.length);
+		assertEquals(root, path[0]);
+		assertEquals("a", nameOf(jd, index, path[1]));
+		assertEquals(shared, path[2]);
+		assertEquals(1, paths.size());
+		assertArrayEquals(new int[] { orphan }, index.getPathToRoot(orphan));
+		assertEquals(0, index.getPathsToRoots(shared, 0).size());
+	}
+
+	@Test
+	void findNode_givenReset_whenIndexed_thenGenerationsKeptApart() throws Exception {
+		Jdeserialize2 jd = parse(graph(true), true, false);
+		ReferenceIndex index = jd.getReferenceIndex();
+
+		// Validate
+		assertEquals(2, index.getGenerationCount());
+		int handle = handleOf(jd, "orphan");
+		int orphan = index.findNode(handle);
+		assertEquals(1, index.getGeneration(orphan));
+		assertEquals(0, index.getReferrerCount(orphan));
+		int first = index.findNode(0, handle);
+		assertEquals(0, index.getGeneration(first));
+		assertTrue(first != orphan);
+		assertEquals(-1, index.findNode(2, handle));
+		assertEquals(-1, index.findNode(0x7e7777));
+	}
+
+	@Test
+	void getReferenceIndex_givenNoRetainedContentOrSegments_whenParsed_thenSameIndex() throws Exception {
+		byte[] data = graph(true);
+		ReferenceIndex expected = parse(data, true, false).getReferenceIndex();
+
+		for(ReferenceIndex index: new ReferenceIndex[] { parse(data, false, false).getReferenceIndex(),
+				parse(data, true, true).getReferenceIndex() }) {
+			// Validate
+			assertEquals(expected.getNodeCount(), index.getNodeCount());
+			assertEquals(expected.getEdgeCount(), index.getEdgeCount());
+			assertEquals(expected.getGenerationCount(), index.getGenerationCount());
+			for(int n = 0; n < expected.getNodeCount(); n++) {
+				assertEquals(expected.getHandle(n), index.getHandle(n));
+				assertEquals(expected.getGeneration(n), index.getGeneration(n));
+				assertEquals(expected.isRoot(n), index.isRoot(n));
+				assertArrayEquals(expected.getReferrers(n), index.getReferrers(n));
+				assertArrayEquals(expected.getReferents(n), index.getReferents(n));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.shayartzi.jdeserialize2.event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.example.obj.FlatObject;
+import com.shayartzi.jdeserialize2.helper.TestSerializationHelper;
+import com.shayartzi.jdeserialize2.legacy.FieldTypeEnum;
+
+class JavaSerialReaderTest {
+
+	private static byte[] serializeFlatObject() throws Exception {
+		FlatObject flatObject = new FlatObject();
+		flatObject.setIntField(1);
+		flatObject.setIntegerField(2);
+		flatObject.setStrField("bar");
+		return TestSerializationHelper.serialize(flatObject);
+	}
+
+	@Test
+	void next_givenFlatObject_whenIterating_reportsFieldValues() throws Exception {
+
+		JavaSerialReader reader = new JavaSerialReader(ByteBuffer.wrap(serializeFlatObject()));
+
+		int intField = -1;
+		int integerValue = -1;
+		String strField = null;
+		while(reader.next() != SerialEventType.END_STREAM) {
+			if(reader.getEventType() == SerialEventType.PRIMITIVE) {
+				if("intField".equals(reader.getFieldName())) {
+					assertEquals(FieldTypeEnum.INTEGER, reader.getPrimitiveType());
+					intField = reader.getIntValue();
+				} else if("value".equals(reader.getFieldName())) {
+					integerValue = reader.getIntValue();
+				}
+			} else if(reader.getEventType() == SerialEventType.STRING) {
+				assertEquals("strField", reader.getFieldName());
+				strField = reader.getStringValue();
+			}
+		}
+
+		// Validate
+		assertEquals(1, intField);
+		assertEquals(2, integerValue);
+		assertEquals("bar", strField);
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	void skipChildren_givenNestedObject_whenSkipped_continuesAfterIt() throws Exception {
+
+		JavaSerialReader reader = new JavaSerialReader(ByteBuffer.wrap(serializeFlatObject()));
+
+		while(!(reader.next() == SerialEventType.START_OBJECT && "integerField".equals(reader.getFieldName()))) {
+		}
+		assertEquals("java.lang.Integer", reader.getClassDesc().name);
+		assertEquals(1, reader.getDepth());
+		reader.skipChildren();
+
+		// Validate
+		assertEquals(SerialEventType.END_OBJECT, reader.getEventType());
+		assertEquals(1, reader.getDepth());
+		assertEquals(SerialEventType.STRING, reader.next());
+		assertEquals("bar", reader.getStringValue());
+		assertEquals(SerialEventType.END_OBJECT, reader.next());
+		assertEquals(0, reader.getDepth());
+		assertEquals(SerialEventType.END_STREAM, reader.next());
+	}
+
+	@Test
+	void next_givenConcatenatedStreams_whenEnabled_reportsNewStream() throws Exception {
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(TestSerializationHelper.serialize("first"));
+		bos.write(TestSerializationHelper.serialize("second"));
+		byte[] data = bos.toByteArray();
+
+		JavaSerialReader reader = new JavaSerialReader(ByteBuffer.wrap(data));
+		reader.setConcatenatedStreams(true);
+
+		// Validate
+		assertEquals(SerialEventType.STRING, reader.next());
+		assertEquals("first", reader.getStringValue());
+		assertEquals(SerialEventType.NEW_STREAM, reader.next());
+		assertEquals(SerialEventType.STRING, reader.next());
+		assertEquals("second", reader.getStringValue());
+		assertEquals(0x7e0000, reader.getHandle());
+		assertEquals(SerialEventType.END_STREAM, reader.next());
+		JavaSerialReader strict = new JavaSerialReader(ByteBuffer.wrap(data));
+		strict.next();
+		assertThrows(IOException.class, () -> strict.next());
+	}
+
+}
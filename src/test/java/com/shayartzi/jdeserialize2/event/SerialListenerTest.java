@@ -0,0 +1,101 @@
+package com.shayartzi.jdeserialize2.event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.example.obj.FlatObject;
+import com.shayartzi.jdeserialize2.helper.TestSerializationHelper;
+import com.shayartzi.jdeserialize2.legacy.ClassDesc;
+import com.shayartzi.jdeserialize2.legacy.Field;
+import com.shayartzi.jdeserialize2.legacy.StringObj;
+import com.shayartzi.jdeserialize2.util.FormatUtil;
+
+class SerialListenerTest {
+	
+	private static class RecordingListener implements SerialListener {
+		
+		private final List<String> events = new ArrayList<>();
+		
+		public void startClassDesc(int handle, ClassDesc cd) {
+			events.add("startClassDesc " + FormatUtil.hex(handle) + " " + cd.name);
+		}
+		public void endClassDesc(int handle, ClassDesc cd) {
+			events.add("endClassDesc " + FormatUtil.hex(handle));
+		}
+		public void startAnnotation(ClassDesc cd) {
+			events.add("startAnnotation " + cd.name);
+		}
+		public void endAnnotation(ClassDesc cd) {
+			events.add("endAnnotation " + cd.name);
+		}
+		public void startObject(int handle, ClassDesc cd) {
+			events.add("startObject " + FormatUtil.hex(handle) + " " + cd.name);
+		}
+		public void endObject(int handle, ClassDesc cd) {
+			events.add("endObject " + FormatUtil.hex(handle));
+		}
+		public void fieldValue(ClassDesc cd, Field f, Object value) {
+			events.add("fieldValue " + f.name + "=" + value);
+		}
+		public void startField(ClassDesc cd, Field f) {
+			events.add("startField " + f.name);
+		}
+		public void string(StringObj so) {
+			events.add("string " + FormatUtil.hex(so.handle) + " " + so.getValue());
+		}
+		
+	}
+
+	@Test
+	void run_givenFlatObject_whenListening_reportsEventsInStreamOrder() throws Exception {
+		
+		FlatObject flatObject = new FlatObject();
+		flatObject.setIntField(1);
+		flatObject.setIntegerField(2);
+		flatObject.setStrField("bar");
+		byte[] serializedBinary = TestSerializationHelper.serialize(flatObject);
+		
+		RecordingListener listener = new RecordingListener();
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.setListener(listener);
+		jd.setRetainContent(false);
+		jd.run(ByteBuffer.wrap(serializedBinary), false);
+		
+		List<String> expected = List.of(
+				"startClassDesc 0x7e0000 com.shayartzi.jdeserialize2.example.obj.FlatObject",
+				"startAnnotation com.shayartzi.jdeserialize2.example.obj.FlatObject",
+				"endAnnotation com.shayartzi.jdeserialize2.example.obj.FlatObject",
+				"endClassDesc 0x7e0000",
+				"startObject 0x7e0003 com.shayartzi.jdeserialize2.example.obj.FlatObject",
+				"fieldValue intField=1",
+				"startField integerField",
+				"startClassDesc 0x7e0004 java.lang.Integer",
+				"startAnnotation java.lang.Integer",
+				"endAnnotation java.lang.Integer",
+				"startClassDesc 0x7e0005 java.lang.Number",
+				"startAnnotation java.lang.Number",
+				"endAnnotation java.lang.Number",
+				"endClassDesc 0x7e0005",
+				"endClassDesc 0x7e0004",
+				"startObject 0x7e0006 java.lang.Integer",
+				"fieldValue value=2",
+				"endObject 0x7e0006",
+				"startField strField",
+				"string 0x7e0007 bar",
+				"endObject 0x7e0003");
+		assertEquals(expected, listener.events);
+		
+		// Nothing is retained once reported
+		assertTrue(jd.getContent().isEmpty());
+		assertTrue(jd.getHandleMaps().isEmpty());
+	}
+
+}
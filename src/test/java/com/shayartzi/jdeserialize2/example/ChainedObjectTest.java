@@ -0,0 +1,76 @@
+package com.shayartzi.jdeserialize2.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.example.obj.ChainedObject;
+import com.shayartzi.jdeserialize2.helper.TestSerializationHelper;
+import com.shayartzi.jdeserialize2.legacy.Instance;
+
+public class ChainedObjectTest {
+	
+	private static final int CHAIN_LENGTH = 50000;
+	
+	private static byte[] serializeChain() throws Exception {
+		ChainedObject head = null;
+		for(int i = 0; i < CHAIN_LENGTH; i++) {
+			ChainedObject o = new ChainedObject();
+			o.setValue(i);
+			o.setNext(head);
+			head = o;
+		}
+		// ObjectOutputStream itself recurses once per link
+		ChainedObject chain = head;
+		byte[][] result = new byte[1][];
+		Exception[] error = new Exception[1];
+		Thread t = new Thread(null, () -> {
+			try {
+				result[0] = TestSerializationHelper.serialize(chain);
+			} catch (Exception e) {
+				error[0] = e;
+			}
+		}, "serialize", 1L << 30);
+		t.start();
+		t.join();
+		if(error[0] != null) {
+			throw error[0];
+		}
+		return result[0];
+	}
+	
+	@Test
+	public void run_givenLongChain_whenParsed_readsEveryLink() throws Exception {
+		
+		byte[] serializedBinary = serializeChain();
+		
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.run(ByteBuffer.wrap(serializedBinary), false);
+		
+		// Validate
+		assertEquals(1, jd.getContent().size());
+		Instance head = (Instance)jd.getContent().get(0);
+		assertEquals(CHAIN_LENGTH - 1, head.fielddata.get(head.classdesc).values().iterator().next());
+		// One class description plus its field type name, then the links
+		assertEquals(CHAIN_LENGTH + 2, jd.getHandleMaps().get(0).size());
+	}
+	
+	@Test
+	public void run_givenLongChain_whenDeeperThanMaxDepth_throws() throws Exception {
+		
+		byte[] serializedBinary = serializeChain();
+		
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.setMaxDepth(1000);
+		
+		// Validate
+		assertThrows(IOException.class, () -> jd.run(ByteBuffer.wrap(serializedBinary), false));
+	}
+
+}
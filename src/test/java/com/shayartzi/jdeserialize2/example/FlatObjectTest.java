@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
@@ -41,5 +42,30 @@ public class FlatObjectTest {
 		// Validate
 		assertEquals(expected, stringWriter.toString());		
 	}
+	
+	@Test
+	public void dump_givenFlatObjectBuffer_whenCalled_createsCorrectDump() throws Exception {
+		
+		String expected = Files.readString(Paths.get(this.getClass().getResource("/output/FlatObjectExpected.txt").toURI()));		
+		
+		FlatObject flatObject = new FlatObject();
+		flatObject.setIntField(1);
+		flatObject.setIntegerField(2);
+		flatObject.setStrField("bar");
+		
+		byte[] serializedBinary = TestSerializationHelper.serialize(flatObject);
+		
+		GetOpt getOpt = new GetOpt();
+		getOpt.parse(new String[]{""});
+		
+		StringWriter stringWriter = new StringWriter();
+		
+		Jdeserialize2 jd = new Jdeserialize2(null, stringWriter);
+		jd.run(ByteBuffer.wrap(serializedBinary), false);
+		jd.dump(getOpt);
+		
+		// Validate
+		assertEquals(expected, stringWriter.toString());		
+	}
 
 }
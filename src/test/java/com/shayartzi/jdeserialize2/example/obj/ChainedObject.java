@@ -0,0 +1,34 @@
+package com.shayartzi.jdeserialize2.example.obj;
+
+import java.io.Serializable;
+
+public class ChainedObject implements Serializable {
+	
+	private static final long serialVersionUID = -4391820947614538816L;
+
+	private int value;
+	
+	private ChainedObject next;
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public ChainedObject getNext() {
+		return next;
+	}
+
+	public void setNext(ChainedObject next) {
+		this.next = next;
+	}
+	
+	@Override
+	public String toString() {
+		return "ChainedObject [value=" + value + "]";
+	}
+	
+}
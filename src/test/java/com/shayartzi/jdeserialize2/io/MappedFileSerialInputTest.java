@@ -0,0 +1,62 @@
+package com.shayartzi.jdeserialize2.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedFileSerialInputTest {
+	
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void read_givenPrimitivesAcrossChunks_whenRead_returnsSameValues() throws Exception {
+		
+		// Prepare file; with 8-byte windows almost every value straddles a boundary
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeByte(1);
+		dos.writeInt(0xcafebabe);
+		dos.writeLong(Long.MIN_VALUE + 3);
+		dos.writeShort(-2);
+		dos.writeUTF("mapped string");
+		dos.writeDouble(2.5);
+		dos.write(new byte[] {9, 8, 7, 6, 5, 4, 3, 2, 1, 0});
+		dos.flush();
+		Path file = tempDir.resolve("prims.bin");
+		Files.write(file, bos.toByteArray());
+		
+		try (FileChannel fc = FileChannel.open(file)) {
+			MappedFileSerialInput in = new MappedFileSerialInput(fc, 8);
+			
+			assertEquals(1, in.readByte());
+			in.record();
+			assertEquals(0xcafebabe, in.readInt());
+			assertEquals(Long.MIN_VALUE + 3, in.readLong());
+			assertEquals(-2, in.readShort());
+			assertEquals("mapped string", in.readUTF());
+			assertEquals(2.5, in.readDouble());
+			byte[] tail = new byte[10];
+			in.readFully(tail);
+			assertArrayEquals(new byte[] {9, 8, 7, 6, 5, 4, 3, 2, 1, 0}, tail);
+			
+			// Validate recording spans all windows, and EOF at the end
+			byte[] all = bos.toByteArray();
+			byte[] expectedRecorded = new byte[all.length - 1];
+			System.arraycopy(all, 1, expectedRecorded, 0, expectedRecorded.length);
+			assertArrayEquals(expectedRecorded, in.getRecordedData());
+			assertThrows(EOFException.class, () -> in.readByte());
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.shayartzi.jdeserialize2.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.legacy.ExceptionState;
+
+class StreamSerialInputTest {
+
+	@TempDir
+	Path tempDir;
+
+	static class FailingObject implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.writeInt(7);
+			throw new NotSerializableException("failing on purpose");
+		}
+	}
+
+	private static byte[] serializeWithException() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject("before");
+			try {
+				oos.writeObject(new FailingObject());
+			} catch (NotSerializableException expected) {
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	private static ExceptionState lastExceptionState(Jdeserialize2 jd) {
+		Object last = jd.getContent().get(jd.getContent().size() - 1);
+		assertTrue(last instanceof ExceptionState);
+		return (ExceptionState)last;
+	}
+
+	@Test
+	void getRecordedData_givenException_whenReadFromFileOrStream_matchesBuffer() throws Exception {
+
+		byte[] data = serializeWithException();
+		Path file = tempDir.resolve("exception.ser");
+		Files.write(file, data);
+
+		Jdeserialize2 fromBuffer = new Jdeserialize2(null, new StringWriter());
+		fromBuffer.run(ByteBuffer.wrap(data), false);
+		Jdeserialize2 fromFile = new Jdeserialize2(null, new StringWriter());
+		fromFile.run(new FileInputStream(file.toFile()), false);
+		Jdeserialize2 fromStream = new Jdeserialize2(null, new StringWriter());
+		fromStream.run(new ByteArrayInputStream(data), false);
+
+		// Validate
+		byte[] expected = lastExceptionState(fromBuffer).streamdata;
+		assertEquals(0x73, expected[0]);
+		assertArrayEquals(expected, lastExceptionState(fromFile).streamdata);
+		assertArrayEquals(expected, lastExceptionState(fromStream).streamdata);
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+
+class ClassDescCacheTest {
+
+	static class Sample implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int count = 1;
+		String label = "sample";
+		Integer boxed = 2;
+	}
+
+	private static byte[] serialize(Object o) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(o);
+		}
+		return bos.toByteArray();
+	}
+
+	private static Jdeserialize2 parse(byte[] data, ClassDescCache cache, boolean lazy) throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.setClassDescCache(cache);
+		jd.setLazyStrings(lazy);
+		jd.run(ByteBuffer.wrap(data), false);
+		return jd;
+	}
+
+	private static ClassDesc sampleDesc(Jdeserialize2 jd) {
+		return ((Instance)jd.getContent().get(0)).classdesc;
+	}
+
+	private static String describe(ClassDesc cd) throws Exception {
+		StringBuilder sb = new StringBuilder(cd.name + " " + cd.serialVersionUID);
+		for(Field f: cd.fields) {
+			sb.append(' ').append(f.getJavaType()).append(' ').append(f.name);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	void add_givenSameClassInTwoStreams_whenParsed_sharesNames() throws Exception {
+
+		byte[] data = serialize(new Sample());
+		ClassDescCache cache = new ClassDescCache();
+
+		Jdeserialize2 first = parse(data, cache, false);
+		Jdeserialize2 second = parse(data, cache, true);
+		Jdeserialize2 uncached = parse(data, null, false);
+
+		// Validate
+		ClassDesc a = sampleDesc(first);
+		ClassDesc b = sampleDesc(second);
+		assertEquals(describe(sampleDesc(uncached)), describe(b));
+		assertNotSame(a, b);
+		assertNotSame(a.fields[0], b.fields[0]);
+		assertSame(a.name, b.name);
+		for(int i = 0; i < a.fields.length; i++) {
+			assertSame(a.fields[i].name, b.fields[i].name);
+		}
+		// Sample, Integer and Number
+		assertEquals(3, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(3, cache.size());
+		assertFalse(first.getContent().get(0).toString().isEmpty());
+		assertEquals(uncached.getContent().get(0).toString(), second.getContent().get(0).toString());
+	}
+
+	@Test
+	void add_givenChangedField_whenParsed_doesNotUseCachedLayout() throws Exception {
+
+		byte[] data = serialize(new Sample());
+		// Rename the field "count" to "total", keeping the class name and serialVersionUID.
+		byte[] renamed = data.clone();
+		byte[] from = "count".getBytes(StandardCharsets.US_ASCII);
+		for(int i = 0; i + from.length <= renamed.length; i++) {
+			if(new String(renamed, i, from.length, StandardCharsets.US_ASCII).equals("count")) {
+				System.arraycopy("total".getBytes(StandardCharsets.US_ASCII), 0, renamed, i, from.length);
+				break;
+			}
+		}
+		ClassDescCache cache = new ClassDescCache();
+
+		parse(data, cache, false);
+		Jdeserialize2 changed = parse(renamed, cache, false);
+		Jdeserialize2 changedAgain = parse(renamed, cache, true);
+		Jdeserialize2 original = parse(data, cache, true);
+
+		// Validate
+		assertEquals(describe(sampleDesc(parse(renamed, null, false))), describe(sampleDesc(changed)));
+		assertEquals(describe(sampleDesc(changed)), describe(sampleDesc(changedAgain)));
+		assertEquals("total", sampleDesc(changed).fields[0].name);
+		assertEquals("count", sampleDesc(original).fields[0].name);
+		// Both versions of Sample are kept for the same header.
+		assertEquals(4, cache.size());
+		assertEquals(8, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+	}
+
+	@Test
+	void add_givenMalformedLazyTypeName_whenParsed_throwsValidityException() throws Exception {
+
+		byte[] data = serialize(new Sample());
+		// Break the modified UTF-8 of the field type descriptor "Ljava/lang/String;".
+		String text = new String(data, StandardCharsets.ISO_8859_1);
+		data[text.indexOf("Ljava/lang/String;") + 11] = (byte)0xff;
+		ClassDescCache cache = new ClassDescCache();
+		ClassDesc cd = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
+		cd.name = "Broken";
+		cd.fields = new Field[] { Field.validated(FieldTypeEnum.OBJECT, "label",
+				new StringObj(0x7e0001, ByteBuffer.wrap(new byte[] { 'L', (byte)0xff, ';' }), true)) };
+
+		// Validate
+		assertThrows(ValidityException.class, () -> parse(data, cache, true));
+		assertThrows(IOException.class, () -> cache.add(cd, null));
+		assertEquals(0, cache.size());
+	}
+
+}
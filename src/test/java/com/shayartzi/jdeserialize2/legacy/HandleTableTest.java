@@ -0,0 +1,58 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HandleTableTest {
+
+	private static final int BASE = ObjectStreamConstants.baseWireHandle;
+
+	@Test
+	void put_givenOutOfOrderHandles_whenIterated_keepsRegistrationOrder() throws Exception {
+
+		HandleTable table = new HandleTable();
+		ClassDesc cd = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
+		StringObj so = new StringObj(BASE + 1, new byte[] { 'x' });
+		table.put(BASE + 1, so);
+		table.put(BASE, cd);
+		table.put(BASE + 1000, so);
+
+		// Validate
+		assertEquals(List.of(so, cd, so), table.values());
+		assertEquals(List.of(BASE + 1, BASE, BASE + 1000), List.copyOf(table.asMap().keySet()));
+		assertSame(cd, table.get(BASE));
+		assertNull(table.get(BASE + 2));
+		assertNull(table.get(BASE - 1));
+		assertNull(table.get(Integer.MAX_VALUE));
+	}
+
+	@Test
+	void put_givenUsedHandle_whenCalled_throwsUntilCleared() throws Exception {
+
+		HandleTable table = new HandleTable();
+		ClassDesc cd = new ClassDesc(ClassDescTypeEnum.NORMALCLASS);
+		table.put(BASE, cd);
+
+		// Validate
+		assertThrows(IOException.class, () -> table.put(BASE, cd));
+		assertThrows(IOException.class, () -> table.put(BASE - 1, cd));
+		table.clear();
+		assertFalse(table.contains(BASE));
+		assertEquals(0, table.values().size());
+		table.put(BASE, cd);
+		assertEquals(1, table.size());
+		table.freeze();
+		assertThrows(IllegalStateException.class, () -> table.put(BASE + 1, cd));
+		assertSame(cd, table.asMap().get(BASE));
+	}
+
+}
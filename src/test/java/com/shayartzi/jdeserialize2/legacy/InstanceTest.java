@@ -0,0 +1,83 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.example.obj.FlatObject;
+import com.shayartzi.jdeserialize2.helper.TestSerializationHelper;
+
+class InstanceTest {
+
+	private static Instance parseFlatObject() throws Exception {
+		FlatObject flatObject = new FlatObject();
+		flatObject.setIntField(1);
+		flatObject.setIntegerField(2);
+		flatObject.setStrField("bar");
+
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.run(ByteBuffer.wrap(TestSerializationHelper.serialize(flatObject)), false);
+		return (Instance)jd.getContent().get(0);
+	}
+
+	@Test
+	void getters_givenFlatObject_whenCalled_returnSlotValues() throws Exception {
+
+		Instance inst = parseFlatObject();
+
+		// Validate
+		assertEquals(1, inst.getInt("intField"));
+		assertEquals("bar", ((StringObj)inst.getRef("strField")).getValue());
+		Instance integer = (Instance)inst.getRef("integerField");
+		assertEquals(2, integer.getInt("value"));
+		assertEquals(2, integer.getFieldLayout().getClasses().length);
+		assertThrows(IllegalArgumentException.class, () -> inst.getLong("intField"));
+		assertThrows(IllegalArgumentException.class, () -> inst.getRef("intField"));
+		assertThrows(IllegalArgumentException.class, () -> inst.getInt("noSuchField"));
+	}
+
+	@Test
+	void fielddata_givenFlatObject_whenRead_isViewOfSlots() throws Exception {
+
+		Instance inst = parseFlatObject();
+
+		List<String> names = new ArrayList<String>();
+		Map<Field, Object> fields = inst.fielddata.get(inst.classdesc);
+		for(Field f: fields.keySet()) {
+			names.add(f.name);
+		}
+		Field intField = inst.classdesc.fields[inst.classdesc.getFieldLayout().indexOf("intField")];
+		fields.put(intField, Integer.valueOf(42));
+
+		// Validate
+		assertEquals(1, inst.fielddata.size());
+		assertEquals(List.of("intField", "integerField", "strField"), names);
+		assertEquals(42, inst.getInt("intField"));
+		assertEquals(Integer.valueOf(42), fields.get(intField));
+		assertTrue(fields.get(inst.classdesc.fields[2]) instanceof StringObj);
+	}
+
+	@Test
+	void clearFieldValues_givenFlatObject_whenCalled_leavesShell() throws Exception {
+
+		Instance inst = parseFlatObject();
+		inst.clearFieldValues();
+
+		// Validate
+		assertNull(inst.getFieldLayout());
+		assertTrue(inst.fielddata.isEmpty());
+		assertThrows(IllegalStateException.class, () -> inst.getInt("intField"));
+		assertEquals("com.shayartzi.jdeserialize2.example.obj.FlatObject", inst.classdesc.name);
+	}
+
+}
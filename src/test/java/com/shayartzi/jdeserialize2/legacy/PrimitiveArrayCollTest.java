@@ -0,0 +1,62 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.helper.TestSerializationHelper;
+
+class PrimitiveArrayCollTest {
+
+	private static ArrayObj parse(Object array) throws Exception {
+		Jdeserialize2 jd = new Jdeserialize2(null, new StringWriter());
+		jd.run(ByteBuffer.wrap(TestSerializationHelper.serialize(array)), false);
+		List<Content> content = jd.getContent();
+		assertEquals(1, content.size());
+		return (ArrayObj)content.get(0);
+	}
+
+	@Test
+	void run_givenIntArray_whenParsed_storesPrimitiveArray() throws Exception {
+
+		int[] ints = new int[100000];
+		for(int i = 0; i < ints.length; i++) {
+			ints[i] = i * 31 - 7;
+		}
+
+		ArrayObj ao = parse(ints);
+
+		// Validate
+		assertTrue(ao.data instanceof PrimitiveArrayColl);
+		PrimitiveArrayColl pa = (PrimitiveArrayColl)ao.data;
+		assertArrayEquals(ints, pa.getIntArray());
+		assertEquals(ints.length, ao.data.size());
+		assertEquals(Integer.valueOf(-7), ao.data.get(0));
+		assertThrows(IllegalStateException.class, () -> pa.getLongArray());
+		assertThrows(UnsupportedOperationException.class, () -> ao.data.add(Integer.valueOf(1)));
+	}
+
+	@Test
+	void run_givenOtherPrimitiveArrays_whenParsed_matchBoxedValues() throws Exception {
+
+		// Validate
+		assertArrayEquals(new byte[] { 1, -2, 3 }, ((PrimitiveArrayColl)parse(new byte[] { 1, -2, 3 }).data).getByteArray());
+		assertArrayEquals(new boolean[] { true, false }, ((PrimitiveArrayColl)parse(new boolean[] { true, false }).data).getBooleanArray());
+		assertArrayEquals(new char[] { 'a', '€' }, ((PrimitiveArrayColl)parse(new char[] { 'a', '€' }).data).getCharArray());
+		assertArrayEquals(new short[] { -1, 300 }, ((PrimitiveArrayColl)parse(new short[] { -1, 300 }).data).getShortArray());
+		assertArrayEquals(new long[] { Long.MIN_VALUE, 5 }, ((PrimitiveArrayColl)parse(new long[] { Long.MIN_VALUE, 5 }).data).getLongArray());
+		assertArrayEquals(new float[] { 1.5f, Float.NaN }, ((PrimitiveArrayColl)parse(new float[] { 1.5f, Float.NaN }).data).getFloatArray());
+		assertArrayEquals(new double[] { -0.25, 1e300 }, ((PrimitiveArrayColl)parse(new double[] { -0.25, 1e300 }).data).getDoubleArray());
+		assertEquals(Arrays.asList(-0.25, 1e300), parse(new double[] { -0.25, 1e300 }).data);
+	}
+
+}
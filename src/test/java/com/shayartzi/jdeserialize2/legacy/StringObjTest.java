@@ -0,0 +1,62 @@
+package com.shayartzi.jdeserialize2.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class StringObjTest {
+	
+	private static ByteBuffer encode(String s) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new DataOutputStream(bos).writeUTF(s);
+		byte[] b = bos.toByteArray();
+		// Skip the length prefix
+		return ByteBuffer.wrap(b, 2, b.length - 2).slice();
+	}
+
+	@Test
+	void getValue_givenLazyString_whenCalled_decodesOnFirstAccess() throws Exception {
+		
+		String s = "caf\u00e9 \u20ac \ud83d\ude00 \u0000";
+		StringObj so = new StringObj(0x7e0000, encode(s), true);
+		
+		// Validate
+		assertFalse(so.isDecoded());
+		assertEquals(s, so.getValue());
+		assertTrue(so.isDecoded());
+	}
+	
+	@Test
+	void contentEquals_givenLazyString_whenCompared_doesNotDecode() throws Exception {
+		
+		StringObj so = new StringObj(0x7e0000, encode("java.lang.\u00c9t\u00e9"), false);
+		
+		// Validate
+		assertTrue(so.contentEquals("java.lang.\u00c9t\u00e9"));
+		assertFalse(so.contentEquals("java.lang.\u00c9t"));
+		assertFalse(so.contentEquals("java.lang.\u00c9t\u00e9!"));
+		assertTrue(so.startsWith("java.lang."));
+		assertTrue(so.startsWith(""));
+		assertFalse(so.startsWith("java.util."));
+		assertTrue(so.contentEquals(new StringObj(0x7e0001, encode("java.lang.\u00c9t\u00e9"), false)));
+		assertFalse(so.isDecoded());
+	}
+	
+	@Test
+	void getValue_givenInvalidLazyString_whenCalled_throws() throws Exception {
+		
+		StringObj so = new StringObj(0x7e0000, ByteBuffer.wrap(new byte[] { 'a', (byte)0xe2, (byte)0x82 }), true);
+		
+		// Validate
+		assertThrows(UncheckedIOException.class, () -> so.getValue());
+	}
+
+}
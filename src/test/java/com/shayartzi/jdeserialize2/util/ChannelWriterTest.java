@@ -0,0 +1,57 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class ChannelWriterTest {
+
+	private static final String TEXT = "[instance 0x7e0002: 0x7e0000/Café]\n"
+			+ "emoji 😀 split, lone \ud800 surrogate, euro €\n";
+
+	private static void writeAll(Writer w) throws Exception {
+		for(int i = 0; i < 50; i++) {
+			w.write(TEXT);
+			w.write('#');
+			w.write(TEXT.toCharArray(), 3, 20);
+			FormatUtil.writeHex(w, i * 4099L);
+		}
+	}
+
+	private static byte[] expected(Charset cs) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (Writer w = new OutputStreamWriter(bos, cs)) {
+			writeAll(w);
+		}
+		return bos.toByteArray();
+	}
+
+	@Test
+	void write_givenSmallBuffer_whenEncoded_matchesOutputStreamWriter() throws Exception {
+
+		for(Charset cs: new Charset[] { StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII }) {
+			for(int size: new int[] { 7, 64, 4096 }) {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				ChannelWriter w = new ChannelWriter(Channels.newChannel(bos), cs, size, true);
+				writeAll(w);
+				w.flush();
+				writeAll(w);
+				w.close();
+				ByteArrayOutputStream twice = new ByteArrayOutputStream();
+				twice.write(expected(cs));
+				twice.write(expected(cs));
+
+				// Validate
+				assertArrayEquals(twice.toByteArray(), bos.toByteArray(), cs + " " + size);
+			}
+		}
+	}
+
+}
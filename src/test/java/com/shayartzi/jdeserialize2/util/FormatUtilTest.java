@@ -0,0 +1,38 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+class FormatUtilTest {
+
+	private static String oldHexnoprefix(long value, int len) {
+		if(value < 0) {
+			value = 256 + value;
+		}
+		String s = Long.toString(value, 16);
+		while(s.length() < len) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+	@Test
+	void hex_givenValues_whenFormatted_matchesLongToString() throws Exception {
+
+		long[] values = { 0, 1, 0xf, 0x10, 0xff, 0x7e0000, Integer.MAX_VALUE, Long.MAX_VALUE, -1, -128, -256, -257, -4096, Long.MIN_VALUE };
+
+		// Validate
+		for(long v: values) {
+			assertEquals("0x" + oldHexnoprefix(v, 2), FormatUtil.hex(v));
+			assertEquals(oldHexnoprefix(v, 4), FormatUtil.hexnoprefix(v, 4));
+			assertEquals(oldHexnoprefix(v, 20), FormatUtil.hexnoprefix(v, 20));
+			StringWriter sw = new StringWriter();
+			FormatUtil.writeHex(sw, v);
+			assertEquals(FormatUtil.hex(v), sw.toString());
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+
+	@Test
+	void value_givenNestedStructures_whenWritten_separatesMembers() throws Exception {
+
+		StringWriter sw = new StringWriter();
+		JsonWriter json = new JsonWriter(sw);
+		json.beginObject();
+		json.name("a").value(1);
+		json.name("b").beginArray().value(true).nullValue().value(0.5f).value(Double.NaN).beginObject().endObject().endArray();
+		json.name("c").value((String)null);
+		json.endObject();
+		json.newLine();
+		json.beginArray().endArray();
+
+		// Validate
+		assertEquals("{\"a\":1,\"b\":[true,null,0.5,\"NaN\",{}],\"c\":null}\n[]", sw.toString());
+		assertEquals(0, json.getDepth());
+	}
+
+	@Test
+	void value_givenSpecialCharacters_whenWritten_escapesThem() throws Exception {
+
+		StringWriter sw = new StringWriter();
+		new JsonWriter(sw).value("q\"b\\n\n\u0001\u2028 é 😀 \ud800!");
+
+		// Validate
+		assertEquals("\"q\\\"b\\\\n\\n\\u0001\\u2028 é 😀 \\ud800!\"", sw.toString());
+	}
+
+	@Test
+	void base64Value_givenEveryRemainder_whenWritten_matchesBase64Encoder() throws Exception {
+
+		byte[] data = new byte[2000];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i * 31);
+		}
+		for(int len: new int[] { 0, 1, 2, 3, 767, 768, 769, 2000 }) {
+			StringWriter sw = new StringWriter();
+			new JsonWriter(sw).base64Value(data, 0, len);
+
+			// Validate
+			byte[] expected = Base64.getEncoder().encode(java.util.Arrays.copyOf(data, len));
+			assertEquals("\"" + new String(expected, StandardCharsets.US_ASCII) + "\"", sw.toString());
+		}
+	}
+
+	@Test
+	void name_givenMisplacedCall_whenWritten_throws() throws Exception {
+
+		JsonWriter json = new JsonWriter(new StringWriter());
+		json.beginArray();
+
+		// Validate
+		assertThrows(IllegalStateException.class, () -> json.name("x"));
+		assertThrows(IllegalStateException.class, () -> json.endObject());
+		json.endArray();
+		assertThrows(IllegalStateException.class, () -> json.value(1));
+	}
+
+}
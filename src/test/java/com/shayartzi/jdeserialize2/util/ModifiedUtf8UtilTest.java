@@ -0,0 +1,64 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class ModifiedUtf8UtilTest {
+
+	private static byte[] encode(String s) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new DataOutputStream(baos).writeUTF(s);
+		byte[] b = baos.toByteArray();
+		return Arrays.copyOfRange(b, 2, b.length);
+	}
+
+	@Test
+	void decode_givenMixedStrings_whenDecodedOrEncoded_matchesWriteUTF() throws Exception {
+
+		String[] strings = {
+				"",
+				"java.lang.String",
+				"exactly8",
+				"a long ascii string that spans several words\u007f",
+				"café crème",
+				"ascii prefix ÿ then Ā then €",
+				"\u0000 null",
+				"😀 surrogates"
+		};
+
+		// Validate
+		for(String s : strings) {
+			byte[] b = encode(s);
+			assertEquals(s, ModifiedUtf8Util.decode(b, 0, b.length));
+			byte[] padded = new byte[b.length + 5];
+			System.arraycopy(b, 0, padded, 3, b.length);
+			assertEquals(s, ModifiedUtf8Util.decode(padded, 3, b.length));
+			ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+			direct.put(b).flip();
+			assertEquals(s, ModifiedUtf8Util.decode(direct));
+			assertArrayEquals(b, ModifiedUtf8Util.encode(s));
+		}
+	}
+
+	@Test
+	void decode_givenInvalidBytes_whenDecoded_throws() {
+
+		// Validate
+		assertThrows(UTFDataFormatException.class, () -> ModifiedUtf8Util.decode(new byte[] { 'a', 'b', 'c', 'd', 'e', 'f', 'g', 0, 'h' }, 0, 9));
+		assertThrows(UTFDataFormatException.class, () -> ModifiedUtf8Util.decode(new byte[] { (byte)0xc3, 'a' }, 0, 2));
+		assertThrows(UTFDataFormatException.class, () -> ModifiedUtf8Util.decode(new byte[] { (byte)0xf0, (byte)0x9f, (byte)0x98, (byte)0x80 }, 0, 4));
+		assertThrows(EOFException.class, () -> ModifiedUtf8Util.decode(new byte[] { 'a', (byte)0xe2, (byte)0x82 }, 0, 3));
+	}
+
+}
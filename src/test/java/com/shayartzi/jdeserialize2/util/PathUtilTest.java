@@ -0,0 +1,46 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PathUtilTest {
+
+	@TempDir
+	Path tempDir;
+
+	private String touch(String name) throws Exception {
+		Path p = tempDir.resolve(name);
+		Files.createDirectories(p.getParent());
+		Files.write(p, new byte[0]);
+		return p.toString();
+	}
+
+	@Test
+	void expandArguments_givenDirectoryAndGlobs_whenExpanded_listsMatchingFilesInOrder() throws Exception {
+
+		String top = touch("b.ser");
+		String nested = touch("sub/a.ser");
+		String deeper = touch("sub/deeper/c.ser");
+		String other = touch("sub/notes.txt");
+		String base = tempDir.toString() + "/";
+
+		// Validate
+		assertEquals(List.of(top, nested, deeper, other), PathUtil.expandArguments(List.of(tempDir.toString())));
+		assertEquals(List.of(top), PathUtil.expandArguments(List.of(base + "*.ser")));
+		assertEquals(List.of(nested), PathUtil.expandArguments(List.of(base + "*/*.ser")));
+		assertEquals(List.of(top, nested, deeper), PathUtil.expandArguments(List.of(base + "**.ser")));
+		assertEquals(List.of(), PathUtil.expandArguments(List.of(base + "missing/*.ser")));
+		assertEquals(List.of("missing.ser"), PathUtil.expandArguments(List.of("missing.ser")));
+		assertTrue(PathUtil.isGlob(base + "*.ser"));
+		assertFalse(PathUtil.isGlob(top));
+	}
+
+}
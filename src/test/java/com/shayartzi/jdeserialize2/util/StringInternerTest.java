@@ -0,0 +1,102 @@
+package com.shayartzi.jdeserialize2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.shayartzi.jdeserialize2.Jdeserialize2;
+import com.shayartzi.jdeserialize2.legacy.EnumObj;
+
+class StringInternerTest {
+
+	private static ByteBuffer raw(String s) {
+		return ByteBuffer.wrap(ModifiedUtf8Util.encode(s));
+	}
+
+	@Test
+	void intern_givenSameBytes_whenInternedTwice_returnsSameString() throws Exception {
+
+		StringInterner interner = new StringInterner(100, StringInterner.Eviction.CAPPED);
+
+		String first = interner.intern(raw("café"));
+		String second = interner.intern(raw("café"));
+
+		// Validate
+		assertEquals("café", first);
+		assertSame(first, second);
+		assertEquals(1, interner.getHitCount());
+		assertEquals(1, interner.getMissCount());
+		assertEquals(0.5, interner.getHitRate());
+	}
+
+	@Test
+	void intern_givenFullTable_whenLru_evictsLeastRecentlyUsed() throws Exception {
+
+		StringInterner interner = new StringInterner(2, StringInterner.Eviction.LRU);
+
+		String a = interner.intern(raw("a"));
+		interner.intern(raw("b"));
+		interner.intern(raw("a"));
+		interner.intern(raw("c"));
+
+		// Validate
+		assertEquals(2, interner.size());
+		assertSame(a, interner.intern(raw("a")));
+		assertEquals("b", interner.intern(raw("b")));
+		assertEquals(2, interner.getHitCount());
+		assertEquals(4, interner.getMissCount());
+	}
+
+	@Test
+	void intern_givenFullTable_whenCapped_stopsAdding() throws Exception {
+
+		StringInterner interner = new StringInterner(1, 4, StringInterner.Eviction.CAPPED);
+
+		String a = interner.intern(raw("a"));
+		String b = interner.intern(raw("b"));
+		String longer = interner.intern(raw("longer"));
+
+		// Validate
+		assertEquals(1, interner.size());
+		assertSame(a, interner.intern(raw("a")));
+		assertNotSame(b, interner.intern(raw("b")));
+		assertNotSame(longer, interner.intern(raw("longer")));
+		assertEquals(1, interner.getHitCount());
+		assertEquals(3, interner.getMissCount());
+	}
+
+	@Test
+	void setStringInterner_givenTwoStreams_whenParsed_sharesStrings() throws Exception {
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(TimeUnit.SECONDS);
+		}
+		byte[] data = bos.toByteArray();
+		StringInterner interner = new StringInterner(100, StringInterner.Eviction.LRU);
+
+		Jdeserialize2 first = new Jdeserialize2(null, new StringWriter());
+		first.setStringInterner(interner);
+		first.run(ByteBuffer.wrap(data), false);
+		Jdeserialize2 second = new Jdeserialize2(null, new StringWriter());
+		second.setStringInterner(interner);
+		second.run(ByteBuffer.wrap(data), false);
+
+		// Validate
+		EnumObj a = (EnumObj)first.getContent().get(0);
+		EnumObj b = (EnumObj)second.getContent().get(0);
+		assertEquals("SECONDS", b.value.getValue());
+		assertSame(a.value.getValue(), b.value.getValue());
+		assertSame(a.classdesc.name, b.classdesc.name);
+		assertEquals(interner.getMissCount(), interner.getHitCount());
+	}
+
+}